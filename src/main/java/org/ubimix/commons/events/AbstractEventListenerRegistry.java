@@ -0,0 +1,556 @@
+/* ************************************************************************** *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This file is licensed to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * ************************************************************************** */
+package org.ubimix.commons.events;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The common implementation of listener registries. Listeners of each event
+ * type (and of each routing key) are kept in immutable {@link ListenerList}s;
+ * each modification replaces the corresponding list by a new one.
+ * Modifications (and notifications of interceptors) are serialized by the
+ * monitor of this registry.
+ * <p>
+ * Subclasses define the maps used to store listener lists (see
+ * {@link #AbstractEventListenerRegistry(Map, Map)} and {@link #newKeyIndex()})
+ * and decide whether reading methods should take the lock of this registry.
+ * </p>
+ * 
+ * @author kotelnikov
+ */
+public abstract class AbstractEventListenerRegistry
+    implements
+    IEventListenerRegistry {
+
+    /**
+     * One notification received by a {@link PendingInterceptor}.
+     */
+    private static class Change {
+
+        private final boolean fAdded;
+
+        private final Class<?> fEventType;
+
+        private final IEventListener<?> fListener;
+
+        public Change(
+            Class<?> eventType,
+            IEventListener<?> listener,
+            boolean added) {
+            fEventType = eventType;
+            fListener = listener;
+            fAdded = added;
+        }
+
+    }
+
+    /**
+     * This object takes the place of a new interceptor while it is
+     * initialized outside of the registry lock. It collects notifications
+     * about changes made after the snapshot given to the interceptor.
+     */
+    private static class PendingInterceptor
+        implements
+        IEventListenerInterceptor {
+
+        private final List<Change> fChanges = new ArrayList<Change>();
+
+        public void done() {
+        }
+
+        public void init(Map<Class<?>, List<IEventListener<?>>> listeners) {
+        }
+
+        public void onAddListener(
+            Class<?> eventType,
+            IEventListener<?> listener) {
+            fChanges.add(new Change(eventType, listener, true));
+        }
+
+        public void onRemoveListener(
+            Class<?> eventType,
+            IEventListener<?> listener) {
+            fChanges.add(new Change(eventType, listener, false));
+        }
+
+        /**
+         * Delivers collected notifications to the given interceptor.
+         */
+        public void replay(IEventListenerInterceptor interceptor) {
+            for (Change change : fChanges) {
+                if (change.fAdded) {
+                    interceptor.onAddListener(
+                        change.fEventType,
+                        change.fListener);
+                } else {
+                    interceptor.onRemoveListener(
+                        change.fEventType,
+                        change.fListener);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * The modification epoch; it is incremented by the notification methods.
+     */
+    private volatile long fEpoch;
+
+    /**
+     * Registered interceptors. This list is never modified: it is replaced by
+     * a modified copy under the lock of this registry (see
+     * {@link #replaceListenerInterceptor(IEventListenerInterceptor, IEventListenerInterceptor)}
+     * ).
+     */
+    private volatile List<IEventListenerInterceptor> fInterceptors = Collections
+        .emptyList();
+
+    /**
+     * Listeners registered with routing keys, indexed by event types and keys.
+     */
+    private final Map<Class<?>, Map<Object, ListenerList>> fKeyedMap;
+
+    private final Map<Class<?>, ListenerList> fMap;
+
+    /**
+     * The snapshot of the current epoch; it is <code>null</code> if it should
+     * be re-built.
+     */
+    private volatile RegistrySnapshot fSnapshot;
+
+    /**
+     * @param map the empty map used to store listeners of each event type
+     * @param keyedMap the empty map used to store indexes of listeners
+     *        registered with routing keys
+     */
+    protected AbstractEventListenerRegistry(
+        Map<Class<?>, ListenerList> map,
+        Map<Class<?>, Map<Object, ListenerList>> keyedMap) {
+        fMap = map;
+        fKeyedMap = keyedMap;
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#addListener(java.lang.Class,
+     *      org.ubimix.commons.events.IEventListener)
+     */
+    public <E> IEventListenerRegistration addListener(
+        Class<E> eventType,
+        IEventListener<? super E> listener) {
+        return addListener(eventType, listener, 0);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#addListener(java.lang.Class,
+     *      org.ubimix.commons.events.IEventListener, int)
+     */
+    public synchronized <E> IEventListenerRegistration addListener(
+        final Class<E> eventType,
+        final IEventListener<? super E> listener,
+        int priority) {
+        ListenerList list = fMap.get(eventType);
+        if (list != null) {
+            list = list.add(listener, priority);
+        } else {
+            list = new ListenerList(listener, priority);
+        }
+        fMap.put(eventType, list);
+        notifyAddListener(eventType, listener);
+        return newRegistration(eventType, listener);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#addListener(java.lang.Class,
+     *      java.lang.Object, org.ubimix.commons.events.IEventListener)
+     */
+    public synchronized <E> IEventListenerRegistration addListener(
+        final Class<E> eventType,
+        final Object key,
+        final IEventListener<? super E> listener) {
+        Map<Object, ListenerList> index = fKeyedMap.get(eventType);
+        if (index == null) {
+            index = newKeyIndex();
+            fKeyedMap.put(eventType, index);
+        }
+        ListenerList list = index.get(key);
+        if (list != null) {
+            list = list.add(listener, 0);
+        } else {
+            list = new ListenerList(listener, 0);
+        }
+        index.put(key, list);
+        notifyAddListener(eventType, listener);
+        return new IEventListenerRegistration() {
+            public boolean unregister() {
+                return removeListener(eventType, key, listener);
+            }
+        };
+    }
+
+    /**
+     * The new interceptor is initialized from the snapshot of the registry
+     * (see {@link #getSnapshot()}) without holding the lock of this registry.
+     * Changes made while it is initialized are reported to it just after the
+     * {@link IEventListenerInterceptor#init(Map)} method, so it receives all
+     * notifications in order.
+     * 
+     * @see org.ubimix.commons.events.IEventListenerRegistry#addListenerInterceptor(org.ubimix.commons.events.IEventListenerInterceptor)
+     */
+    public void addListenerInterceptor(IEventListenerInterceptor interceptor) {
+        PendingInterceptor pending = new PendingInterceptor();
+        RegistrySnapshot snapshot;
+        synchronized (this) {
+            snapshot = getSnapshot();
+            replaceListenerInterceptor(null, pending);
+        }
+        try {
+            interceptor.init(snapshot.getListenerMap());
+        } finally {
+            synchronized (this) {
+                replaceListenerInterceptor(pending, interceptor);
+                pending.replay(interceptor);
+            }
+        }
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#addListeners(java.lang.Class,
+     *      java.util.Collection)
+     */
+    public <E> List<IEventListenerRegistration> addListeners(
+        Class<E> eventType,
+        Collection<? extends IEventListener<? super E>> listeners) {
+        return addListeners(eventType, listeners, 0);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#addListeners(java.lang.Class,
+     *      java.util.Collection, int)
+     */
+    public synchronized <E> List<IEventListenerRegistration> addListeners(
+        Class<E> eventType,
+        Collection<? extends IEventListener<? super E>> listeners,
+        int priority) {
+        List<IEventListenerRegistration> result = new ArrayList<IEventListenerRegistration>(
+            listeners.size());
+        if (listeners.isEmpty()) {
+            return result;
+        }
+        IEventListener<?>[] array = listeners
+            .toArray(new IEventListener<?>[listeners.size()]);
+        ListenerList list = fMap.get(eventType);
+        if (list != null) {
+            list = list.add(array, priority);
+        } else {
+            list = new ListenerList(array, priority);
+        }
+        fMap.put(eventType, list);
+        for (IEventListener<? super E> listener : listeners) {
+            notifyAddListener(eventType, listener);
+            result.add(newRegistration(eventType, listener));
+        }
+        return result;
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#getEpoch()
+     */
+    public long getEpoch() {
+        return fEpoch;
+    }
+
+    /**
+     * Returns all registered interceptors. The returned list should not be
+     * modified.
+     * 
+     * @return a list of registered interceptors
+     */
+    protected List<IEventListenerInterceptor> getListenerInterceptors() {
+        return fInterceptors;
+    }
+
+    /**
+     * Returns an unmodifiable view of all listeners registered without routing
+     * keys. This map is given to newly added interceptors.
+     * 
+     * @return a map of event types to the corresponding listeners
+     */
+    protected Map<Class<?>, List<IEventListener<?>>> getListenerMap() {
+        return Collections
+            .<Class<?>, List<IEventListener<?>>> unmodifiableMap(fMap);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#getListeners(java.lang.Class)
+     */
+    public <E> List<IEventListener<?>> getListeners(Class<E> eventType) {
+        List<IEventListener<?>> listeners = fMap.get(eventType);
+        return listeners;
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#getListeners(java.lang.Class,
+     *      java.lang.Object)
+     */
+    public <E> List<IEventListener<?>> getListeners(
+        Class<E> eventType,
+        Object key) {
+        Map<Object, ListenerList> index = fKeyedMap.get(eventType);
+        List<IEventListener<?>> listeners = index != null
+            ? index.get(key)
+            : null;
+        return listeners;
+    }
+
+    /**
+     * Modifications only invalidate the current snapshot; a new one is built
+     * by the first call of this method after a modification. It copies the
+     * maps of event types, so it takes O(types) time, but a burst of
+     * modifications costs one copy and unchanged registries return the same
+     * snapshot in O(1).
+     * 
+     * @see org.ubimix.commons.events.IEventListenerRegistry#getSnapshot()
+     */
+    public RegistrySnapshot getSnapshot() {
+        RegistrySnapshot snapshot = fSnapshot;
+        if (snapshot == null) {
+            synchronized (this) {
+                snapshot = fSnapshot;
+                if (snapshot == null) {
+                    snapshot = newSnapshot();
+                    fSnapshot = snapshot;
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#hasKeyedListeners(java.lang.Class)
+     */
+    public boolean hasKeyedListeners(Class<?> eventType) {
+        return fKeyedMap.containsKey(eventType);
+    }
+
+    /**
+     * Creates a new empty map used to store listeners of one event type
+     * registered with routing keys. This method is called while the lock of
+     * this registry is held.
+     * 
+     * @return a new map of routing keys to listener lists
+     */
+    protected abstract Map<Object, ListenerList> newKeyIndex();
+
+    /**
+     * Creates a new registration object removing the given listener.
+     */
+    private <E> IEventListenerRegistration newRegistration(
+        final Class<E> eventType,
+        final IEventListener<? super E> listener) {
+        return new IEventListenerRegistration() {
+            public boolean unregister() {
+                return removeListener(eventType, listener);
+            }
+        };
+    }
+
+    /**
+     * Creates a new snapshot of all listeners. This method is called while
+     * the lock of this registry is held.
+     */
+    private RegistrySnapshot newSnapshot() {
+        Map<Class<?>, List<IEventListener<?>>> listeners = new HashMap<Class<?>, List<IEventListener<?>>>(
+            getListenerMap());
+        Map<Class<?>, Map<Object, List<IEventListener<?>>>> keyedListeners = new HashMap<Class<?>, Map<Object, List<IEventListener<?>>>>();
+        for (Map.Entry<Class<?>, Map<Object, ListenerList>> entry : fKeyedMap
+            .entrySet()) {
+            keyedListeners.put(
+                entry.getKey(),
+                new HashMap<Object, List<IEventListener<?>>>(entry.getValue()));
+        }
+        return new RegistrySnapshot(fEpoch, listeners, keyedListeners);
+    }
+
+    /**
+     * Increments the modification epoch and notifies all interceptors about
+     * a new listener. This method should be called by subclasses while they
+     * hold the lock of this registry.
+     * 
+     * @param eventType the type of events of the added listener
+     * @param listener the added listener
+     */
+    protected void notifyAddListener(
+        Class<?> eventType,
+        IEventListener<?> listener) {
+        fEpoch++;
+        fSnapshot = null;
+        for (IEventListenerInterceptor interceptor : fInterceptors) {
+            interceptor.onAddListener(eventType, listener);
+        }
+    }
+
+    /**
+     * Increments the modification epoch and notifies all interceptors about
+     * a removed listener. This method should be called by subclasses while
+     * they hold the lock of this registry.
+     * 
+     * @param eventType the type of events of the removed listener
+     * @param listener the removed listener
+     */
+    protected void notifyRemoveListener(
+        Class<?> eventType,
+        IEventListener<?> listener) {
+        fEpoch++;
+        fSnapshot = null;
+        for (IEventListenerInterceptor interceptor : fInterceptors) {
+            interceptor.onRemoveListener(eventType, listener);
+        }
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#removeListener(java.lang.Class,
+     *      org.ubimix.commons.events.IEventListener)
+     */
+    public synchronized <E> boolean removeListener(
+        Class<E> eventType,
+        IEventListener<? super E> listener) {
+        ListenerList list = fMap.get(eventType);
+        boolean result = false;
+        if (list != null) {
+            ListenerList newList = list.remove(listener);
+            if (newList != list) {
+                result = true;
+                if (newList == null) {
+                    fMap.remove(eventType);
+                } else {
+                    fMap.put(eventType, newList);
+                }
+                notifyRemoveListener(eventType, listener);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#removeListener(java.lang.Class,
+     *      java.lang.Object, org.ubimix.commons.events.IEventListener)
+     */
+    public synchronized <E> boolean removeListener(
+        Class<E> eventType,
+        Object key,
+        IEventListener<? super E> listener) {
+        Map<Object, ListenerList> index = fKeyedMap.get(eventType);
+        ListenerList list = index != null ? index.get(key) : null;
+        boolean result = false;
+        if (list != null) {
+            ListenerList newList = list.remove(listener);
+            if (newList != list) {
+                result = true;
+                if (newList != null) {
+                    index.put(key, newList);
+                } else {
+                    index.remove(key);
+                    if (index.isEmpty()) {
+                        fKeyedMap.remove(eventType);
+                    }
+                }
+                notifyRemoveListener(eventType, listener);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#removeListenerInterceptor(org.ubimix.commons.events.IEventListenerInterceptor)
+     */
+    public synchronized void removeListenerInterceptor(
+        IEventListenerInterceptor interceptor) {
+        replaceListenerInterceptor(interceptor, null);
+        interceptor.done();
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#removeListeners(java.lang.Class,
+     *      java.util.Collection)
+     */
+    public synchronized <E> int removeListeners(
+        Class<E> eventType,
+        Collection<? extends IEventListener<? super E>> listeners) {
+        ListenerList list = fMap.get(eventType);
+        if (list == null) {
+            return 0;
+        }
+        ListenerList newList = list.removeListeners(listeners);
+        if (newList == list) {
+            return 0;
+        }
+        if (newList == null) {
+            fMap.remove(eventType);
+        } else {
+            fMap.put(eventType, newList);
+        }
+        // The new list keeps the order of remaining listeners, so removed
+        // listeners are found in one pass.
+        int size = list.size();
+        int newSize = newList != null ? newList.size() : 0;
+        for (int i = 0, j = 0; i < size; i++) {
+            IEventListener<?> listener = list.get(i);
+            if (j < newSize && newList.get(j) == listener) {
+                j++;
+            } else {
+                notifyRemoveListener(eventType, listener);
+            }
+        }
+        return size - newSize;
+    }
+
+    /**
+     * Replaces the list of interceptors by a modified copy. This method should
+     * be called while the lock of this registry is held.
+     * 
+     * @param prev the interceptor to replace; if it is <code>null</code> (or
+     *        if it is not registered) then the new interceptor is added to the
+     *        end of the list
+     * @param next the new interceptor; if it is <code>null</code> then the
+     *        previous interceptor is removed
+     */
+    private void replaceListenerInterceptor(
+        IEventListenerInterceptor prev,
+        IEventListenerInterceptor next) {
+        List<IEventListenerInterceptor> list = new ArrayList<IEventListenerInterceptor>(
+            fInterceptors);
+        int idx = prev != null ? list.indexOf(prev) : -1;
+        if (idx < 0) {
+            if (next == null) {
+                return;
+            }
+            list.add(next);
+        } else if (next != null) {
+            list.set(idx, next);
+        } else {
+            list.remove(idx);
+        }
+        fInterceptors = Collections.unmodifiableList(list);
+    }
+
+}
@@ -0,0 +1,324 @@
+/* ************************************************************************** *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ * 
+ * This file is licensed to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * ************************************************************************** */
+package org.ubimix.commons.events;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This object keeps "dispatch plans" for event classes. A dispatch plan is a
+ * flat array of all listeners which should be notified about an event of a
+ * specific class: listeners registered for the class itself followed by
+ * listeners registered for all its superclasses. Plans are built lazily, the
+ * first time an event of the corresponding class is dispatched, and they are
+ * dropped every time when the modification epoch of the underlying registry
+ * changes (see {@link IEventListenerRegistry#getEpoch()}). This check costs
+ * one volatile read, so this cache does not need to be notified about changes
+ * of listeners.
+ * <p>
+ * Listeners registered with routing keys (see {@link IEventWithKey}) are not
+ * part of plans: there could be too many keys to cache them. Instead, each plan
+ * keeps the list of classes of the hierarchy having keyed listeners, and
+ * these listeners are loaded from the registry using the key of the
+ * dispatched event (see {@link #getKeyedTypes(Class)}).
+ * </p>
+ * <p>
+ * Reads of known plans are not synchronized. Plans of the current epoch are
+ * kept in an immutable table referenced by a volatile field. New plans are
+ * first added to a small map of "pending" plans guarded by the monitor of this
+ * cache; pending plans are merged into a new copy of the table when the
+ * number of synchronized reads since the last merge reaches the size of the
+ * table, so the copying costs a constant time per read on average. The table
+ * is also replaced when the epoch changes. So the same instance of this cache
+ * can be shared by multiple event managers working in different threads (this
+ * class does not use <code>java.util.concurrent</code>, so it is available in
+ * GWT as well).
+ * </p>
+ * 
+ * @author kotelnikov
+ */
+public class DispatchPlanCache {
+
+    /**
+     * Dispatch plan of one event class.
+     */
+    private static class Plan {
+
+        private final Class<?>[] fKeyedTypes;
+
+        private final IEventListener<?>[] fListeners;
+
+        public Plan(IEventListener<?>[] listeners, Class<?>[] keyedTypes) {
+            fListeners = listeners;
+            fKeyedTypes = keyedTypes;
+        }
+
+    }
+
+    /**
+     * Immutable map of plans computed for one modification epoch of the
+     * registry.
+     */
+    private static class PlanTable {
+
+        private final long fEpoch;
+
+        private final Map<Class<?>, Plan> fPlans;
+
+        public PlanTable(long epoch, Map<Class<?>, Plan> plans) {
+            fEpoch = epoch;
+            fPlans = plans;
+        }
+
+    }
+
+    /**
+     * The plan for event classes without listeners.
+     */
+    protected static final IEventListener<?>[] EMPTY_PLAN = {};
+
+    private static final Class<?>[] EMPTY_TYPES = {};
+
+    /**
+     * Plans of the current epoch which are not yet merged into the table of
+     * plans. This map is guarded by the monitor of this cache.
+     */
+    private final Map<Class<?>, Plan> fPendingPlans = new HashMap<Class<?>, Plan>();
+
+    /**
+     * The number of synchronized reads since the last merge of pending plans.
+     */
+    private int fPendingReads;
+
+    private IEventListenerRegistry fRegistry;
+
+    /**
+     * Already computed plans. The table is replaced when pending plans are
+     * merged and every time when the registry is changed.
+     */
+    private volatile PlanTable fTable = newTable(-1);
+
+    /**
+     * @param registry the registry providing listeners
+     */
+    public DispatchPlanCache(IEventListenerRegistry registry) {
+        fRegistry = registry;
+    }
+
+    /**
+     * Returns the given event class and its superclasses which have listeners
+     * registered with routing keys.
+     * 
+     * @param eventType the class of the dispatched event
+     * @return an array of classes with keyed listeners; this method never
+     *         returns <code>null</code>
+     * @see IEventListenerRegistry#getListeners(Class, Object)
+     */
+    public Class<?>[] getKeyedTypes(Class<?> eventType) {
+        return getPlan(eventType).fKeyedTypes;
+    }
+
+    /**
+     * Returns an array of all listeners which should be notified about events
+     * of the specified class. The returned array should not be modified.
+     * 
+     * @param eventType the class of the dispatched event
+     * @return an array of listeners for the given event class; this method
+     *         never returns <code>null</code>
+     */
+    public IEventListener<?>[] getListeners(Class<?> eventType) {
+        return getPlan(eventType).fListeners;
+    }
+
+    /**
+     * Returns a pending plan of the specified event class computed for the
+     * given epoch.
+     * 
+     * @return a pending plan or <code>null</code> if it is not found
+     */
+    private synchronized Plan getPendingPlan(Class<?> eventType, long epoch) {
+        if (fTable.fEpoch != epoch) {
+            return null;
+        }
+        Plan plan = fPendingPlans.get(eventType);
+        if (plan != null) {
+            onPendingRead();
+        }
+        return plan;
+    }
+
+    private Plan getPlan(Class<?> eventType) {
+        long epoch = fRegistry.getEpoch();
+        PlanTable table = fTable;
+        Plan plan = table.fEpoch == epoch ? table.fPlans.get(eventType) : null;
+        if (plan == null) {
+            plan = getPendingPlan(eventType, epoch);
+            if (plan == null) {
+                plan = new Plan(newPlan(eventType), newKeyedTypes(eventType));
+                publish(eventType, plan, epoch);
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Returns the registry used as a source of listeners.
+     * 
+     * @return the registry used as a source of listeners
+     */
+    public IEventListenerRegistry getRegistry() {
+        return fRegistry;
+    }
+
+    /**
+     * Returns <code>true</code> if the dispatch plan for the specified event
+     * class is not empty or if some of its classes have keyed listeners. Once
+     * the plan is computed this method does not take any locks.
+     * 
+     * @param eventType the class of the event
+     * @return <code>true</code> if at least one listener should be notified
+     *         about events of the specified class
+     */
+    public boolean hasListeners(Class<?> eventType) {
+        Plan plan = getPlan(eventType);
+        return plan.fListeners.length != 0 || plan.fKeyedTypes.length != 0;
+    }
+
+    /**
+     * Returns <code>true</code> if the given event could be ignored because
+     * nobody is interested in it. Events with callbacks and events with
+     * lifecycle are never ignored. This method is used by event managers to
+     * avoid queueing of events without listeners.
+     * 
+     * @param event the fired event
+     * @param callback the callback associated with the event
+     * @return <code>true</code> if the event should not be queued
+     */
+    public boolean isIgnored(Object event, IEventListener<?> callback) {
+        return callback == null
+            && event != null
+            && !(event instanceof IEventWithLifecycle)
+            && !hasListeners(event.getClass());
+    }
+
+    /**
+     * Returns classes of the hierarchy of the given event class having
+     * listeners registered with routing keys.
+     * 
+     * @param eventType the class of the event
+     * @return an array of classes with keyed listeners
+     */
+    private Class<?>[] newKeyedTypes(Class<?> eventType) {
+        List<Class<?>> result = null;
+        for (Class<?> type = eventType; type != null; type = type
+            .getSuperclass()) {
+            if (fRegistry.hasKeyedListeners(type)) {
+                if (result == null) {
+                    result = new ArrayList<Class<?>>();
+                }
+                result.add(type);
+            }
+        }
+        return result != null
+            ? result.toArray(new Class<?>[result.size()])
+            : EMPTY_TYPES;
+    }
+
+    /**
+     * Builds a new dispatch plan for the specified event class. This method
+     * could be overloaded in subclasses to change the set of listeners
+     * notified about events of a specific type.
+     * 
+     * @param eventType the class of the event
+     * @return a newly created plan
+     */
+    protected IEventListener<?>[] newPlan(Class<?> eventType) {
+        IEventListener<?>[] result = EMPTY_PLAN;
+        Class<?> type = eventType;
+        while (type != null) {
+            List<IEventListener<?>> list = fRegistry.getListeners(type);
+            int size = list != null ? list.size() : 0;
+            if (size > 0) {
+                // Most plans are built from one list, so they are copied
+                // directly without intermediate collections.
+                int pos = result.length;
+                IEventListener<?>[] plan = new IEventListener<?>[pos + size];
+                System.arraycopy(result, 0, plan, 0, pos);
+                for (int i = 0; i < size; i++) {
+                    plan[pos + i] = list.get(i);
+                }
+                result = plan;
+            }
+            type = type.getSuperclass();
+        }
+        return result;
+    }
+
+    private static PlanTable newTable(long epoch) {
+        Map<Class<?>, Plan> plans = Collections.emptyMap();
+        return new PlanTable(epoch, plans);
+    }
+
+    /**
+     * This method is called for each synchronized read of plans. It merges
+     * pending plans into a new copy of the table when the number of such reads
+     * reaches the size of the table.
+     */
+    private void onPendingRead() {
+        PlanTable table = fTable;
+        fPendingReads++;
+        if (fPendingReads >= table.fPlans.size()) {
+            Map<Class<?>, Plan> plans = new HashMap<Class<?>, Plan>(
+                table.fPlans);
+            plans.putAll(fPendingPlans);
+            fTable = new PlanTable(table.fEpoch, plans);
+            fPendingPlans.clear();
+            fPendingReads = 0;
+        }
+    }
+
+    /**
+     * Adds the given plan to pending plans. Plans computed for an obsolete
+     * epoch are not published; plans of a new epoch replace the whole table.
+     */
+    private synchronized void publish(Class<?> eventType, Plan plan, long epoch) {
+        PlanTable table = fTable;
+        if (table.fEpoch > epoch) {
+            return;
+        }
+        if (table.fEpoch < epoch) {
+            fTable = newTable(epoch);
+            fPendingPlans.clear();
+            fPendingReads = 0;
+        }
+        fPendingPlans.put(eventType, plan);
+        onPendingRead();
+    }
+
+    /**
+     * Drops all computed plans.
+     */
+    public synchronized void reset() {
+        fTable = newTable(-1);
+        fPendingPlans.clear();
+        fPendingReads = 0;
+    }
+
+}
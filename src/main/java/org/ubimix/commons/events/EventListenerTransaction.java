@@ -0,0 +1,192 @@
+/* ************************************************************************** *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ * 
+ * This file is licensed to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * ************************************************************************** */
+package org.ubimix.commons.events;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registration transactions collect listeners and add them to a registry at
+ * once, when the {@link #commit()} method is called. Listeners of the same
+ * event type and priority are added by one
+ * {@link IEventListenerRegistry#addListeners(Class, java.util.Collection, int)}
+ * call, so the registry copies its internal arrays only once for each group,
+ * whatever the number of listeners. This class is not thread-safe.
+ * 
+ * <pre>
+ * EventListenerTransaction transaction = new EventListenerTransaction(manager);
+ * for (Foo foo : foos) {
+ *     registrations.add(transaction.addListener(FooEvent.class, foo));
+ * }
+ * transaction.commit();
+ * </pre>
+ * 
+ * @author kotelnikov
+ */
+public class EventListenerTransaction {
+
+    /**
+     * Registrations returned by transactions. They can be used to remove
+     * listeners before and after the commit.
+     */
+    private class Registration implements IEventListenerRegistration {
+
+        private final Class<?> fEventType;
+
+        private final IEventListener<?> fListener;
+
+        private final int fPriority;
+
+        public Registration(
+            Class<?> eventType,
+            IEventListener<?> listener,
+            int priority) {
+            fEventType = eventType;
+            fListener = listener;
+            fPriority = priority;
+        }
+
+        @SuppressWarnings("unchecked")
+        public boolean unregister() {
+            if (fPending != null) {
+                return fPending.remove(this);
+            }
+            Class<Object> eventType = (Class<Object>) fEventType;
+            IEventListener<Object> listener = (IEventListener<Object>) fListener;
+            return fRegistry.removeListener(eventType, listener);
+        }
+
+    }
+
+    /**
+     * Registrations which are not committed yet. This field is
+     * <code>null</code> when the transaction is committed.
+     */
+    private List<Registration> fPending = new ArrayList<Registration>();
+
+    private final IEventListenerRegistry fRegistry;
+
+    /**
+     * @param registry the registry where listeners are added on commit
+     */
+    public EventListenerTransaction(IEventListenerRegistry registry) {
+        fRegistry = registry;
+    }
+
+    /**
+     * Adds a new listener to this transaction. The listener is registered
+     * when the transaction is committed.
+     * 
+     * @param eventType the type of events for which the listener should be
+     *        added
+     * @param listener the listener to add
+     * @return the registration object used to unregister the listener
+     */
+    public <E> IEventListenerRegistration addListener(
+        Class<E> eventType,
+        IEventListener<? super E> listener) {
+        return addListener(eventType, listener, 0);
+    }
+
+    /**
+     * Adds a new listener with the specified priority to this transaction.
+     * 
+     * @param eventType the type of events for which the listener should be
+     *        added
+     * @param listener the listener to add
+     * @param priority the priority of the listener
+     * @return the registration object used to unregister the listener
+     * @see IEventListenerRegistry#addListener(Class, IEventListener, int)
+     */
+    public <E> IEventListenerRegistration addListener(
+        Class<E> eventType,
+        IEventListener<? super E> listener,
+        int priority) {
+        checkPending();
+        Registration registration = new Registration(
+            eventType,
+            listener,
+            priority);
+        fPending.add(registration);
+        return registration;
+    }
+
+    private void checkPending() {
+        if (fPending == null) {
+            throw new IllegalStateException(
+                "The transaction is already committed.");
+        }
+    }
+
+    /**
+     * Registers all collected listeners in the registry.
+     */
+    @SuppressWarnings("unchecked")
+    public void commit() {
+        checkPending();
+        List<Registration> pending = fPending;
+        fPending = null;
+        Map<Class<?>, Map<Integer, List<IEventListener<?>>>> groups = new LinkedHashMap<Class<?>, Map<Integer, List<IEventListener<?>>>>();
+        for (Registration registration : pending) {
+            Map<Integer, List<IEventListener<?>>> group = groups
+                .get(registration.fEventType);
+            if (group == null) {
+                group = new LinkedHashMap<Integer, List<IEventListener<?>>>();
+                groups.put(registration.fEventType, group);
+            }
+            List<IEventListener<?>> listeners = group
+                .get(registration.fPriority);
+            if (listeners == null) {
+                listeners = new ArrayList<IEventListener<?>>();
+                group.put(registration.fPriority, listeners);
+            }
+            listeners.add(registration.fListener);
+        }
+        for (Map.Entry<Class<?>, Map<Integer, List<IEventListener<?>>>> entry : groups
+            .entrySet()) {
+            Class<Object> eventType = (Class<Object>) entry.getKey();
+            for (Map.Entry<Integer, List<IEventListener<?>>> group : entry
+                .getValue()
+                .entrySet()) {
+                List<IEventListener<Object>> listeners = (List<IEventListener<Object>>) (List<?>) group
+                    .getValue();
+                fRegistry.addListeners(eventType, listeners, group.getKey());
+            }
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if this transaction is already committed.
+     * 
+     * @return <code>true</code> if this transaction is already committed
+     */
+    public boolean isCommitted() {
+        return fPending == null;
+    }
+
+    /**
+     * Drops all collected listeners. The transaction could be used again after
+     * this call.
+     */
+    public void rollback() {
+        checkPending();
+        fPending.clear();
+    }
+
+}
@@ -16,8 +16,13 @@
  * ************************************************************************** */
 package org.ubimix.commons.events;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * This implementation of the {@link IEventManager} interface guarantees that
@@ -32,7 +37,31 @@ import java.util.List;
  */
 public class EventManager implements IEventManager {
 
-    protected static class EventNode {
+    /**
+     * Events fired together by the {@link EventManager#fireEvents(Iterable)}
+     * method are queued as one instance of this type.
+     */
+    protected static class EventBatch {
+
+        private List<Object> fEvents;
+
+        public EventBatch(List<Object> events) {
+            fEvents = events;
+        }
+
+        public List<Object> getEvents() {
+            return fEvents;
+        }
+
+    }
+
+    /**
+     * Nodes of this type keep fired events with their callbacks in the event
+     * queue.
+     * 
+     * @see IEventQueue
+     */
+    public static class EventNode {
         private IEventListener<?> fCallback;
 
         private Object fEvent;
@@ -49,20 +78,96 @@ public class EventManager implements IEventManager {
         public Object getEvent() {
             return fEvent;
         }
+
+        /**
+         * Re-initializes this node. It is used by event managers re-using the
+         * same nodes for multiple events.
+         * 
+         * @param event the new event
+         * @param callback the new callback
+         */
+        void set(Object event, IEventListener<?> callback) {
+            fEvent = event;
+            fCallback = callback;
+        }
     }
 
+    /**
+     * The maximal number of queued events; <code>0</code> means that the
+     * queue is not limited.
+     */
+    private int fCapacity;
+
+    /**
+     * This object is used to synchronize access to the number of queued events
+     * and to the overflow counters.
+     */
+    private final Object fCapacityLock = new Object();
+
     private int fDepth;
 
-    private LinkedList<EventNode> fEventNodes = new LinkedList<EventNode>();
+    /**
+     * Flattened arrays of listeners for each dispatched event class.
+     */
+    private DispatchPlanCache fDispatchPlans;
+
+    /**
+     * The queue of fired events; it is created on first use by the
+     * {@link #getEventQueue()} method.
+     */
+    private volatile IEventQueue fEventQueue;
 
     private IEventListenerRegistry fListenerRegistry;
 
+    /**
+     * Numbers of events affected by each overflow policy.
+     */
+    private final long[] fOverflowCounters = new long[EventOverflowPolicy
+        .values().length];
+
+    private EventOverflowPolicy fOverflowPolicy = EventOverflowPolicy.FAIL;
+
+    /**
+     * Queued conflatable events indexed by their classes and keys. This field
+     * is <code>null</code> if the conflating mode is not activated.
+     * 
+     * @see #setConflating(boolean)
+     */
+    private Map<Class<?>, Map<Object, EventNode>> fPendingEvents;
+
+    /**
+     * The number of queued events. This value is used only if the capacity of
+     * the queue is limited.
+     */
+    private int fQueueSize;
+
     public EventManager() {
         this(new EventListenerRegistry());
     }
 
+    /**
+     * This constructor creates a new dispatch plan cache for the given
+     * registry.
+     * 
+     * @param listenerRegistry the registry of listeners
+     */
     public EventManager(IEventListenerRegistry listenerRegistry) {
+        this(listenerRegistry, new DispatchPlanCache(listenerRegistry));
+    }
+
+    /**
+     * This constructor allows to share the same dispatch plan cache between
+     * multiple event managers using the same listener registry.
+     * 
+     * @param listenerRegistry the registry of listeners
+     * @param dispatchPlans the cache of dispatch plans built on top of the
+     *        given listener registry
+     */
+    public EventManager(
+        IEventListenerRegistry listenerRegistry,
+        DispatchPlanCache dispatchPlans) {
         fListenerRegistry = listenerRegistry;
+        fDispatchPlans = dispatchPlans;
     }
 
     /**
@@ -75,6 +180,28 @@ public class EventManager implements IEventManager {
         return fListenerRegistry.addListener(eventType, listener);
     }
 
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#addListener(java.lang.Class,
+     *      org.ubimix.commons.events.IEventListener, int)
+     */
+    public <E> IEventListenerRegistration addListener(
+        Class<E> eventType,
+        IEventListener<? super E> listener,
+        int priority) {
+        return fListenerRegistry.addListener(eventType, listener, priority);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#addListener(java.lang.Class,
+     *      java.lang.Object, org.ubimix.commons.events.IEventListener)
+     */
+    public <E> IEventListenerRegistration addListener(
+        Class<E> eventType,
+        Object key,
+        IEventListener<? super E> listener) {
+        return fListenerRegistry.addListener(eventType, key, listener);
+    }
+
     /**
      * @see org.ubimix.commons.events.IEventListenerRegistry#addListenerInterceptor(org.ubimix.commons.events.IEventListenerInterceptor)
      */
@@ -82,37 +209,173 @@ public class EventManager implements IEventManager {
         fListenerRegistry.addListenerInterceptor(interceptor);
     }
 
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#addListeners(java.lang.Class,
+     *      java.util.Collection)
+     */
+    public <E> List<IEventListenerRegistration> addListeners(
+        Class<E> eventType,
+        Collection<? extends IEventListener<? super E>> listeners) {
+        return fListenerRegistry.addListeners(eventType, listeners);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#addListeners(java.lang.Class,
+     *      java.util.Collection, int)
+     */
+    public <E> List<IEventListenerRegistration> addListeners(
+        Class<E> eventType,
+        Collection<? extends IEventListener<? super E>> listeners,
+        int priority) {
+        return fListenerRegistry.addListeners(eventType, listeners, priority);
+    }
+
+    /**
+     * Reserves a place in the queue for the given node. If the queue is full
+     * then this method applies the current overflow policy.
+     * 
+     * @param node the node to add to the queue
+     * @return <code>true</code> if the node should be added to the queue
+     */
+    private boolean acquireCapacity(EventNode node) {
+        EventOverflowPolicy policy;
+        EventNode evicted = null;
+        synchronized (fCapacityLock) {
+            if (fQueueSize < fCapacity) {
+                fQueueSize++;
+                return true;
+            }
+            policy = fOverflowPolicy;
+            if (policy == EventOverflowPolicy.BLOCK) {
+                int block = EventOverflowPolicy.BLOCK.ordinal();
+                fOverflowCounters[block]++;
+                boolean waiting = true;
+                while (waiting && fQueueSize >= fCapacity) {
+                    waiting = awaitCapacity(fCapacityLock);
+                }
+                if (fQueueSize < fCapacity) {
+                    fQueueSize++;
+                    return true;
+                }
+                // This thread can not wait (it dispatches the queue), so the
+                // event is counted as failed
+                fOverflowCounters[block]--;
+                policy = EventOverflowPolicy.FAIL;
+            }
+            if (policy == EventOverflowPolicy.DROP_OLDEST) {
+                // The new event takes the place of the evicted one
+                evicted = getEventQueue().evict();
+                if (evicted == null) {
+                    policy = EventOverflowPolicy.DROP_NEWEST;
+                }
+            }
+            fOverflowCounters[policy.ordinal()]++;
+        }
+        if (evicted != null) {
+            if (fPendingEvents != null
+                && evicted.getEvent() instanceof IConflatableEvent) {
+                releaseConflatableEvent(evicted);
+            }
+            onDropEvent(
+                evicted.getEvent(),
+                evicted.getCallback(),
+                new EventOverflowException("The event queue is full. "
+                    + "The oldest event was dropped."));
+            return true;
+        }
+        switch (policy) {
+            case CALLER_RUNS:
+                dispatchEvent(node);
+                break;
+            case DROP_NEWEST:
+                onDropEvent(
+                    node.getEvent(),
+                    node.getCallback(),
+                    new EventOverflowException("The event queue is full. "
+                        + "The new event was dropped."));
+                break;
+            default:
+                EventOverflowException error = new EventOverflowException(
+                    "The event queue is full. Capacity: " + fCapacity + ".");
+                onDropEvent(node.getEvent(), node.getCallback(), error);
+                throw error;
+        }
+        return false;
+    }
+
+    /**
+     * This method is called by producers when the queue is full and the
+     * {@link EventOverflowPolicy#BLOCK} policy is used. Implementations should
+     * wait for a notification on the given lock object (see
+     * {@link #signalCapacity(Object)}) and return <code>true</code> or return
+     * <code>false</code> if the current thread can not wait. The lock is held
+     * by the caller. This implementation does not block and always returns
+     * <code>false</code>. Subclasses overloading this method should also
+     * accept the {@link EventOverflowPolicy#BLOCK} policy in the
+     * {@link #isOverflowPolicySupported(EventOverflowPolicy)} method.
+     * 
+     * @param lock the lock used to wait for a free place in the queue
+     * @return <code>true</code> if the thread was waiting and it should check
+     *         the queue size again
+     */
+    protected boolean awaitCapacity(Object lock) {
+        return false;
+    }
+
+    /**
+     * This method is called before the calling thread starts to deliver queued
+     * events to listeners. If it returns <code>false</code> then the queue is
+     * already drained by an outer call (or by another thread) and the newly
+     * added event will be delivered by it.
+     * 
+     * @return <code>true</code> if the caller should drain the event queue
+     * @see #endDispatch()
+     */
+    protected boolean beginDispatch() {
+        if (fDepth > 0) {
+            return false;
+        }
+        fDepth++;
+        return true;
+    }
+
     protected EventNode dequeueEvent() {
-        synchronized (fEventNodes) {
-            EventNode node = null;
-            if (!fEventNodes.isEmpty()) {
-                node = fEventNodes.remove(0);
+        EventNode node;
+        if (fCapacity > 0) {
+            // Producers evict nodes from the same queue
+            synchronized (fCapacityLock) {
+                node = getEventQueue().poll();
+                if (node != null && fQueueSize > 0) {
+                    fQueueSize--;
+                    signalCapacity(fCapacityLock);
+                }
             }
-            return node;
+        } else {
+            node = getEventQueue().poll();
         }
+        if (node != null
+            && fPendingEvents != null
+            && node.getEvent() instanceof IConflatableEvent) {
+            releaseConflatableEvent(node);
+        }
+        return node;
     }
 
     @SuppressWarnings("unchecked")
     protected void dispatchEvent(EventNode node) {
         Object event = node.getEvent();
+        if (event instanceof EventBatch) {
+            dispatchEvents(((EventBatch) event).getEvents());
+            return;
+        }
         IEventListener<?> callback = node.getCallback();
         onBegin(event, callback);
         try {
-            Class<? extends Object> type = event.getClass();
-            while (type != null) {
-                List<IEventListener<?>> list = fListenerRegistry
-                    .getListeners(type);
-                if (list != null) {
-                    for (IEventListener<?> listener : list) {
-                        try {
-                            IEventListener<Object> l = (IEventListener<Object>) listener;
-                            l.handleEvent(event);
-                        } catch (Throwable t) {
-                            onError(event, callback, listener, t);
-                        }
-                    }
-                }
-                type = type.getSuperclass();
+            IEventListener<?>[] listeners = fDispatchPlans.getListeners(event
+                .getClass());
+            dispatchListeners(event, callback, listeners, 0, listeners.length);
+            if (event instanceof IEventWithKey) {
+                dispatchKeyedEvent((IEventWithKey) event, callback);
             }
             if (callback != null) {
                 try {
@@ -127,9 +390,208 @@ public class EventManager implements IEventManager {
         }
     }
 
+    /**
+     * Delivers the given event to listeners registered with the same routing
+     * key as the event.
+     * 
+     * @param event the event to deliver
+     * @param callback the callback associated with the event
+     */
+    @SuppressWarnings("unchecked")
+    protected void dispatchKeyedEvent(
+        IEventWithKey event,
+        IEventListener<?> callback) {
+        Class<?>[] types = fDispatchPlans.getKeyedTypes(event.getClass());
+        if (types.length == 0) {
+            return;
+        }
+        Object key = event.getEventKey();
+        for (int i = 0; i < types.length; i++) {
+            List<IEventListener<?>> listeners = fListenerRegistry.getListeners(
+                types[i],
+                key);
+            int size = listeners != null ? listeners.size() : 0;
+            for (int j = 0; j < size; j++) {
+                IEventListener<?> listener = listeners.get(j);
+                try {
+                    IEventListener<Object> l = (IEventListener<Object>) listener;
+                    l.handleEvent(event);
+                } catch (Throwable t) {
+                    onError(event, callback, listener, t);
+                }
+            }
+        }
+    }
+
+    /**
+     * Delivers the given event to the specified range of listeners. Errors
+     * thrown by listeners are reported using the
+     * {@link #onError(Object, IEventListener, IEventListener, Throwable)}
+     * method. This implementation calls listeners one by one in the order of
+     * the array. Subclasses can call them in parallel but this method should
+     * return only when all listeners have been called.
+     * 
+     * @param event the event to deliver
+     * @param callback the callback associated with the event
+     * @param listeners the listeners of the event
+     * @param from the index of the first listener to call
+     * @param to the index following the last listener to call
+     */
+    @SuppressWarnings("unchecked")
+    protected void dispatchListeners(
+        Object event,
+        IEventListener<?> callback,
+        IEventListener<?>[] listeners,
+        int from,
+        int to) {
+        for (int i = from; i < to; i++) {
+            IEventListener<?> listener = listeners[i];
+            try {
+                IEventListener<Object> l = (IEventListener<Object>) listener;
+                l.handleEvent(event);
+            } catch (Throwable t) {
+                onError(event, callback, listener, t);
+            }
+        }
+    }
+
+    /**
+     * Delivers events fired together. Each sequence of contiguous events of
+     * the same class is delivered to all listeners before the next one.
+     * 
+     * @param events the events to deliver
+     */
+    protected void dispatchEvents(List<Object> events) {
+        int size = events.size();
+        int start = 0;
+        while (start < size) {
+            Class<?> type = events.get(start).getClass();
+            int end = start + 1;
+            while (end < size && events.get(end).getClass() == type) {
+                end++;
+            }
+            dispatchEvents(type, Collections.unmodifiableList(events.subList(
+                start,
+                end)));
+            start = end;
+        }
+    }
+
+    /**
+     * Delivers a sequence of events of the same class. Batch listeners (see
+     * {@link IBatchEventListener}) receive the whole sequence in one call;
+     * other listeners are notified about each event individually.
+     * 
+     * @param type the class of all the given events
+     * @param events the events to deliver
+     */
+    @SuppressWarnings("unchecked")
+    protected void dispatchEvents(Class<?> type, List<Object> events) {
+        int size = events.size();
+        for (int i = 0; i < size; i++) {
+            onBegin(events.get(i), null);
+        }
+        try {
+            IEventListener<?>[] listeners = fDispatchPlans.getListeners(type);
+            for (int i = 0; i < listeners.length; i++) {
+                IEventListener<?> listener = listeners[i];
+                if (listener instanceof IBatchEventListener<?>) {
+                    try {
+                        IBatchEventListener<Object> l = (IBatchEventListener<Object>) listener;
+                        l.handleEvents(events);
+                    } catch (Throwable t) {
+                        for (int j = 0; j < size; j++) {
+                            onError(events.get(j), null, listener, t);
+                        }
+                    }
+                } else {
+                    IEventListener<Object> l = (IEventListener<Object>) listener;
+                    for (int j = 0; j < size; j++) {
+                        Object event = events.get(j);
+                        try {
+                            l.handleEvent(event);
+                        } catch (Throwable t) {
+                            onError(event, null, listener, t);
+                        }
+                    }
+                }
+            }
+            // Class#isAssignableFrom is not available in GWT
+            if (fDispatchPlans.getKeyedTypes(type).length != 0) {
+                for (int i = 0; i < size; i++) {
+                    Object event = events.get(i);
+                    if (event instanceof IEventWithKey) {
+                        dispatchKeyedEvent((IEventWithKey) event, null);
+                    }
+                }
+            }
+        } finally {
+            for (int i = 0; i < size; i++) {
+                onEnd(events.get(i), null);
+            }
+        }
+    }
+
+    /**
+     * Delivers all queued events to listeners. Only one caller at a time drains
+     * the queue; re-entrant calls (from listeners) just leave their events in
+     * the queue.
+     */
+    protected void drainEvents() {
+        while (beginDispatch()) {
+            try {
+                EventNode node;
+                while ((node = dequeueEvent()) != null) {
+                    dispatchEvent(node);
+                }
+            } finally {
+                endDispatch();
+            }
+            // Events could be added by other threads just before the end of
+            // the dispatching.
+            if (getEventQueue().isEmpty()) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * This method is called when the current thread finished to drain the
+     * event queue.
+     * 
+     * @see #beginDispatch()
+     */
+    protected void endDispatch() {
+        fDepth--;
+    }
+
+    /**
+     * Adds the given node to the event queue. If the queue capacity is limited
+     * and the queue is full then this method applies the overflow policy.
+     * 
+     * @param node the node to add
+     */
     protected void enqueueEvent(EventNode node) {
-        synchronized (fEventNodes) {
-            fEventNodes.add(node);
+        if (fCapacity > 0 && !acquireCapacity(node)) {
+            return;
+        }
+        if (fPendingEvents != null
+            && node.getCallback() == null
+            && node.getEvent() instanceof IConflatableEvent) {
+            IConflatableEvent event = (IConflatableEvent) node.getEvent();
+            Object key = event.getConflationKey();
+            synchronized (fPendingEvents) {
+                Class<?> type = event.getClass();
+                Map<Object, EventNode> nodes = fPendingEvents.get(type);
+                if (nodes == null) {
+                    nodes = new HashMap<Object, EventNode>();
+                    fPendingEvents.put(type, nodes);
+                }
+                nodes.put(key, node);
+                getEventQueue().offer(node);
+            }
+        } else {
+            getEventQueue().offer(node);
         }
     }
 
@@ -148,21 +610,100 @@ public class EventManager implements IEventManager {
     public <E, L extends IEventListener<? super E>> void fireEvent(
         E event,
         L callback) {
+        if (isIgnored(event, callback)) {
+            return;
+        }
         if (event instanceof IEventWithLifecycle) {
             ((IEventWithLifecycle) event).onFire(this, callback);
         }
+        if (callback == null
+            && fPendingEvents != null
+            && event instanceof IConflatableEvent
+            && replaceConflatableEvent((IConflatableEvent) event)) {
+            return;
+        }
         EventNode node = newEventNode(event, callback);
         enqueueEvent(node);
-        if (fDepth == 0) {
-            fDepth++;
-            try {
-                while ((node = dequeueEvent()) != null) {
-                    dispatchEvent(node);
+        drainEvents();
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventManager#fireEvent(java.lang.Class,
+     *      org.ubimix.commons.events.IEventProvider)
+     */
+    public <E> void fireEvent(
+        Class<E> eventType,
+        IEventProvider<? extends E> provider) {
+        if (hasListeners(eventType)) {
+            fireEvent(provider.getEvent());
+        }
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventManager#fireEvents(java.lang.Iterable)
+     */
+    public <E> void fireEvents(Iterable<E> events) {
+        EventBatch batch = newEventBatch(events);
+        if (batch != null) {
+            IEventListener<Object> callback = null;
+            EventNode node = newEventNode(batch, callback);
+            enqueueEvent(node);
+            drainEvents();
+        }
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventManager#fireEvents(java.lang.Object[])
+     */
+    public <E> void fireEvents(E[] events) {
+        fireEvents(Arrays.asList(events));
+    }
+
+    /**
+     * Returns the maximal number of queued events or <code>0</code> if the
+     * queue is not limited.
+     * 
+     * @return the maximal number of queued events
+     */
+    public int getCapacity() {
+        return fCapacity;
+    }
+
+    /**
+     * Returns the cache of dispatch plans used by this manager.
+     * 
+     * @return the cache of dispatch plans used by this manager
+     */
+    public DispatchPlanCache getDispatchPlans() {
+        return fDispatchPlans;
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#getEpoch()
+     */
+    public long getEpoch() {
+        return fListenerRegistry.getEpoch();
+    }
+
+    /**
+     * Returns the queue of fired events. The queue is created by the
+     * {@link #newEventQueue()} method on first use, so subclasses are already
+     * initialized when it is called.
+     * 
+     * @return the queue of fired events
+     */
+    private IEventQueue getEventQueue() {
+        IEventQueue queue = fEventQueue;
+        if (queue == null) {
+            synchronized (fCapacityLock) {
+                queue = fEventQueue;
+                if (queue == null) {
+                    queue = newEventQueue();
+                    fEventQueue = queue;
                 }
-            } finally {
-                fDepth--;
             }
         }
+        return queue;
     }
 
     /**
@@ -172,12 +713,119 @@ public class EventManager implements IEventManager {
         return fListenerRegistry.getListeners(eventType);
     }
 
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#getListeners(java.lang.Class,
+     *      java.lang.Object)
+     */
+    public <E> List<IEventListener<?>> getListeners(
+        Class<E> eventType,
+        Object key) {
+        return fListenerRegistry.getListeners(eventType, key);
+    }
+
+    /**
+     * Returns the number of events affected by the specified overflow policy
+     * since this manager was created.
+     * 
+     * @param policy the overflow policy
+     * @return the number of events affected by the specified policy
+     */
+    public long getOverflowCount(EventOverflowPolicy policy) {
+        synchronized (fCapacityLock) {
+            return fOverflowCounters[policy.ordinal()];
+        }
+    }
+
+    /**
+     * Returns the policy applied when the queue is full.
+     * 
+     * @return the policy applied when the queue is full
+     */
+    public EventOverflowPolicy getOverflowPolicy() {
+        return fOverflowPolicy;
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#getSnapshot()
+     */
+    public RegistrySnapshot getSnapshot() {
+        return fListenerRegistry.getSnapshot();
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#hasKeyedListeners(java.lang.Class)
+     */
+    public boolean hasKeyedListeners(Class<?> eventType) {
+        return fListenerRegistry.hasKeyedListeners(eventType);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventManager#hasListeners(java.lang.Class)
+     */
+    public boolean hasListeners(Class<?> eventType) {
+        return fDispatchPlans.hasListeners(eventType);
+    }
+
+    /**
+     * Returns <code>true</code> if this manager replaces queued conflatable
+     * events by newer events with the same key.
+     * 
+     * @return <code>true</code> if the conflating mode is active
+     * @see #setConflating(boolean)
+     */
+    public boolean isConflating() {
+        return fPendingEvents != null;
+    }
+
+    /**
+     * Returns <code>true</code> if the given event could be ignored because
+     * nobody is interested in it.
+     * 
+     * @param event the fired event
+     * @param callback the callback associated with the event
+     * @return <code>true</code> if the event should not be queued
+     * @see DispatchPlanCache#isIgnored(Object, IEventListener)
+     */
+    protected boolean isIgnored(Object event, IEventListener<?> callback) {
+        return fDispatchPlans.isIgnored(event, callback);
+    }
+
+    /**
+     * Notifies the given events that they are fired and returns a batch object
+     * containing all of them.
+     * 
+     * @param events the fired events
+     * @return a new batch with all the given events or <code>null</code> if
+     *         there is no events to fire
+     */
+    protected <E> EventBatch newEventBatch(Iterable<E> events) {
+        List<Object> list = new ArrayList<Object>();
+        for (E event : events) {
+            if (event instanceof IEventWithLifecycle) {
+                ((IEventWithLifecycle) event).onFire(this, null);
+            }
+            list.add(event);
+        }
+        return !list.isEmpty() ? new EventBatch(list) : null;
+    }
+
     protected <E, L extends IEventListener<? super E>> EventNode newEventNode(
         E event,
         L callback) {
         return new EventNode(event, callback);
     }
 
+    /**
+     * Creates and returns a new queue for fired events. This method is called
+     * once, when the queue is used for the first time. It could be overloaded
+     * in subclasses to use specific queue implementations.
+     * 
+     * @return a new event queue
+     */
+    protected IEventQueue newEventQueue() {
+        return new EventQueue();
+    }
+
     protected void onBegin(Object event, IEventListener<?> callback) {
         if (event instanceof IEventWithLifecycle) {
             IEventWithLifecycle e = (IEventWithLifecycle) event;
@@ -185,6 +833,45 @@ public class EventManager implements IEventManager {
         }
     }
 
+    /**
+     * Returns <code>true</code> if this manager can apply the given overflow
+     * policy. This implementation does not support the
+     * {@link EventOverflowPolicy#BLOCK} policy because it can not block
+     * producers (see {@link #awaitCapacity(Object)}) and the
+     * {@link EventOverflowPolicy#SPILL} policy because it has no spill queue.
+     * 
+     * @param policy the policy to check
+     * @return <code>true</code> if the given policy is supported
+     */
+    protected boolean isOverflowPolicySupported(EventOverflowPolicy policy) {
+        return policy != EventOverflowPolicy.BLOCK
+            && policy != EventOverflowPolicy.SPILL;
+    }
+
+    /**
+     * This method is called when an event is dropped because of the queue
+     * overflow. The event is notified about the error and about the end of its
+     * handling.
+     * 
+     * @param event the dropped event
+     * @param callback the callback associated with the event
+     * @param error the error describing the reason of the drop
+     */
+    protected void onDropEvent(
+        Object event,
+        IEventListener<?> callback,
+        EventOverflowException error) {
+        if (event instanceof EventBatch) {
+            for (Object e : ((EventBatch) event).getEvents()) {
+                onDropEvent(e, null, error);
+            }
+        } else if (event instanceof IEventWithLifecycle) {
+            IEventWithLifecycle e = (IEventWithLifecycle) event;
+            e.onHandleError(null, error);
+            e.onHandleEnd();
+        }
+    }
+
     protected void onEnd(Object event, IEventListener<?> callback) {
         if (event instanceof IEventWithLifecycle) {
             IEventWithLifecycle e = (IEventWithLifecycle) event;
@@ -209,6 +896,27 @@ public class EventManager implements IEventManager {
         }
     }
 
+    /**
+     * Removes the given node from the index of queued conflatable events. After
+     * this call the node can not be replaced by newer events anymore.
+     */
+    private void releaseConflatableEvent(EventNode node) {
+        synchronized (fPendingEvents) {
+            IConflatableEvent event = (IConflatableEvent) node.getEvent();
+            Class<?> type = event.getClass();
+            Map<Object, EventNode> nodes = fPendingEvents.get(type);
+            if (nodes != null) {
+                Object key = event.getConflationKey();
+                if (nodes.get(key) == node) {
+                    nodes.remove(key);
+                    if (nodes.isEmpty()) {
+                        fPendingEvents.remove(type);
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * @see org.ubimix.commons.events.IEventListenerRegistry#removeListener(java.lang.Class,
      *      org.ubimix.commons.events.IEventListener)
@@ -219,6 +927,17 @@ public class EventManager implements IEventManager {
         return fListenerRegistry.removeListener(eventType, listener);
     }
 
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#removeListener(java.lang.Class,
+     *      java.lang.Object, org.ubimix.commons.events.IEventListener)
+     */
+    public <E> boolean removeListener(
+        Class<E> eventType,
+        Object key,
+        IEventListener<? super E> listener) {
+        return fListenerRegistry.removeListener(eventType, key, listener);
+    }
+
     /**
      * @see org.ubimix.commons.events.IEventListenerRegistry#removeListenerInterceptor(org.ubimix.commons.events.IEventListenerInterceptor)
      */
@@ -226,4 +945,120 @@ public class EventManager implements IEventManager {
         fListenerRegistry.removeListenerInterceptor(interceptor);
     }
 
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#removeListeners(java.lang.Class,
+     *      java.util.Collection)
+     */
+    public <E> int removeListeners(
+        Class<E> eventType,
+        Collection<? extends IEventListener<? super E>> listeners) {
+        return fListenerRegistry.removeListeners(eventType, listeners);
+    }
+
+    /**
+     * Replaces an already queued event of the same class with the same key by
+     * the given event. The new event keeps the position of the replaced one in
+     * the queue (including its priority lane in a {@link PriorityEventQueue}).
+     * The replaced event is reported to the {@link #onDropEvent} method, so
+     * its lifecycle is finished.
+     * 
+     * @param event the new event
+     * @return <code>true</code> if a queued event was replaced
+     */
+    private boolean replaceConflatableEvent(IConflatableEvent event) {
+        Object key = event.getConflationKey();
+        Object replaced;
+        IEventListener<?> replacedCallback;
+        synchronized (fPendingEvents) {
+            Map<Object, EventNode> nodes = fPendingEvents.get(event.getClass());
+            EventNode node = nodes != null ? nodes.get(key) : null;
+            if (node == null) {
+                return false;
+            }
+            replaced = node.getEvent();
+            replacedCallback = node.getCallback();
+            node.set(event, null);
+        }
+        onDropEvent(replaced, replacedCallback, new EventOverflowException(
+            "The event was replaced by a newer event with the same key."));
+        return true;
+    }
+
+    /**
+     * Sets the maximal number of queued events. When the queue is full new
+     * events are handled according to the overflow policy (see
+     * {@link #setOverflowPolicy(EventOverflowPolicy)}). This method should be
+     * called before the manager is used to fire events.
+     * 
+     * @param capacity the maximal number of queued events; <code>0</code>
+     *        means that the queue is not limited
+     */
+    public void setCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException(
+                "The capacity should be a positive value. Capacity: "
+                    + capacity
+                    + ".");
+        }
+        synchronized (fCapacityLock) {
+            fCapacity = capacity;
+        }
+    }
+
+    /**
+     * Activates or deactivates the conflating mode. In this mode a fired
+     * {@link IConflatableEvent} without callback replaces a queued event of the
+     * same class with the same key. The new event takes the queue position of
+     * the replaced one (with a {@link PriorityEventQueue} it stays in the lane
+     * of the replaced event's priority). The replaced event is reported to the
+     * {@link #onDropEvent} method with an {@link EventOverflowException}, so
+     * its lifecycle ends with an error. This method should be called before
+     * the manager is used to fire events.
+     * 
+     * @param conflating <code>true</code> to activate the conflating mode
+     */
+    public void setConflating(boolean conflating) {
+        if (conflating != isConflating()) {
+            fPendingEvents = conflating
+                ? new HashMap<Class<?>, Map<Object, EventNode>>()
+                : null;
+        }
+    }
+
+    /**
+     * Sets the policy applied when a new event is fired and the queue is full.
+     * The default policy is {@link EventOverflowPolicy#FAIL}. Events dropped
+     * by the {@link EventOverflowPolicy#FAIL} policy are also reported to the
+     * {@link #onDropEvent(Object, IEventListener, EventOverflowException)}
+     * method before the exception is thrown.
+     * 
+     * @param overflowPolicy the policy to set
+     * @throws IllegalArgumentException if this manager does not support the
+     *         given policy (see
+     *         {@link #isOverflowPolicySupported(EventOverflowPolicy)})
+     */
+    public void setOverflowPolicy(EventOverflowPolicy overflowPolicy) {
+        if (!isOverflowPolicySupported(overflowPolicy)) {
+            throw new IllegalArgumentException(
+                "This overflow policy is not supported by this manager. "
+                    + "Policy: "
+                    + overflowPolicy
+                    + ".");
+        }
+        synchronized (fCapacityLock) {
+            fOverflowPolicy = overflowPolicy;
+        }
+    }
+
+    /**
+     * This method is called when a place in the queue becomes free. It could
+     * be overloaded in subclasses to wake up producers waiting in the
+     * {@link #awaitCapacity(Object)} method. The given lock is held by the
+     * caller.
+     * 
+     * @param lock the lock used by producers to wait for a free place
+     */
+    protected void signalCapacity(Object lock) {
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,39 @@
+/* ************************************************************************** *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ * 
+ * This file is licensed to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * ************************************************************************** */
+package org.ubimix.commons.events;
+
+/**
+ * This exception is used when an event can not be added to a full event
+ * queue. It is thrown to the code firing the event (see
+ * {@link EventOverflowPolicy#FAIL}) or it is reported to the lifecycle of
+ * dropped events (see
+ * {@link IEventWithLifecycle#onHandleError(IEventListener, Throwable)}).
+ * 
+ * @author kotelnikov
+ */
+public class EventOverflowException extends IllegalStateException {
+
+    private static final long serialVersionUID = -2405946353924712307L;
+
+    /**
+     * @param message the message of this exception
+     */
+    public EventOverflowException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,73 @@
+/* ************************************************************************** *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ * 
+ * This file is licensed to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * ************************************************************************** */
+package org.ubimix.commons.events;
+
+/**
+ * Policies applied by an {@link EventManager} with a limited queue capacity
+ * when a new event is fired and the queue is full. The asynchronous event
+ * manager uses the same policies when its backlog is full or when its
+ * executor rejects a task.
+ * 
+ * @author kotelnikov
+ * @see EventManager#setCapacity(int)
+ * @see EventManager#setOverflowPolicy(EventOverflowPolicy)
+ */
+public enum EventOverflowPolicy {
+
+    /**
+     * The producer waits until the queue has a free place. This policy is
+     * supported only by managers which can block threads (see
+     * {@link EventManager#awaitCapacity(Object)}); other managers reject it
+     * with an {@link IllegalArgumentException}. Threads which can not wait
+     * (for example the thread dispatching the queue) get an
+     * {@link EventOverflowException}.
+     */
+    BLOCK,
+
+    /**
+     * The new event is delivered to listeners immediately in the thread firing
+     * it, without passing through the queue. Such events are not ordered with
+     * queued events.
+     */
+    CALLER_RUNS,
+
+    /**
+     * The oldest queued event is dropped and the new event is added to the
+     * queue. Queues define which event is the oldest (see
+     * {@link IEventQueue#evict()}).
+     */
+    DROP_OLDEST,
+
+    /**
+     * The new event is dropped.
+     */
+    DROP_NEWEST,
+
+    /**
+     * An {@link EventOverflowException} is thrown to the producer.
+     */
+    FAIL,
+
+    /**
+     * The new event is kept in an unbounded spill queue and it is handed over
+     * as soon as a place becomes free. This policy is supported only by the
+     * asynchronous event manager; other managers reject it with an
+     * {@link IllegalArgumentException}.
+     */
+    SPILL
+
+}
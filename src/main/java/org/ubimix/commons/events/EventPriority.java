@@ -0,0 +1,44 @@
+/* ************************************************************************** *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ * 
+ * This file is licensed to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * ************************************************************************** */
+package org.ubimix.commons.events;
+
+/**
+ * Priorities of events. Each priority corresponds to a separate "lane" of the
+ * {@link PriorityEventQueue}.
+ * 
+ * @author kotelnikov
+ * @see IEventWithPriority
+ */
+public enum EventPriority {
+
+    /**
+     * Control events (cancellation, shutdown, configuration changes...) which
+     * should overtake all other events.
+     */
+    HIGH,
+
+    /**
+     * The default priority of events.
+     */
+    NORMAL,
+
+    /**
+     * Bulk events which can wait.
+     */
+    LOW
+
+}
@@ -0,0 +1,116 @@
+/* ************************************************************************** *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ * 
+ * This file is licensed to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * ************************************************************************** */
+package org.ubimix.commons.events;
+
+import org.ubimix.commons.events.EventManager.EventNode;
+
+/**
+ * The default event queue used by the {@link EventManager}. Nodes are stored in
+ * a circular array which grows when it is full, so adding and removing of
+ * events does not allocate anything in the steady state. All methods are
+ * synchronized.
+ * 
+ * @author kotelnikov
+ */
+public class EventQueue implements IEventQueue {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int fHead;
+
+    private EventNode[] fNodes;
+
+    private int fSize;
+
+    /**
+     * The default constructor.
+     */
+    public EventQueue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the initial capacity of this queue; it is rounded up to
+     *        the next power of two
+     */
+    public EventQueue(int capacity) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        fNodes = new EventNode[size];
+    }
+
+    private void grow() {
+        EventNode[] nodes = new EventNode[fNodes.length << 1];
+        int tail = fNodes.length - fHead;
+        System.arraycopy(fNodes, fHead, nodes, 0, tail);
+        System.arraycopy(fNodes, 0, nodes, tail, fHead);
+        fNodes = nodes;
+        fHead = 0;
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventQueue#evict()
+     */
+    public EventNode evict() {
+        return poll();
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventQueue#isEmpty()
+     */
+    public synchronized boolean isEmpty() {
+        return fSize == 0;
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventQueue#offer(org.ubimix.commons.events.EventManager.EventNode)
+     */
+    public synchronized boolean offer(EventNode node) {
+        if (fSize == fNodes.length) {
+            grow();
+        }
+        fNodes[(fHead + fSize) & (fNodes.length - 1)] = node;
+        fSize++;
+        return true;
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventQueue#poll()
+     */
+    public synchronized EventNode poll() {
+        if (fSize == 0) {
+            return null;
+        }
+        EventNode node = fNodes[fHead];
+        fNodes[fHead] = null;
+        fHead = (fHead + 1) & (fNodes.length - 1);
+        fSize--;
+        return node;
+    }
+
+    /**
+     * Returns the number of events in this queue.
+     * 
+     * @return the number of events in this queue
+     */
+    public synchronized int size() {
+        return fSize;
+    }
+
+}
@@ -16,6 +16,7 @@
  * ************************************************************************** */
 package org.ubimix.commons.events;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -39,7 +40,9 @@ public class EventWithLifecycle implements IEventWithLifecycle {
 
     /**
      * Errors added to this event. Most of the time these errors are fired by
-     * registered event listeners.
+     * registered event listeners. Access to this set is synchronized because
+     * listeners can be called in parallel (and report their errors at the
+     * same time).
      */
     private Set<Throwable> fErrors;
 
@@ -57,7 +60,7 @@ public class EventWithLifecycle implements IEventWithLifecycle {
     /**
      * Clears all internal fields (event manager, callbacks, errors).
      */
-    public void clear() {
+    public synchronized void clear() {
         fErrors = null;
         fEventManager = null;
         fCallback = null;
@@ -76,12 +79,14 @@ public class EventWithLifecycle implements IEventWithLifecycle {
 
     /**
      * Returns a set of errors fired by listeners of this event while the
-     * current handle stage.
+     * current handle stage. Listeners could report errors from other threads,
+     * so this method returns an unmodifiable copy of the errors.
      * 
-     * @return the errors
+     * @return the errors or <code>null</code> if no errors were reported
      */
-    public Set<Throwable> getErrors() {
-        return fErrors;
+    public synchronized Set<Throwable> getErrors() {
+        return fErrors != null ? Collections
+            .unmodifiableSet(new HashSet<Throwable>(fErrors)) : null;
     }
 
     /**
@@ -101,16 +106,17 @@ public class EventWithLifecycle implements IEventWithLifecycle {
      *         reported
      * @see #getErrors()
      */
-    public boolean hasErrors() {
+    public synchronized boolean hasErrors() {
         return fErrors != null;
     }
 
     /**
-     * This method is used to add an error or exception to this event.
+     * This method is used to add an error or exception to this event. It can
+     * be called by multiple threads at the same time.
      * 
      * @param error the error to add
      */
-    public void onError(Throwable error) {
+    public synchronized void onError(Throwable error) {
         if (fErrors == null) {
             fErrors = new HashSet<Throwable>();
         }
@@ -141,8 +147,9 @@ public class EventWithLifecycle implements IEventWithLifecycle {
      * @see org.ubimix.commons.events.IEventWithLifecycle#onHandleEnd()
      */
     public void onHandleEnd() {
-        if (fErrors != null) {
-            reportErrors(fErrors);
+        Set<Throwable> errors = getErrors();
+        if (errors != null) {
+            reportErrors(errors);
         }
     }
 
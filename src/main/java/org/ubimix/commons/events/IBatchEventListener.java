@@ -0,0 +1,43 @@
+/* ************************************************************************** *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ * 
+ * This file is licensed to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * ************************************************************************** */
+package org.ubimix.commons.events;
+
+import java.util.List;
+
+/**
+ * Listeners of this type can handle multiple events in one call. When events
+ * are fired together using the {@link IEventManager#fireEvents(Iterable)} or
+ * {@link IEventManager#fireEvents(Object[])} methods, the event manager
+ * delivers each sequence of contiguous events of the same class to the
+ * {@link #handleEvents(List)} method at once. Events fired one by one are
+ * still delivered to the {@link #handleEvent(Object)} method.
+ * 
+ * @author kotelnikov
+ * @param <E> the type of the event for this type of listener
+ */
+public interface IBatchEventListener<E> extends IEventListener<E> {
+
+    /**
+     * This method is called to notify about a sequence of events of the same
+     * class fired together.
+     * 
+     * @param events the fired events in the order of arrival; this list can
+     *        not be modified
+     */
+    void handleEvents(List<E> events);
+
+}
@@ -0,0 +1,42 @@
+/* ************************************************************************** *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ * 
+ * This file is licensed to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * ************************************************************************** */
+package org.ubimix.commons.events;
+
+/**
+ * Events implementing this interface describe a state where only the latest
+ * value matters (positions, progress, invalidation notifications...). When an
+ * {@link EventManager} works in the "conflating" mode and a new event of this
+ * type is fired while an event of the same class with the same key is still
+ * waiting in the queue then the queued event is replaced by the new one. The
+ * new event takes the place of the replaced one in the queue.
+ * 
+ * @author kotelnikov
+ * @see EventManager#setConflating(boolean)
+ */
+public interface IConflatableEvent {
+
+    /**
+     * Returns the key used to find queued events superseded by this one. Keys
+     * are compared using the {@link Object#equals(Object)} method and only
+     * with keys of events of the same class.
+     * 
+     * @return the conflation key of this event; it should not be
+     *         <code>null</code>
+     */
+    Object getConflationKey();
+
+}
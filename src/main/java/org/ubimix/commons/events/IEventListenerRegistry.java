@@ -16,6 +16,7 @@
  * ************************************************************************** */
 package org.ubimix.commons.events;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -39,16 +40,108 @@ public interface IEventListenerRegistry {
         Class<E> eventType,
         IEventListener<? super E> listener);
 
+    /**
+     * Adds a new listener with the specified priority. Listeners with higher
+     * priorities are notified before listeners with lower priorities
+     * registered for the same event type; listeners with the same priority are
+     * notified in the order of registration. Listeners added by the
+     * {@link #addListener(Class, IEventListener)} method have the priority
+     * <code>0</code>. The order of listeners is defined at the registration
+     * time and it is not re-computed when events are dispatched.
+     * 
+     * @param <E> the type of events for which the listener is added
+     * @param eventType the type of events for which the listener should be
+     *        added
+     * @param listener the listener to add
+     * @param priority the priority of the listener
+     * @return the listener registration object used to unregister the given
+     *         listener
+     */
+    <E> IEventListenerRegistration addListener(
+        Class<E> eventType,
+        IEventListener<? super E> listener,
+        int priority);
+
+    /**
+     * Adds a new listener notified only about events with the specified
+     * routing key (see {@link IEventWithKey}). The registry keeps an index of
+     * such listeners by keys, so dispatching of an event costs only the
+     * listeners with the same key. Keyed listeners are notified after all
+     * listeners registered without keys. Interceptors are notified about keyed
+     * listeners in the same way as about other listeners.
+     * 
+     * @param <E> the type of events for which the listener is added
+     * @param eventType the type of events for which the listener should be
+     *        added
+     * @param key the routing key of events delivered to the listener
+     * @param listener the listener to add
+     * @return the listener registration object used to unregister the given
+     *         listener
+     */
+    <E> IEventListenerRegistration addListener(
+        Class<E> eventType,
+        Object key,
+        IEventListener<? super E> listener);
+
+    /**
+     * Adds all the given listeners for the specified event type. The internal
+     * list of listeners is copied only once, so this method should be used to
+     * register a big number of listeners at once. Each listener gets its own
+     * registration object.
+     * 
+     * @param <E> the type of events for which listeners are added
+     * @param eventType the type of events for which listeners should be added
+     * @param listeners the listeners to add
+     * @return a list of registration objects; each of them unregisters the
+     *         listener with the same position in the given collection
+     * @see #addListeners(Class, Collection, int)
+     */
+    <E> List<IEventListenerRegistration> addListeners(
+        Class<E> eventType,
+        Collection<? extends IEventListener<? super E>> listeners);
+
+    /**
+     * Adds all the given listeners with the same priority (see
+     * {@link #addListener(Class, IEventListener, int)}) for the specified
+     * event type. This method does the same as the
+     * {@link #addListeners(Class, Collection)} method.
+     * 
+     * @param <E> the type of events for which listeners are added
+     * @param eventType the type of events for which listeners should be added
+     * @param listeners the listeners to add
+     * @param priority the priority of all listeners
+     * @return a list of registration objects; each of them unregisters the
+     *         listener with the same position in the given collection
+     */
+    <E> List<IEventListenerRegistration> addListeners(
+        Class<E> eventType,
+        Collection<? extends IEventListener<? super E>> listeners,
+        int priority);
+
     /**
      * This method adds "interceptors" which are notified every time when a new
      * listener is added to or removed from this registry. Interceptors could be
-     * considered as "listeners of listeners".
+     * considered as "listeners of listeners". The
+     * {@link IEventListenerInterceptor#init(java.util.Map)} method of the new
+     * interceptor should be called without holding locks of this registry.
      * 
      * @param interceptor the interceptor to add
      * @see #removeListenerInterceptor(IEventListenerInterceptor)
      */
     void addListenerInterceptor(IEventListenerInterceptor interceptor);
 
+    /**
+     * Returns the modification epoch of this registry. The epoch is
+     * incremented every time when a listener is added or removed, so caches
+     * built on top of the registry can check if they are obsolete without
+     * locks and without interceptors. Implementations should return the
+     * value of a volatile field.
+     * 
+     * @return the current modification epoch
+     * @see #getSnapshot()
+     */
+    long getEpoch();
+
     /**
      * Returns a list of listeners for the specified event type; the returned
      * value can be <code>null</code>.
@@ -59,6 +152,39 @@ public interface IEventListenerRegistry {
      */
     <E> List<IEventListener<?>> getListeners(Class<E> eventType);
 
+    /**
+     * Returns a list of listeners registered for the specified event type with
+     * the given routing key; the returned value can be <code>null</code>.
+     * 
+     * @param eventType the type of the event
+     * @param key the routing key
+     * @return a list of listeners registered with the given key; the returned
+     *         value can be <code>null</code>.
+     */
+    <E> List<IEventListener<?>> getListeners(Class<E> eventType, Object key);
+
+    /**
+     * Returns an immutable view of all listeners of this registry. The
+     * snapshot is re-used until the next modification of the registry, so
+     * this method returns the same instance without locks and without copying
+     * while the registry is not changed. The first call after a modification
+     * could copy the index of event types, so it takes a time proportional to
+     * the number of event types.
+     * 
+     * @return a snapshot of this registry for the current epoch
+     */
+    RegistrySnapshot getSnapshot();
+
+    /**
+     * Returns <code>true</code> if at least one listener was registered with a
+     * routing key for the specified event type.
+     * 
+     * @param eventType the type of the event
+     * @return <code>true</code> if there are keyed listeners for the specified
+     *         event type
+     */
+    boolean hasKeyedListeners(Class<?> eventType);
+
     /**
      * Removes the specified listener from the list of listeners.
      * 
@@ -73,6 +199,36 @@ public interface IEventListenerRegistry {
         Class<E> eventType,
         IEventListener<? super E> listener);
 
+    /**
+     * Removes the specified listener registered with the given routing key.
+     * 
+     * @param <E> the type of the events for which the listener should be
+     *        removed
+     * @param eventType the type of events for which the listener should be
+     *        removed
+     * @param key the routing key used to register the listener
+     * @param listener the listener to remove
+     * @return <code>true</code> if the listener was successfully removed
+     */
+    <E> boolean removeListener(
+        Class<E> eventType,
+        Object key,
+        IEventListener<? super E> listener);
+
+    /**
+     * Removes all the given listeners of the specified event type. The
+     * internal list of listeners is copied only once.
+     * 
+     * @param <E> the type of the events for which listeners should be removed
+     * @param eventType the type of events for which listeners should be
+     *        removed
+     * @param listeners the listeners to remove
+     * @return the number of removed listeners
+     */
+    <E> int removeListeners(
+        Class<E> eventType,
+        Collection<? extends IEventListener<? super E>> listeners);
+
     /**
      * This method removes "interceptors" from this registry.
      * 
@@ -165,4 +165,50 @@ public interface IEventManager extends IEventListenerRegistry {
      */
     <E, L extends IEventListener<? super E>> void fireEvent(E event, L listener);
 
+    /**
+     * Fires an event created by the given provider. The provider is called
+     * only if at least one listener is registered for the specified event type
+     * (see {@link #hasListeners(Class)}); otherwise this method does nothing.
+     * The provided event should be an instance of exactly this type.
+     * 
+     * @param eventType the type of the event to fire
+     * @param provider the provider creating the event
+     */
+    <E> void fireEvent(Class<E> eventType, IEventProvider<? extends E> provider);
+
+    /**
+     * Fires all the given events at once. Events are added to the event queue
+     * in one operation and they are delivered to listeners in the given order.
+     * Contiguous events of the same class are delivered together to
+     * {@link IBatchEventListener} instances; other listeners are notified
+     * about such events one by one.
+     * 
+     * @param events the events to fire
+     * @see #fireEvents(Object[])
+     */
+    <E> void fireEvents(Iterable<E> events);
+
+    /**
+     * Fires all the given events at once. This method does the same as the
+     * {@link #fireEvents(Iterable)} method.
+     * 
+     * @param events the events to fire
+     */
+    <E> void fireEvents(E[] events);
+
+    /**
+     * Returns <code>true</code> if at least one registered listener is
+     * notified about events of the specified type (listeners registered for
+     * this type or for one of its superclasses). Events without such listeners
+     * are not queued by the {@link #fireEvent(Object)} method unless they have
+     * a callback or a lifecycle (see {@link IEventWithLifecycle}). This check
+     * is done when the event is fired; listeners registered later do not see
+     * such events even if other events are still in the queue.
+     * 
+     * @param eventType the type of events
+     * @return <code>true</code> if some listeners are registered for events of
+     *         the specified type
+     */
+    boolean hasListeners(Class<?> eventType);
+
 }
\ No newline at end of file
@@ -0,0 +1,37 @@
+/* ************************************************************************** *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ * 
+ * This file is licensed to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * ************************************************************************** */
+package org.ubimix.commons.events;
+
+/**
+ * Providers of this type are used to create events only when they are really
+ * needed, i.e. when at least one listener is registered for the corresponding
+ * event type.
+ * 
+ * @author kotelnikov
+ * @param <E> the type of provided events
+ * @see IEventManager#fireEvent(Class, IEventProvider)
+ */
+public interface IEventProvider<E> {
+
+    /**
+     * Creates and returns a new event.
+     * 
+     * @return a newly created event
+     */
+    E getEvent();
+
+}
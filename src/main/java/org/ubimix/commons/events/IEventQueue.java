@@ -0,0 +1,66 @@
+/* ************************************************************************** *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ * 
+ * This file is licensed to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * ************************************************************************** */
+package org.ubimix.commons.events;
+
+import org.ubimix.commons.events.EventManager.EventNode;
+
+/**
+ * Queues of this type are used by the {@link EventManager} to keep events
+ * which are fired but not delivered to listeners yet. Implementations can be
+ * called by multiple threads adding events but the {@link #poll()} method is
+ * called by only one thread at a time.
+ * 
+ * @author kotelnikov
+ * @see EventManager#newEventQueue()
+ */
+public interface IEventQueue {
+
+    /**
+     * Removes and returns the node which should be dropped first when the
+     * queue is full. For FIFO queues it is the first (oldest) node. This
+     * method is called under the same conditions as the {@link #poll()}
+     * method.
+     * 
+     * @return the removed node or <code>null</code> if the queue is empty
+     * @see EventOverflowPolicy#DROP_OLDEST
+     */
+    EventNode evict();
+
+    /**
+     * Returns <code>true</code> if this queue does not contain any events.
+     * 
+     * @return <code>true</code> if this queue is empty
+     */
+    boolean isEmpty();
+
+    /**
+     * Adds a new node to the end of this queue.
+     * 
+     * @param node the node to add
+     * @return <code>true</code> if the node was accepted by this queue
+     */
+    boolean offer(EventNode node);
+
+    /**
+     * Removes and returns the first node from this queue.
+     * 
+     * @return the first node in the queue or <code>null</code> if the queue
+     *         is empty
+     */
+    EventNode poll();
+
+}
@@ -0,0 +1,38 @@
+/* ************************************************************************** *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ * 
+ * This file is licensed to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * ************************************************************************** */
+package org.ubimix.commons.events;
+
+/**
+ * Events of this type expose a routing key. Such events are delivered to
+ * listeners registered without keys and to listeners registered with the same
+ * key (see
+ * {@link IEventListenerRegistry#addListener(Class, Object, IEventListener)}).
+ * Listeners registered with other keys are not notified.
+ * 
+ * @author kotelnikov
+ */
+public interface IEventWithKey {
+
+    /**
+     * Returns the routing key of this event. Keys are compared using their
+     * {@link Object#equals(Object)} and {@link Object#hashCode()} methods.
+     * 
+     * @return the routing key of this event
+     */
+    Object getEventKey();
+
+}
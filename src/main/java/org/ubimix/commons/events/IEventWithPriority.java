@@ -0,0 +1,37 @@
+/* ************************************************************************** *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ * 
+ * This file is licensed to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * ************************************************************************** */
+package org.ubimix.commons.events;
+
+/**
+ * Events implementing this interface define their own priority. Event queues
+ * supporting priorities (see {@link PriorityEventQueue}) deliver events with
+ * higher priorities first; events with the same priority are delivered in the
+ * order of arrival. Events not implementing this interface have the
+ * {@link EventPriority#NORMAL} priority.
+ * 
+ * @author kotelnikov
+ */
+public interface IEventWithPriority {
+
+    /**
+     * Returns the priority of this event.
+     * 
+     * @return the priority of this event
+     */
+    EventPriority getEventPriority();
+
+}
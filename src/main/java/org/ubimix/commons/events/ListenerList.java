@@ -0,0 +1,345 @@
+/**
+ * 
+ */
+package org.ubimix.commons.events;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable list of listeners registered for one event type. Listeners are
+ * kept in an array sorted by their priorities (higher priorities first);
+ * listeners with the same priority keep the order of registration. All
+ * modification methods return new instances, so lists returned by the registry
+ * can be iterated without locks and the order of listeners is never computed
+ * at the dispatch time.
+ * <p>
+ * Most event types have only one listener, so such lists keep the listener and
+ * its priority in fields instead of arrays. Priorities of bigger lists are not
+ * stored when all of them are equal to <code>0</code>. Registries should
+ * represent types without listeners by <code>null</code> instead of empty
+ * lists.
+ * </p>
+ * 
+ * @author kotelnikov
+ */
+public final class ListenerList extends AbstractList<IEventListener<?>> {
+
+    /**
+     * The only listener of this list; it is used when the {@link #fListeners}
+     * array is <code>null</code>.
+     */
+    private final IEventListener<?> fListener;
+
+    /**
+     * All listeners of this list; this field is <code>null</code> if the list
+     * contains only one listener.
+     */
+    private final IEventListener<?>[] fListeners;
+
+    /**
+     * Priorities of listeners; this field is <code>null</code> if all
+     * listeners have the priority <code>0</code>.
+     */
+    private final int[] fPriorities;
+
+    /**
+     * The priority of the only listener of this list.
+     */
+    private final int fPriority;
+
+    public ListenerList(IEventListener<?> listener, int priority) {
+        fListener = listener;
+        fListeners = null;
+        fPriority = priority;
+        fPriorities = null;
+    }
+
+    /**
+     * Creates a new list containing all the given listeners with the same
+     * priority.
+     * 
+     * @param listeners the listeners to add; this array should not be empty
+     * @param priority the priority of all listeners
+     */
+    public ListenerList(IEventListener<?>[] listeners, int priority) {
+        this(listeners.clone(), priority != 0
+            ? newPriorities(listeners.length, priority)
+            : null);
+    }
+
+    /**
+     * Creates a new list using the given arrays. Lists with only one listener
+     * do not keep arrays, and priorities are not stored if they are all equal
+     * to <code>0</code>.
+     * 
+     * @param listeners the listeners of the new list; this array should not
+     *        be empty and it should not be modified after this call
+     * @param priorities priorities of listeners or <code>null</code> if all
+     *        of them are equal to <code>0</code>; this array should not be
+     *        modified after this call
+     */
+    ListenerList(IEventListener<?>[] listeners, int[] priorities) {
+        if (listeners.length == 1) {
+            fListener = listeners[0];
+            fListeners = null;
+            fPriority = priorities != null ? priorities[0] : 0;
+            fPriorities = null;
+        } else {
+            fListener = null;
+            fListeners = listeners;
+            fPriority = 0;
+            fPriorities = priorities != null && hasPriorities(priorities)
+                ? priorities
+                : null;
+        }
+    }
+
+    private static boolean hasPriorities(int[] priorities) {
+        for (int i = 0; i < priorities.length; i++) {
+            if (priorities[i] != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int[] newPriorities(int size, int priority) {
+        int[] priorities = new int[size];
+        Arrays.fill(priorities, priority);
+        return priorities;
+    }
+
+    /**
+     * Returns a new list containing all listeners from this list and the
+     * given listener. The new listener is placed after all listeners with the
+     * same or higher priority.
+     * 
+     * @param listener the listener to add
+     * @param priority the priority of the listener
+     * @return a new list of listeners
+     */
+    public ListenerList add(IEventListener<?> listener, int priority) {
+        return insert(listener, null, 1, priority);
+    }
+
+    /**
+     * Returns a new list containing all listeners from this list and all the
+     * given listeners with the same priority. The new listeners keep their
+     * order and they are placed after all listeners with the same or higher
+     * priority. This method copies the internal arrays only once.
+     * 
+     * @param listeners the listeners to add
+     * @param priority the priority of the new listeners
+     * @return a new list of listeners
+     */
+    public ListenerList add(IEventListener<?>[] listeners, int priority) {
+        return insert(null, listeners, listeners.length, priority);
+    }
+
+    /**
+     * Copies listeners and their priorities to the given arrays.
+     * 
+     * @param from the index of the first copied listener
+     * @param listeners the target array of listeners
+     * @param priorities the target array of priorities; it can be
+     *        <code>null</code>
+     * @param to the first position in target arrays
+     * @param length the number of copied listeners
+     */
+    private void copy(
+        int from,
+        IEventListener<?>[] listeners,
+        int[] priorities,
+        int to,
+        int length) {
+        if (length == 0) {
+            return;
+        }
+        if (fListeners != null) {
+            System.arraycopy(fListeners, from, listeners, to, length);
+            if (priorities != null && fPriorities != null) {
+                System.arraycopy(fPriorities, from, priorities, to, length);
+            }
+        } else {
+            listeners[to] = fListener;
+            if (priorities != null) {
+                priorities[to] = fPriority;
+            }
+        }
+    }
+
+    /**
+     * @see java.util.AbstractList#get(int)
+     */
+    @Override
+    public IEventListener<?> get(int index) {
+        if (fListeners != null) {
+            return fListeners[index];
+        }
+        if (index != 0) {
+            throw new IndexOutOfBoundsException("Index: " + index);
+        }
+        return fListener;
+    }
+
+    /**
+     * Returns the position of a new listener with the given priority: after
+     * all listeners with the same or higher priorities.
+     * 
+     * @param priority the priority of the new listener
+     * @return the position of the new listener
+     */
+    private int getInsertionIndex(int priority) {
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getPriority(middle) >= priority) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the priority of the listener with the specified index.
+     * 
+     * @param index the index of the listener
+     * @return the priority of the listener
+     */
+    public int getPriority(int index) {
+        if (fListeners == null) {
+            return fPriority;
+        }
+        return fPriorities != null ? fPriorities[index] : 0;
+    }
+
+    /**
+     * Returns <code>true</code> if at least one listener of this list has a
+     * priority different from <code>0</code>.
+     */
+    private boolean hasPriorities() {
+        return fListeners != null ? fPriorities != null : fPriority != 0;
+    }
+
+    /**
+     * Returns a new list with new listeners inserted after all listeners with
+     * the same or higher priority. This method does not allocate arrays
+     * except the arrays of the new list.
+     * 
+     * @param listener the listener to add; it is used if the array of
+     *        listeners is <code>null</code>
+     * @param listeners the listeners to add
+     * @param count the number of new listeners
+     * @param priority the priority of new listeners
+     * @return a new list of listeners
+     */
+    private ListenerList insert(
+        IEventListener<?> listener,
+        IEventListener<?>[] listeners,
+        int count,
+        int priority) {
+        int size = size();
+        int low = getInsertionIndex(priority);
+        IEventListener<?>[] newListeners = new IEventListener<?>[size + count];
+        int[] priorities = priority != 0 || hasPriorities()
+            ? new int[size + count]
+            : null;
+        copy(0, newListeners, priorities, 0, low);
+        copy(low, newListeners, priorities, low + count, size - low);
+        for (int i = 0; i < count; i++) {
+            newListeners[low + i] = listeners != null ? listeners[i] : listener;
+            if (priorities != null) {
+                priorities[low + i] = priority;
+            }
+        }
+        return new ListenerList(newListeners, priorities);
+    }
+
+    /**
+     * Returns a new list without the first occurrence of the given listener.
+     * 
+     * @param listener the listener to remove
+     * @return a new list without the given listener; this list if the
+     *         listener was not found or <code>null</code> if the resulting
+     *         list is empty
+     */
+    public ListenerList remove(IEventListener<?> listener) {
+        int idx = indexOf(listener);
+        if (idx < 0) {
+            return this;
+        }
+        int size = size() - 1;
+        if (size == 0) {
+            return null;
+        }
+        IEventListener<?>[] listeners = new IEventListener<?>[size];
+        int[] priorities = hasPriorities() ? new int[size] : null;
+        copy(0, listeners, priorities, 0, idx);
+        copy(idx + 1, listeners, priorities, idx, size - idx);
+        return new ListenerList(listeners, priorities);
+    }
+
+    /**
+     * Returns a new list without the given listeners. Each listener of the
+     * given collection removes only one occurrence, as the
+     * {@link #remove(IEventListener)} method does.
+     * 
+     * @param listeners the listeners to remove
+     * @return a new list without the given listeners; this list if none of the
+     *         listeners was found or <code>null</code> if the resulting list
+     *         is empty
+     */
+    public ListenerList removeListeners(Collection<?> listeners) {
+        Map<Object, int[]> counters = new HashMap<Object, int[]>();
+        for (Object listener : listeners) {
+            int[] counter = counters.get(listener);
+            if (counter == null) {
+                counter = new int[1];
+                counters.put(listener, counter);
+            }
+            counter[0]++;
+        }
+        int size = size();
+        IEventListener<?>[] newListeners = new IEventListener<?>[size];
+        int[] priorities = hasPriorities() ? new int[size] : null;
+        int pos = 0;
+        for (int i = 0; i < size; i++) {
+            IEventListener<?> listener = get(i);
+            int[] counter = counters.get(listener);
+            if (counter != null && counter[0] > 0) {
+                counter[0]--;
+                continue;
+            }
+            newListeners[pos] = listener;
+            if (priorities != null) {
+                priorities[pos] = getPriority(i);
+            }
+            pos++;
+        }
+        if (pos == size) {
+            return this;
+        }
+        if (pos == 0) {
+            return null;
+        }
+        return new ListenerList(
+            Arrays.copyOf(newListeners, pos),
+            priorities != null ? Arrays.copyOf(priorities, pos) : null);
+    }
+
+    /**
+     * @see java.util.AbstractCollection#size()
+     */
+    @Override
+    public int size() {
+        return fListeners != null ? fListeners.length : 1;
+    }
+
+}
@@ -0,0 +1,151 @@
+/* ************************************************************************** *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ * 
+ * This file is licensed to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * ************************************************************************** */
+package org.ubimix.commons.events;
+
+import org.ubimix.commons.events.EventManager.EventNode;
+
+/**
+ * An event queue with a separate FIFO "lane" for each {@link EventPriority}.
+ * Events are always taken from the non-empty lane with the highest priority,
+ * so high-priority events overtake queued bulk traffic while events with the
+ * same priority keep their order. When the queue is full, the oldest event of
+ * the lowest non-empty priority is dropped first (see {@link #evict()}), so
+ * high-priority events are not lost because of bulk traffic. This class does
+ * not use locks itself; it is as thread-safe as the queues used as lanes (see
+ * {@link #PriorityEventQueue(IEventQueue...)}).
+ * <p>
+ * Example of usage:
+ * </p>
+ * 
+ * <pre>
+ * IEventManager manager = new EventManager() {
+ *     &#064;Override
+ *     protected IEventQueue newEventQueue() {
+ *         return new PriorityEventQueue();
+ *     }
+ * };
+ * </pre>
+ * 
+ * @author kotelnikov
+ * @see IEventWithPriority
+ */
+public class PriorityEventQueue implements IEventQueue {
+
+    private static final int DEFAULT_LANE = EventPriority.NORMAL.ordinal();
+
+    private final IEventQueue[] fLanes;
+
+    /**
+     * The default constructor. It uses {@link EventQueue}s as lanes.
+     */
+    public PriorityEventQueue() {
+        this(newLanes());
+    }
+
+    /**
+     * @param lanes the queues used as lanes, one for each priority in the
+     *        order of {@link EventPriority#values()}
+     */
+    public PriorityEventQueue(IEventQueue... lanes) {
+        if (lanes.length != EventPriority.values().length) {
+            throw new IllegalArgumentException(
+                "One lane is required for each priority. Lanes: "
+                    + lanes.length
+                    + ".");
+        }
+        fLanes = lanes.clone();
+    }
+
+    /**
+     * Creates new {@link EventQueue}s used as lanes by the default
+     * constructor.
+     */
+    private static IEventQueue[] newLanes() {
+        IEventQueue[] lanes = new IEventQueue[EventPriority.values().length];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new EventQueue();
+        }
+        return lanes;
+    }
+
+    /**
+     * Removes and returns the oldest node of the non-empty lane with the
+     * lowest priority.
+     * 
+     * @see org.ubimix.commons.events.IEventQueue#evict()
+     */
+    public EventNode evict() {
+        for (int i = fLanes.length - 1; i >= 0; i--) {
+            EventNode node = fLanes[i].evict();
+            if (node != null) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the index of the lane for the given node.
+     * 
+     * @param node the node to add
+     * @return the index of the lane for the given node
+     */
+    protected int getLane(EventNode node) {
+        Object event = node.getEvent();
+        if (event instanceof IEventWithPriority) {
+            EventPriority priority = ((IEventWithPriority) event)
+                .getEventPriority();
+            if (priority != null) {
+                return priority.ordinal();
+            }
+        }
+        return DEFAULT_LANE;
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventQueue#isEmpty()
+     */
+    public boolean isEmpty() {
+        for (IEventQueue lane : fLanes) {
+            if (!lane.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventQueue#offer(org.ubimix.commons.events.EventManager.EventNode)
+     */
+    public boolean offer(EventNode node) {
+        return fLanes[getLane(node)].offer(node);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventQueue#poll()
+     */
+    public EventNode poll() {
+        for (IEventQueue lane : fLanes) {
+            EventNode node = lane.poll();
+            if (node != null) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+}
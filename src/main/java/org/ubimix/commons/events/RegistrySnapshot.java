@@ -0,0 +1,147 @@
+/* ************************************************************************** *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This file is licensed to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * ************************************************************************** */
+package org.ubimix.commons.events;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable view of all listeners of a registry at a specific modification
+ * epoch (see {@link IEventListenerRegistry#getEpoch()}). Snapshots can be read
+ * from any thread without locks. A snapshot is stale when the epoch of its
+ * registry is different from the epoch of the snapshot; this check costs one
+ * volatile read (see {@link #isStale(IEventListenerRegistry)}).
+ * 
+ * @author kotelnikov
+ */
+public final class RegistrySnapshot {
+
+    private final long fEpoch;
+
+    private final Map<Class<?>, Map<Object, List<IEventListener<?>>>> fKeyedListeners;
+
+    private final Map<Class<?>, List<IEventListener<?>>> fListeners;
+
+    /**
+     * Creates a new snapshot using the given maps. Lists of listeners should
+     * be immutable and the given maps should not be modified after this call.
+     * 
+     * @param epoch the modification epoch of the registry
+     * @param listeners listeners registered without routing keys
+     * @param keyedListeners listeners registered with routing keys, indexed
+     *        by event types and keys
+     */
+    public RegistrySnapshot(
+        long epoch,
+        Map<Class<?>, List<IEventListener<?>>> listeners,
+        Map<Class<?>, Map<Object, List<IEventListener<?>>>> keyedListeners) {
+        fEpoch = epoch;
+        fListeners = listeners;
+        fKeyedListeners = keyedListeners;
+    }
+
+    /**
+     * Returns the modification epoch of the registry when this snapshot was
+     * taken.
+     * 
+     * @return the modification epoch of this snapshot
+     */
+    public long getEpoch() {
+        return fEpoch;
+    }
+
+    /**
+     * Returns all event types having listeners registered without routing
+     * keys.
+     * 
+     * @return an unmodifiable set of event types
+     */
+    public Set<Class<?>> getEventTypes() {
+        return Collections.unmodifiableSet(fListeners.keySet());
+    }
+
+    /**
+     * Returns all event types having listeners registered with routing keys.
+     * 
+     * @return an unmodifiable set of event types
+     */
+    public Set<Class<?>> getKeyedEventTypes() {
+        return Collections.unmodifiableSet(fKeyedListeners.keySet());
+    }
+
+    /**
+     * Returns all routing keys used to register listeners for the specified
+     * event type.
+     * 
+     * @param eventType the type of events
+     * @return an unmodifiable set of keys
+     */
+    public Set<Object> getKeys(Class<?> eventType) {
+        Map<Object, List<IEventListener<?>>> index = fKeyedListeners
+            .get(eventType);
+        return index != null
+            ? Collections.unmodifiableSet(index.keySet())
+            : Collections.emptySet();
+    }
+
+    /**
+     * Returns all listeners registered without routing keys.
+     * 
+     * @return an unmodifiable map of event types to the corresponding
+     *         listeners
+     */
+    public Map<Class<?>, List<IEventListener<?>>> getListenerMap() {
+        return Collections.unmodifiableMap(fListeners);
+    }
+
+    /**
+     * @see IEventListenerRegistry#getListeners(Class)
+     */
+    public List<IEventListener<?>> getListeners(Class<?> eventType) {
+        return fListeners.get(eventType);
+    }
+
+    /**
+     * @see IEventListenerRegistry#getListeners(Class, Object)
+     */
+    public List<IEventListener<?>> getListeners(Class<?> eventType, Object key) {
+        Map<Object, List<IEventListener<?>>> index = fKeyedListeners
+            .get(eventType);
+        return index != null ? index.get(key) : null;
+    }
+
+    /**
+     * @see IEventListenerRegistry#hasKeyedListeners(Class)
+     */
+    public boolean hasKeyedListeners(Class<?> eventType) {
+        return fKeyedListeners.containsKey(eventType);
+    }
+
+    /**
+     * Returns <code>true</code> if listeners of the given registry were
+     * changed after this snapshot was taken.
+     * 
+     * @param registry the registry which produced this snapshot
+     * @return <code>true</code> if this snapshot is obsolete
+     */
+    public boolean isStale(IEventListenerRegistry registry) {
+        return registry.getEpoch() != fEpoch;
+    }
+
+}
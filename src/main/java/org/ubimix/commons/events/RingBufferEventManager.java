@@ -0,0 +1,269 @@
+/* ************************************************************************** *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ * 
+ * This file is licensed to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * ************************************************************************** */
+package org.ubimix.commons.events;
+
+/**
+ * This event manager does not allocate anything to fire and deliver events in
+ * the steady state. Fired events are stored in preallocated nodes ("slots") of
+ * a ring buffer with a power-of-two size; each slot is re-used after the
+ * corresponding event is delivered to all listeners. The ring grows (and
+ * allocates new slots) only when the number of queued events exceeds its
+ * capacity.
+ * <p>
+ * This class keeps all guaranties of the {@link EventManager}: events are
+ * delivered in the order of arrival and events fired by listeners are queued
+ * instead of being dispatched recursively.
+ * </p>
+ * <p>
+ * Events are stored directly in the ring, so the features of the
+ * {@link EventManager} based on the event queue are not supported:
+ * </p>
+ * <ul>
+ * <li>The capacity of the ring is not limited: the ring grows instead of
+ * applying overflow policies. The {@link #setCapacity(int)} method accepts
+ * only <code>0</code> and the
+ * {@link #setOverflowPolicy(EventOverflowPolicy)} method accepts only the
+ * default policy.</li>
+ * <li>Events are not conflated. The {@link #setConflating(boolean)} method
+ * accepts only <code>false</code>.</li>
+ * </ul>
+ * 
+ * @author kotelnikov
+ */
+public class RingBufferEventManager extends EventManager {
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    /**
+     * The position of the first queued event. This counter is incremented only
+     * when the event is already delivered to listeners, so the slot is not
+     * re-used while it is dispatched.
+     */
+    private int fHead;
+
+    private final Object fLock = new Object();
+
+    private EventNode[] fSlots;
+
+    /**
+     * The position of the next free slot.
+     */
+    private int fTail;
+
+    public RingBufferEventManager() {
+        this(new EventListenerRegistry(), DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param listenerRegistry the registry of listeners
+     * @param dispatchPlans the cache of dispatch plans built on top of the
+     *        given listener registry
+     * @param capacity the initial number of slots in the ring; it is rounded up
+     *        to the next power of two
+     */
+    public RingBufferEventManager(
+        IEventListenerRegistry listenerRegistry,
+        DispatchPlanCache dispatchPlans,
+        int capacity) {
+        super(listenerRegistry, dispatchPlans);
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        fSlots = new EventNode[size];
+        for (int i = 0; i < size; i++) {
+            fSlots[i] = new EventNode(null, null);
+        }
+    }
+
+    /**
+     * @param listenerRegistry the registry of listeners
+     * @param capacity the initial number of slots in the ring; it is rounded up
+     *        to the next power of two
+     */
+    public RingBufferEventManager(
+        IEventListenerRegistry listenerRegistry,
+        int capacity) {
+        this(listenerRegistry, new DispatchPlanCache(listenerRegistry), capacity);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.EventManager#drainEvents()
+     */
+    @Override
+    protected void drainEvents() {
+        while (beginDispatch()) {
+            try {
+                while (true) {
+                    EventNode slot;
+                    synchronized (fLock) {
+                        if (fHead == fTail) {
+                            break;
+                        }
+                        slot = fSlots[fHead & (fSlots.length - 1)];
+                    }
+                    try {
+                        dispatchEvent(slot);
+                    } finally {
+                        synchronized (fLock) {
+                            slot.set(null, null);
+                            fHead++;
+                        }
+                    }
+                }
+            } finally {
+                endDispatch();
+            }
+            if (isEmpty()) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @see org.ubimix.commons.events.EventManager#fireEvent(java.lang.Object,
+     *      org.ubimix.commons.events.IEventListener)
+     */
+    @Override
+    public <E, L extends IEventListener<? super E>> void fireEvent(
+        E event,
+        L callback) {
+        if (isIgnored(event, callback)) {
+            return;
+        }
+        if (event instanceof IEventWithLifecycle) {
+            ((IEventWithLifecycle) event).onFire(this, callback);
+        }
+        put(event, callback);
+        drainEvents();
+    }
+
+    /**
+     * @see org.ubimix.commons.events.EventManager#fireEvents(java.lang.Iterable)
+     */
+    @Override
+    public <E> void fireEvents(Iterable<E> events) {
+        EventBatch batch = newEventBatch(events);
+        if (batch != null) {
+            put(batch, null);
+            drainEvents();
+        }
+    }
+
+    /**
+     * Returns the current number of slots in the ring.
+     * 
+     * @return the current number of slots in the ring
+     */
+    public int getRingSize() {
+        synchronized (fLock) {
+            return fSlots.length;
+        }
+    }
+
+    /**
+     * Doubles the size of the ring. Slots keep their order and the slot which
+     * is currently dispatched (if any) stays the head of the ring.
+     */
+    private void grow() {
+        int size = fSlots.length;
+        EventNode[] slots = new EventNode[size << 1];
+        for (int i = 0; i < size; i++) {
+            slots[i] = fSlots[(fHead + i) & (size - 1)];
+        }
+        for (int i = size; i < slots.length; i++) {
+            slots[i] = new EventNode(null, null);
+        }
+        fSlots = slots;
+        fHead = 0;
+        fTail = size;
+    }
+
+    private boolean isEmpty() {
+        synchronized (fLock) {
+            return fHead == fTail;
+        }
+    }
+
+    /**
+     * Stores the given event in the next free slot of the ring.
+     */
+    private void put(Object event, IEventListener<?> callback) {
+        synchronized (fLock) {
+            if (fTail - fHead == fSlots.length) {
+                grow();
+            }
+            fSlots[fTail & (fSlots.length - 1)].set(event, callback);
+            fTail++;
+        }
+    }
+
+    /**
+     * The ring is not limited, so this method accepts only <code>0</code>.
+     * 
+     * @throws UnsupportedOperationException if the given capacity is not
+     *         <code>0</code>
+     * @see org.ubimix.commons.events.EventManager#setCapacity(int)
+     */
+    @Override
+    public void setCapacity(int capacity) {
+        if (capacity != 0) {
+            throw new UnsupportedOperationException(
+                "The ring buffer can not be limited. Capacity: "
+                    + capacity
+                    + ".");
+        }
+        super.setCapacity(capacity);
+    }
+
+    /**
+     * Events stored in the ring are not conflated, so this method accepts only
+     * <code>false</code>.
+     * 
+     * @throws UnsupportedOperationException if the conflating mode is
+     *         activated
+     * @see org.ubimix.commons.events.EventManager#setConflating(boolean)
+     */
+    @Override
+    public void setConflating(boolean conflating) {
+        if (conflating) {
+            throw new UnsupportedOperationException(
+                "The ring buffer does not conflate events.");
+        }
+        super.setConflating(conflating);
+    }
+
+    /**
+     * The ring is not limited, so overflow policies are never applied. This
+     * method accepts only the default {@link EventOverflowPolicy#FAIL} policy.
+     * 
+     * @throws UnsupportedOperationException if the given policy is not the
+     *         default one
+     * @see org.ubimix.commons.events.EventManager#setOverflowPolicy(org.ubimix.commons.events.EventOverflowPolicy)
+     */
+    @Override
+    public void setOverflowPolicy(EventOverflowPolicy overflowPolicy) {
+        if (overflowPolicy != EventOverflowPolicy.FAIL) {
+            throw new UnsupportedOperationException(
+                "The ring buffer does not apply overflow policies. Policy: "
+                    + overflowPolicy
+                    + ".");
+        }
+        super.setOverflowPolicy(overflowPolicy);
+    }
+
+}
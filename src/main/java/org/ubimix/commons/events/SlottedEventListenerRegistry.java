@@ -0,0 +1,358 @@
+/* ************************************************************************** *
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This file is licensed to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * ************************************************************************** */
+package org.ubimix.commons.events;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This registry is optimized for event types with a big number of short-lived
+ * listeners. Each registration object keeps a handle ("slot") pointing to the
+ * position of its listener, so the {@link IEventListenerRegistration#unregister()}
+ * method takes a constant time: it just clears the slot. Cleared slots are
+ * removed from the internal array when they occupy more than a half of it.
+ * <p>
+ * Dispatching is not affected by cleared slots: the {@link #getListeners(Class)}
+ * method returns a compact immutable {@link ListenerList} which is built on
+ * demand and re-used until the next modification of listeners of the same
+ * type.
+ * </p>
+ * <p>
+ * Methods removing listeners by their references (like
+ * {@link #removeListener(Class, IEventListener)}) still have to search for
+ * them. Listeners registered with routing keys are managed by the parent
+ * class.
+ * </p>
+ * 
+ * @author kotelnikov
+ */
+public class SlottedEventListenerRegistry extends EventListenerRegistry {
+
+    /**
+     * A handle of one registered listener.
+     */
+    private static class Slot {
+
+        private int fIndex;
+
+        private final IEventListener<?> fListener;
+
+        /**
+         * The list containing this slot; it is <code>null</code> when the
+         * listener is removed.
+         */
+        private SlotList fList;
+
+        private final int fPriority;
+
+        public Slot(IEventListener<?> listener, int priority) {
+            fListener = listener;
+            fPriority = priority;
+        }
+
+    }
+
+    /**
+     * Slots of all listeners registered for one event type, in the order of
+     * registration. Removed listeners leave empty positions in the array.
+     */
+    private static class SlotList {
+
+        /**
+         * The number of listeners in this list.
+         */
+        private int fCount;
+
+        private boolean fPriorities;
+
+        /**
+         * The number of used positions in the array, including empty ones.
+         */
+        private int fSize;
+
+        private Slot[] fSlots = new Slot[4];
+
+        /**
+         * A compact list of listeners; it is <code>null</code> if it should be
+         * re-built.
+         */
+        private ListenerList fSnapshot;
+
+        public void add(Slot slot) {
+            if (fSize == fSlots.length) {
+                if (fCount < fSize) {
+                    compact();
+                }
+                if (fSize == fSlots.length) {
+                    fSlots = Arrays.copyOf(fSlots, fSize << 1);
+                }
+            }
+            slot.fList = this;
+            slot.fIndex = fSize;
+            fSlots[fSize++] = slot;
+            fPriorities |= slot.fPriority != 0;
+            fCount++;
+            fSnapshot = null;
+        }
+
+        /**
+         * Moves all slots to the beginning of the array and updates their
+         * indexes.
+         */
+        private void compact() {
+            int pos = 0;
+            for (int i = 0; i < fSize; i++) {
+                Slot slot = fSlots[i];
+                if (slot != null) {
+                    slot.fIndex = pos;
+                    fSlots[pos++] = slot;
+                }
+            }
+            Arrays.fill(fSlots, pos, fSize, null);
+            fSize = pos;
+        }
+
+        public Slot find(IEventListener<?> listener) {
+            for (int i = 0; i < fSize; i++) {
+                Slot slot = fSlots[i];
+                if (slot != null && slot.fListener.equals(listener)) {
+                    return slot;
+                }
+            }
+            return null;
+        }
+
+        public ListenerList getSnapshot() {
+            if (fSnapshot == null) {
+                Slot[] slots = new Slot[fCount];
+                int pos = 0;
+                for (int i = 0; i < fSize; i++) {
+                    if (fSlots[i] != null) {
+                        slots[pos++] = fSlots[i];
+                    }
+                }
+                if (fPriorities) {
+                    // This sort is stable, so listeners with the same
+                    // priority keep the order of registration.
+                    Arrays.sort(slots, PRIORITY_ORDER);
+                }
+                IEventListener<?>[] listeners = new IEventListener<?>[fCount];
+                int[] priorities = fPriorities ? new int[fCount] : null;
+                for (int i = 0; i < fCount; i++) {
+                    listeners[i] = slots[i].fListener;
+                    if (priorities != null) {
+                        priorities[i] = slots[i].fPriority;
+                    }
+                }
+                fSnapshot = new ListenerList(listeners, priorities);
+            }
+            return fSnapshot;
+        }
+
+        public boolean isEmpty() {
+            return fCount == 0;
+        }
+
+        public void remove(Slot slot) {
+            fSlots[slot.fIndex] = null;
+            slot.fList = null;
+            fCount--;
+            fSnapshot = null;
+            if (fCount < fSize >> 1) {
+                compact();
+            }
+        }
+
+    }
+
+    private static final Comparator<Slot> PRIORITY_ORDER = new Comparator<Slot>() {
+        public int compare(Slot first, Slot second) {
+            return first.fPriority > second.fPriority
+                ? -1
+                : first.fPriority < second.fPriority ? 1 : 0;
+        }
+    };
+
+    private Map<Class<?>, SlotList> fSlots = new HashMap<Class<?>, SlotList>();
+
+    /**
+     * 
+     */
+    public SlottedEventListenerRegistry() {
+    }
+
+    /**
+     * @see org.ubimix.commons.events.EventListenerRegistry#addListener(java.lang.Class,
+     *      org.ubimix.commons.events.IEventListener, int)
+     */
+    @Override
+    public synchronized <E> IEventListenerRegistration addListener(
+        Class<E> eventType,
+        IEventListener<? super E> listener,
+        int priority) {
+        Slot slot = new Slot(listener, priority);
+        getSlotList(eventType).add(slot);
+        notifyAddListener(eventType, listener);
+        return newRegistration(eventType, slot);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.EventListenerRegistry#addListeners(java.lang.Class,
+     *      java.util.Collection, int)
+     */
+    @Override
+    public synchronized <E> List<IEventListenerRegistration> addListeners(
+        Class<E> eventType,
+        Collection<? extends IEventListener<? super E>> listeners,
+        int priority) {
+        List<IEventListenerRegistration> result = new ArrayList<IEventListenerRegistration>(
+            listeners.size());
+        if (listeners.isEmpty()) {
+            return result;
+        }
+        SlotList list = getSlotList(eventType);
+        for (IEventListener<? super E> listener : listeners) {
+            Slot slot = new Slot(listener, priority);
+            list.add(slot);
+            notifyAddListener(eventType, listener);
+            result.add(newRegistration(eventType, slot));
+        }
+        return result;
+    }
+
+    /**
+     * @see org.ubimix.commons.events.EventListenerRegistry#getListenerMap()
+     */
+    @Override
+    protected Map<Class<?>, List<IEventListener<?>>> getListenerMap() {
+        Map<Class<?>, List<IEventListener<?>>> result = new HashMap<Class<?>, List<IEventListener<?>>>();
+        for (Map.Entry<Class<?>, SlotList> entry : fSlots.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getSnapshot());
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.EventListenerRegistry#getListeners(java.lang.Class)
+     */
+    @Override
+    public synchronized <E> List<IEventListener<?>> getListeners(
+        Class<E> eventType) {
+        SlotList list = fSlots.get(eventType);
+        return list != null ? list.getSnapshot() : null;
+    }
+
+    private SlotList getSlotList(Class<?> eventType) {
+        SlotList list = fSlots.get(eventType);
+        if (list == null) {
+            list = new SlotList();
+            fSlots.put(eventType, list);
+        }
+        return list;
+    }
+
+    /**
+     * Creates a new registration object clearing the given slot.
+     */
+    private IEventListenerRegistration newRegistration(
+        final Class<?> eventType,
+        final Slot slot) {
+        return new IEventListenerRegistration() {
+            public boolean unregister() {
+                return removeSlot(eventType, slot);
+            }
+        };
+    }
+
+    /**
+     * @see org.ubimix.commons.events.EventListenerRegistry#removeListener(java.lang.Class,
+     *      org.ubimix.commons.events.IEventListener)
+     */
+    @Override
+    public synchronized <E> boolean removeListener(
+        Class<E> eventType,
+        IEventListener<? super E> listener) {
+        SlotList list = fSlots.get(eventType);
+        Slot slot = list != null ? list.find(listener) : null;
+        return slot != null && removeSlot(eventType, slot);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.EventListenerRegistry#removeListeners(java.lang.Class,
+     *      java.util.Collection)
+     */
+    @Override
+    public synchronized <E> int removeListeners(
+        Class<E> eventType,
+        Collection<? extends IEventListener<? super E>> listeners) {
+        SlotList list = fSlots.get(eventType);
+        if (list == null) {
+            return 0;
+        }
+        Map<Object, int[]> counters = new HashMap<Object, int[]>();
+        for (Object listener : listeners) {
+            int[] counter = counters.get(listener);
+            if (counter == null) {
+                counter = new int[1];
+                counters.put(listener, counter);
+            }
+            counter[0]++;
+        }
+        List<Slot> removed = new ArrayList<Slot>();
+        for (int i = 0; i < list.fSize; i++) {
+            Slot slot = list.fSlots[i];
+            if (slot == null) {
+                continue;
+            }
+            int[] counter = counters.get(slot.fListener);
+            if (counter != null && counter[0] > 0) {
+                counter[0]--;
+                removed.add(slot);
+            }
+        }
+        for (Slot slot : removed) {
+            removeSlot(eventType, slot);
+        }
+        return removed.size();
+    }
+
+    /**
+     * Clears the given slot. This method takes a constant time (compaction
+     * of the slot array is amortized over removals).
+     * 
+     * @return <code>true</code> if the slot was not already cleared
+     */
+    private synchronized boolean removeSlot(Class<?> eventType, Slot slot) {
+        SlotList list = slot.fList;
+        if (list == null) {
+            return false;
+        }
+        list.remove(slot);
+        if (list.isEmpty()) {
+            fSlots.remove(eventType);
+        }
+        notifyRemoveListener(eventType, slot.fListener);
+        return true;
+    }
+
+}
@@ -1,37 +1,269 @@
 package org.ubimix.commons.events.server;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
+import org.ubimix.commons.events.DispatchPlanCache;
 import org.ubimix.commons.events.EventListenerRegistry;
 import org.ubimix.commons.events.EventManager;
+import org.ubimix.commons.events.EventManager.EventNode;
+import org.ubimix.commons.events.EventOverflowException;
+import org.ubimix.commons.events.EventOverflowPolicy;
 import org.ubimix.commons.events.IEventListener;
 import org.ubimix.commons.events.IEventListenerInterceptor;
 import org.ubimix.commons.events.IEventListenerRegistration;
 import org.ubimix.commons.events.IEventListenerRegistry;
 import org.ubimix.commons.events.IEventManager;
+import org.ubimix.commons.events.IEventProvider;
+import org.ubimix.commons.events.IEventQueue;
+import org.ubimix.commons.events.IEventWithKey;
 import org.ubimix.commons.events.IEventWithLifecycle;
+import org.ubimix.commons.events.PriorityEventQueue;
+import org.ubimix.commons.events.RegistrySnapshot;
 
 /**
  * This implementation of the {@link IEventManager} interface handles events in
  * separate threads so all operations are performed really asynchronously.
+ * <p>
+ * By default events are handled in any order and concurrently. In the
+ * partitioned mode (see {@link #setPartitionCount(int)}) events implementing
+ * the {@link IEventWithKey} interface are distributed between partitions by
+ * their routing keys. Each partition handles its events one by one in the
+ * order of firing, so events with the same key are never handled
+ * concurrently or out of order, while events with different keys are handled
+ * in parallel by threads of the same executor.
+ * </p>
+ * <p>
+ * Listeners blocked on I/O should be used with virtual threads (see the
+ * {@link #AsyncEventManager(boolean)} constructor and the
+ * {@link VirtualThreads} class). Events are handled by internal event managers
+ * which are not bound to threads: each task takes an idle manager and gives it
+ * back when the event is handled, so short-lived threads do not create new
+ * managers.
+ * </p>
+ * <p>
+ * For small events the cost of the executor hand-off is often higher than the
+ * work of listeners. In the batched mode (see {@link #setWorkerCount(int)})
+ * fired events are put in a queue which is drained by a bounded number of
+ * worker tasks; each task handles a batch of events with one event manager.
+ * </p>
+ * <p>
+ * The number of events accepted and not handled yet (the backlog) can be
+ * limited (see {@link #setCapacity(int)}). When the backlog is full or when
+ * the executor rejects a task, new events are handled according to the
+ * overflow policy (see {@link #setOverflowPolicy(EventOverflowPolicy)}).
+ * Events dropped after they were fired are notified about the error and
+ * about the end of their handling.
+ * </p>
  * 
  * @author kotelnikov
  */
 public class AsyncEventManager implements IEventManager {
 
-    private static ThreadLocal<IEventManager> fLocalEventManager = new ThreadLocal<IEventManager>();
+    /**
+     * The maximal number of idle event managers kept for next tasks.
+     */
+    private static final int MAX_IDLE_MANAGERS = 256;
+
+    /**
+     * The pause (in nanoseconds) made by producers using the
+     * {@link EventOverflowPolicy#BLOCK} policy when the executor rejects a
+     * task and there is no accepted events which could wake them up.
+     */
+    private static final long REJECTED_PAUSE = TimeUnit.MILLISECONDS
+        .toNanos(1);
+
+    /**
+     * Events fired together by the {@link AsyncEventManager#fireEvents(Iterable)}
+     * method. They take one place in the backlog and they are handled by one
+     * task.
+     */
+    private static class EventList {
+
+        private final List<Object> fEvents;
+
+        public EventList(List<Object> events) {
+            fEvents = events;
+        }
+
+        public List<Object> getEvents() {
+            return fEvents;
+        }
+    }
+
+    /**
+     * The number of running worker tasks in the batched mode.
+     */
+    private final AtomicInteger fActiveWorkers = new AtomicInteger();
+
+    /**
+     * The number of events accepted by this manager and not handled yet.
+     */
+    private final AtomicInteger fBacklogSize = new AtomicInteger();
+
+    /**
+     * The maximal time (in milliseconds) a producer waits for a free place
+     * with the {@link EventOverflowPolicy#BLOCK} policy.
+     */
+    private volatile long fBlockTimeout = 1000;
+
+    /**
+     * The maximal number of events in the backlog; <code>0</code> means that
+     * the backlog is not limited.
+     */
+    private volatile int fCapacity;
+
+    /**
+     * Producers waiting for a free place in the backlog are notified using
+     * this object.
+     */
+    private final Object fCapacityLock = new Object();
+
+    /**
+     * The number of producers waiting on the {@link #fCapacityLock} object.
+     * This field is modified only when the lock is held.
+     */
+    private volatile int fCapacityWaiters;
+
+    /**
+     * Dispatch plans shared by all internal event managers.
+     */
+    private DispatchPlanCache fDispatchPlans;
+
+    /**
+     * An optional queue of fired events. If this queue is defined then each
+     * executed task takes the first event from this queue instead of the
+     * event fired by the task creator.
+     */
+    private volatile IEventQueue fEventQueue;
 
     private Executor fExecutor;
 
+    /**
+     * The approximate size of the {@link #fIdleManagers} queue.
+     */
+    private final AtomicInteger fIdleManagerCount = new AtomicInteger();
+
+    /**
+     * Event managers which are not used by running tasks. Each task takes a
+     * manager from this queue (or creates a new one) and puts it back when
+     * the event is handled. Managers are not bound to threads, so they are
+     * re-used even if each task runs in a new (virtual) thread.
+     */
+    private final Queue<IEventManager> fIdleManagers = new ConcurrentLinkedQueue<IEventManager>();
+
     private IEventListenerRegistry fListenerRegistry;
 
+    /**
+     * Numbers of events affected by each overflow policy.
+     */
+    private final AtomicLongArray fOverflowCounters = new AtomicLongArray(
+        EventOverflowPolicy.values().length);
+
+    private volatile EventOverflowPolicy fOverflowPolicy = EventOverflowPolicy.FAIL;
+
+    /**
+     * The number of events fired in the batched mode and not taken by
+     * workers yet. This counter can be temporarily negative when a worker
+     * takes an event before the counter is incremented by the producer.
+     */
+    private final AtomicInteger fPendingCount = new AtomicInteger();
+
+    /**
+     * Events fired in the batched mode when the event queue is not defined.
+     */
+    private final Queue<EventNode> fPendingEvents = new ConcurrentLinkedQueue<EventNode>();
+
+    /**
+     * Serial executors handling keyed events; this field is <code>null</code>
+     * if the partitioned mode is disabled.
+     */
+    private volatile SerialExecutor[] fPartitions;
+
+    /**
+     * This task is executed once for each event added to the event queue.
+     */
+    private final Runnable fQueueTask = new Runnable() {
+        @SuppressWarnings("unchecked")
+        public void run() {
+            IEventQueue queue = fEventQueue;
+            EventNode node = queue != null ? queue.poll() : null;
+            if (node != null) {
+                IEventListener<Object> callback = (IEventListener<Object>) node
+                    .getCallback();
+                handleEvent(node.getEvent(), callback);
+            }
+        }
+    };
+
+    /**
+     * The number of tasks rejected by the executor.
+     */
+    private final AtomicLong fRejectedCount = new AtomicLong();
+
+    /**
+     * The approximate size of the {@link #fSpilledEvents} queue.
+     */
+    private final AtomicInteger fSpilledCount = new AtomicInteger();
+
+    /**
+     * Events kept by the {@link EventOverflowPolicy#SPILL} policy until the
+     * backlog has a free place.
+     */
+    private final Queue<EventNode> fSpilledEvents = new ConcurrentLinkedQueue<EventNode>();
+
+    /**
+     * This flag is <code>true</code> if the executor starts a virtual thread
+     * for each task.
+     */
+    private boolean fVirtual;
+
+    /**
+     * The maximal number of worker tasks in the batched mode; <code>0</code>
+     * if this mode is disabled.
+     */
+    private volatile int fWorkerCount;
+
+    /**
+     * This task handles a batch of events fired in the batched mode.
+     */
+    private final Runnable fWorkerTask = new Runnable() {
+        public void run() {
+            drainEvents();
+        }
+    };
+
     public AsyncEventManager() {
         this(Executors.newCachedThreadPool(), new EventListenerRegistry());
     }
 
+    /**
+     * @param virtualThreads if this flag is <code>true</code> then each event
+     *        is handled in a new virtual thread (see {@link VirtualThreads});
+     *        otherwise events are handled by a cached pool of threads. If the
+     *        JVM does not support virtual threads then the cached pool is
+     *        used as well; the {@link #isVirtual()} method returns
+     *        <code>false</code> in this case.
+     */
+    public AsyncEventManager(boolean virtualThreads) {
+        this(virtualThreads
+            ? VirtualThreads.newExecutor()
+            : Executors.newCachedThreadPool(), new EventListenerRegistry());
+        fVirtual = virtualThreads && VirtualThreads.isSupported();
+    }
+
     /**
      * @param executor
      * @param listenerRegistry
@@ -43,6 +275,107 @@ public class AsyncEventManager implements IEventManager {
         setListenerRegistry(listenerRegistry);
     }
 
+    /**
+     * Returns an event manager used to handle events in the current task. The
+     * returned manager should be given back using the
+     * {@link #releaseEventManager(IEventManager)} method.
+     * 
+     * @return an idle event manager
+     */
+    protected IEventManager acquireEventManager() {
+        IEventManager manager = fIdleManagers.poll();
+        if (manager != null) {
+            fIdleManagerCount.decrementAndGet();
+        } else {
+            manager = newEventManager();
+        }
+        return manager;
+    }
+
+    /**
+     * Reserves a place in the backlog and hands the given event over to the
+     * executor. If the backlog is full or if the executor rejects the task
+     * then this method applies the overflow policy.
+     * 
+     * @param event the event to handle
+     * @param callback the callback associated with the event
+     */
+    private void acceptEvent(Object event, IEventListener<?> callback) {
+        long deadline = 0;
+        boolean overflow = false;
+        while (true) {
+            EventOverflowException error;
+            boolean rejected = false;
+            if (tryAcquireCapacity()) {
+                EventNode node = submitEvent(event, callback);
+                if (node == null) {
+                    return;
+                }
+                fRejectedCount.incrementAndGet();
+                releaseCapacity();
+                event = node.getEvent();
+                callback = node.getCallback();
+                rejected = true;
+                error = new EventOverflowException(
+                    "The event was rejected by the executor.");
+            } else {
+                error = new EventOverflowException("The backlog is full. "
+                    + "Capacity: "
+                    + fCapacity
+                    + ".");
+            }
+            EventOverflowPolicy policy = fOverflowPolicy;
+            if (!overflow) {
+                fOverflowCounters.incrementAndGet(policy.ordinal());
+                overflow = true;
+            }
+            switch (policy) {
+                case BLOCK:
+                    if (deadline == 0) {
+                        deadline = System.nanoTime()
+                            + TimeUnit.MILLISECONDS.toNanos(fBlockTimeout);
+                    }
+                    if (awaitCapacity(deadline, rejected)) {
+                        continue;
+                    }
+                    error = new EventOverflowException(
+                        "No free place in the backlog after "
+                            + fBlockTimeout
+                            + "ms.");
+                    onDropEvent(event, callback, error);
+                    throw error;
+                case CALLER_RUNS:
+                    dispatchEvent(event, callback);
+                    return;
+                case DROP_OLDEST:
+                    if (!rejected) {
+                        EventNode oldest = pollQueuedEvent();
+                        if (oldest != null) {
+                            onDropEvent(
+                                oldest.getEvent(),
+                                oldest.getCallback(),
+                                error);
+                            releaseCapacity();
+                            continue;
+                        }
+                    }
+                    onDropEvent(event, callback, error);
+                    return;
+                case DROP_NEWEST:
+                    onDropEvent(event, callback, error);
+                    return;
+                case SPILL:
+                    fSpilledEvents.offer(new EventNode(event, callback));
+                    fSpilledCount.incrementAndGet();
+                    drainSpilledEvents();
+                    return;
+                default:
+                    onDropEvent(event, callback, error);
+                    throw error;
+            }
+        }
+    }
+
     /**
      * @see org.ubimix.commons.events.IEventListenerRegistry#addListener(java.lang.Class,
      *      org.ubimix.commons.events.IEventListener)
@@ -53,6 +386,28 @@ public class AsyncEventManager implements IEventManager {
         return fListenerRegistry.addListener(eventType, listener);
     }
 
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#addListener(java.lang.Class,
+     *      org.ubimix.commons.events.IEventListener, int)
+     */
+    public <E> IEventListenerRegistration addListener(
+        Class<E> eventType,
+        IEventListener<? super E> listener,
+        int priority) {
+        return fListenerRegistry.addListener(eventType, listener, priority);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#addListener(java.lang.Class,
+     *      java.lang.Object, org.ubimix.commons.events.IEventListener)
+     */
+    public <E> IEventListenerRegistration addListener(
+        Class<E> eventType,
+        Object key,
+        IEventListener<? super E> listener) {
+        return fListenerRegistry.addListener(eventType, key, listener);
+    }
+
     /**
      * @see org.ubimix.commons.events.IEventListenerRegistry#addListenerInterceptor(org.ubimix.commons.events.IEventListenerInterceptor)
      */
@@ -60,6 +415,84 @@ public class AsyncEventManager implements IEventManager {
         fListenerRegistry.addListenerInterceptor(interceptor);
     }
 
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#addListeners(java.lang.Class,
+     *      java.util.Collection)
+     */
+    public <E> List<IEventListenerRegistration> addListeners(
+        Class<E> eventType,
+        Collection<? extends IEventListener<? super E>> listeners) {
+        return fListenerRegistry.addListeners(eventType, listeners);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#addListeners(java.lang.Class,
+     *      java.util.Collection, int)
+     */
+    public <E> List<IEventListenerRegistration> addListeners(
+        Class<E> eventType,
+        Collection<? extends IEventListener<? super E>> listeners,
+        int priority) {
+        return fListenerRegistry.addListeners(eventType, listeners, priority);
+    }
+
+    /**
+     * Starts a new worker task if the number of running workers is less than
+     * the limit defined by the {@link #setWorkerCount(int)} method.
+     * 
+     * @throws RejectedExecutionException if the executor rejects the task
+     */
+    private void addWorker() {
+        if (!reserveWorker()) {
+            return;
+        }
+        try {
+            fExecutor.execute(fWorkerTask);
+        } catch (RuntimeException e) {
+            fActiveWorkers.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits until a place in the backlog is released or until the given
+     * deadline.
+     * 
+     * @param deadline the deadline in terms of {@link System#nanoTime()}
+     * @param rejected if this flag is <code>true</code> then the backlog is
+     *        not full but the executor rejected a task; in this case this
+     *        method waits for the end of any accepted event or, if there is
+     *        no accepted events, just makes a short pause
+     * @return <code>true</code> if the caller should try to add the event
+     *         again; <code>false</code> if the deadline is reached or the
+     *         thread was interrupted
+     */
+    private boolean awaitCapacity(long deadline, boolean rejected) {
+        synchronized (fCapacityLock) {
+            fCapacityWaiters++;
+            try {
+                long timeout = deadline - System.nanoTime();
+                if (timeout <= 0) {
+                    return false;
+                }
+                if (!rejected && hasCapacity()) {
+                    return true;
+                }
+                if (rejected && fBacklogSize.get() == 0) {
+                    // Nobody would wake up this thread
+                    timeout = Math.min(timeout, REJECTED_PAUSE);
+                }
+                TimeUnit.NANOSECONDS.timedWait(fCapacityLock, timeout);
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                fCapacityWaiters--;
+            }
+        }
+    }
+
     /**
      * Closes this event manager and shuts down the associated
      */
@@ -73,15 +506,8 @@ public class AsyncEventManager implements IEventManager {
      * @see org.ubimix.commons.events.IEventManager#fireEvent(java.lang.Object)
      */
     public <E> void fireEvent(final E event) {
-        if (event instanceof IEventWithLifecycle) {
-            ((IEventWithLifecycle) event).onFire(this, null);
-        }
-        fExecutor.execute(new Runnable() {
-            public void run() {
-                IEventManager manager = getLocalEventManager(true);
-                manager.fireEvent(event);
-            }
-        });
+        IEventListener<E> listener = null;
+        fireEvent(event, listener);
     }
 
     /**
@@ -91,28 +517,252 @@ public class AsyncEventManager implements IEventManager {
     public <E, L extends IEventListener<? super E>> void fireEvent(
         final E event,
         final L listener) {
+        if (fDispatchPlans.isIgnored(event, listener)) {
+            return;
+        }
         if (event instanceof IEventWithLifecycle) {
             ((IEventWithLifecycle) event).onFire(this, listener);
         }
-        fExecutor.execute(new Runnable() {
-            public void run() {
-                IEventManager manager = getLocalEventManager(true);
-                manager.fireEvent(event, listener);
+        acceptEvent(event, listener);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventManager#fireEvent(java.lang.Class,
+     *      org.ubimix.commons.events.IEventProvider)
+     */
+    public <E> void fireEvent(
+        Class<E> eventType,
+        IEventProvider<? extends E> provider) {
+        if (hasListeners(eventType)) {
+            fireEvent(provider.getEvent());
+        }
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventManager#fireEvents(java.lang.Iterable)
+     */
+    public <E> void fireEvents(Iterable<E> events) {
+        List<Object> list = new ArrayList<Object>();
+        for (E event : events) {
+            if (event instanceof IEventWithLifecycle) {
+                ((IEventWithLifecycle) event).onFire(this, null);
+            }
+            list.add(event);
+        }
+        if (!list.isEmpty()) {
+            acceptEvent(new EventList(list), null);
+        }
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventManager#fireEvents(java.lang.Object[])
+     */
+    public <E> void fireEvents(E[] events) {
+        fireEvents(Arrays.asList(events));
+    }
+
+    /**
+     * Handles the given event using an idle event manager.
+     */
+    private void dispatchEvent(Object event, IEventListener<?> listener) {
+        IEventManager manager = acquireEventManager();
+        try {
+            dispatchEvent(manager, event, listener);
+        } finally {
+            releaseEventManager(manager);
+        }
+    }
+
+    /**
+     * Handles the given event (or a list of events fired together) using the
+     * specified event manager.
+     */
+    private static void dispatchEvent(
+        IEventManager manager,
+        Object event,
+        IEventListener<?> listener) {
+        if (event instanceof EventList) {
+            manager.fireEvents(((EventList) event).getEvents());
+        } else {
+            @SuppressWarnings("unchecked")
+            IEventListener<Object> callback = (IEventListener<Object>) listener;
+            manager.fireEvent(event, callback);
+        }
+    }
+
+    /**
+     * Handles a batch of queued events using one event manager. If there are
+     * more pending events then this method starts another worker, so the
+     * load is spread between workers without waking them for each event.
+     * Remaining events are handed over to a new task which takes the place of
+     * the current worker. If the executor rejects the new task then the
+     * current worker goes on with the next batch, so queued events are never
+     * left without a worker.
+     */
+    private void drainEvents() {
+        while (true) {
+            drainBatch();
+            if (fPendingCount.get() > 0) {
+                // The new task takes the place of this worker
+                try {
+                    fExecutor.execute(fWorkerTask);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    fRejectedCount.incrementAndGet();
+                    continue;
+                }
+            }
+            fActiveWorkers.decrementAndGet();
+            // Events could be added after the last check
+            if (fPendingCount.get() <= 0 || tryAddWorker()) {
+                return;
+            }
+            // The executor can not run a new worker, so the current thread
+            // handles the next batch itself
+            if (!reserveWorker()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Handles up to {@link SerialExecutor#MAX_BATCH_SIZE} queued events using
+     * one event manager.
+     */
+    private void drainBatch() {
+        IEventManager manager = acquireEventManager();
+        try {
+            for (int i = 0; i < SerialExecutor.MAX_BATCH_SIZE; i++) {
+                IEventQueue queue = fEventQueue;
+                EventNode node = queue != null
+                    ? queue.poll()
+                    : fPendingEvents.poll();
+                if (node == null) {
+                    break;
+                }
+                if (fPendingCount.decrementAndGet() > 0 && i == 0) {
+                    tryAddWorker();
+                }
+                try {
+                    dispatchEvent(manager, node.getEvent(), node.getCallback());
+                } finally {
+                    releaseCapacity();
+                }
+            }
+        } finally {
+            releaseEventManager(manager);
+        }
+    }
+
+    /**
+     * Hands spilled events over to the executor while the backlog has free
+     * places.
+     */
+    private void drainSpilledEvents() {
+        while (fSpilledCount.get() > 0 && tryAcquireCapacity()) {
+            EventNode node = fSpilledEvents.poll();
+            if (node == null) {
+                decrementBacklog();
+                break;
+            }
+            fSpilledCount.decrementAndGet();
+            EventNode rejected = submitEvent(node.getEvent(), node
+                .getCallback());
+            if (rejected != null) {
+                // Accepted events could be already handled, so nobody else
+                // would hand the spilled event over
+                fRejectedCount.incrementAndGet();
+                try {
+                    dispatchEvent(rejected.getEvent(), rejected.getCallback());
+                } finally {
+                    decrementBacklog();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reserves a place for a new worker task.
+     * 
+     * @return <code>true</code> if the number of running workers was less
+     *         than the limit and it was incremented
+     */
+    private boolean reserveWorker() {
+        while (true) {
+            int active = fActiveWorkers.get();
+            if (active >= fWorkerCount) {
+                return false;
+            }
+            if (fActiveWorkers.compareAndSet(active, active + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Removes one place from the backlog and wakes up producers waiting for
+     * it.
+     */
+    private void decrementBacklog() {
+        fBacklogSize.decrementAndGet();
+        if (fCapacityWaiters > 0) {
+            synchronized (fCapacityLock) {
+                fCapacityLock.notifyAll();
             }
-        });
+        }
+    }
+
+    /**
+     * Returns the number of events accepted by this manager and not handled
+     * yet. This number includes events waiting for a free thread and events
+     * delivered to listeners right now; it does not include spilled events
+     * (see {@link #getSpilledCount()}).
+     * 
+     * @return the current size of the backlog
+     */
+    public int getBacklogSize() {
+        return fBacklogSize.get();
+    }
+
+    /**
+     * Returns the maximal time a producer waits for a free place with the
+     * {@link EventOverflowPolicy#BLOCK} policy.
+     * 
+     * @return the timeout in milliseconds
+     * @see #setBlockTimeout(long)
+     */
+    public long getBlockTimeout() {
+        return fBlockTimeout;
     }
 
     /**
-     * Returns the event listener regsitry used by all thread-specific event
-     * managers.
+     * Returns the maximal number of events in the backlog.
      * 
-     * @return the event listener regsitry used by all thread-specific event
+     * @return the maximal number of events in the backlog; <code>0</code>
+     *         means that the backlog is not limited
+     * @see #setCapacity(int)
+     */
+    public int getCapacity() {
+        return fCapacity;
+    }
+
+    /**
+     * Returns the event listener regsitry used by all internal event managers.
+     * 
+     * @return the event listener regsitry used by all internal event
      *         managers
      */
     public IEventListenerRegistry getListenerRegistry() {
         return fListenerRegistry;
     }
 
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#getEpoch()
+     */
+    public long getEpoch() {
+        return fListenerRegistry.getEpoch();
+    }
+
     /**
      * @see org.ubimix.commons.events.IEventListenerRegistry#getListeners(java.lang.Class)
      */
@@ -121,35 +771,233 @@ public class AsyncEventManager implements IEventManager {
     }
 
     /**
-     * Returns an event manager associated with the current thread. If there is
-     * no such a manager and the given parameter <code>create</code> is
-     * <code>true</code> then this method creates a new thread-specific event
-     * manager and returns it.
+     * @see org.ubimix.commons.events.IEventListenerRegistry#getListeners(java.lang.Class,
+     *      java.lang.Object)
+     */
+    public <E> List<IEventListener<?>> getListeners(
+        Class<E> eventType,
+        Object key) {
+        return fListenerRegistry.getListeners(eventType, key);
+    }
+
+    /**
+     * Returns the serial executor handling the given event or
+     * <code>null</code> if the event should be handled by any thread.
+     */
+    private Executor getPartition(Object event) {
+        SerialExecutor[] partitions = fPartitions;
+        if (partitions == null || !(event instanceof IEventWithKey)) {
+            return null;
+        }
+        Object key = ((IEventWithKey) event).getEventKey();
+        if (key == null) {
+            return null;
+        }
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return partitions[(hash & 0x7fffffff) % partitions.length];
+    }
+
+    /**
+     * Returns the number of partitions handling keyed events.
      * 
-     * @param create if this flag is <code>true</code> and there is no event
-     *        managers associated with the current thread then this method will
-     *        create a new event manager
-     * @return a thread-specific event manager
+     * @return the number of partitions; <code>0</code> if the partitioned
+     *         mode is disabled
+     * @see #setPartitionCount(int)
      */
-    protected IEventManager getLocalEventManager(boolean create) {
-        IEventManager eventManager = fLocalEventManager.get();
-        if (eventManager == null && create) {
-            eventManager = newEventManager();
-            fLocalEventManager.set(eventManager);
+    public int getPartitionCount() {
+        SerialExecutor[] partitions = fPartitions;
+        return partitions != null ? partitions.length : 0;
+    }
+
+    /**
+     * Returns the number of events affected by the specified overflow policy
+     * since this manager was created.
+     * 
+     * @param policy the overflow policy
+     * @return the number of events affected by the specified policy
+     */
+    public long getOverflowCount(EventOverflowPolicy policy) {
+        return fOverflowCounters.get(policy.ordinal());
+    }
+
+    /**
+     * Returns the policy applied when the backlog is full or when the executor
+     * rejects a task.
+     * 
+     * @return the overflow policy
+     */
+    public EventOverflowPolicy getOverflowPolicy() {
+        return fOverflowPolicy;
+    }
+
+    /**
+     * Returns the number of tasks rejected by the executor since this manager
+     * was created.
+     * 
+     * @return the number of rejected tasks
+     */
+    public long getRejectedCount() {
+        return fRejectedCount.get();
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#getSnapshot()
+     */
+    public RegistrySnapshot getSnapshot() {
+        return fListenerRegistry.getSnapshot();
+    }
+
+    /**
+     * Returns the maximal number of worker tasks handling events in the
+     * batched mode.
+     * 
+     * @return the maximal number of workers; <code>0</code> if the batched
+     *         mode is disabled
+     * @see #setWorkerCount(int)
+     */
+    public int getWorkerCount() {
+        return fWorkerCount;
+    }
+
+    /**
+     * Returns the number of events kept by the {@link EventOverflowPolicy#SPILL}
+     * policy until the backlog has a free place.
+     * 
+     * @return the number of spilled events
+     */
+    public int getSpilledCount() {
+        return fSpilledCount.get();
+    }
+
+    /**
+     * Handles the given event using an idle event manager and releases its
+     * place in the backlog.
+     */
+    private void handleEvent(Object event, IEventListener<?> listener) {
+        try {
+            dispatchEvent(event, listener);
+        } finally {
+            releaseCapacity();
         }
-        return eventManager;
+    }
+
+    private boolean hasCapacity() {
+        int capacity = fCapacity;
+        return capacity == 0 || fBacklogSize.get() < capacity;
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#hasKeyedListeners(java.lang.Class)
+     */
+    public boolean hasKeyedListeners(Class<?> eventType) {
+        return fListenerRegistry.hasKeyedListeners(eventType);
     }
 
     /**
-     * Creates and returns a new thread-local event manager.
+     * @see org.ubimix.commons.events.IEventManager#hasListeners(java.lang.Class)
+     */
+    public boolean hasListeners(Class<?> eventType) {
+        return fDispatchPlans.hasListeners(eventType);
+    }
+
+    /**
+     * Returns <code>true</code> if events are handled by virtual threads (see
+     * {@link #AsyncEventManager(boolean)}). This method returns
+     * <code>false</code> if virtual threads were requested but they are not
+     * supported by the JVM or if the executor was replaced using the
+     * {@link #setExecutor(Executor)} method.
      * 
-     * @return a newly created thread-local event manager
+     * @return <code>true</code> if each event is handled in a new virtual
+     *         thread
+     */
+    public boolean isVirtual() {
+        return fVirtual;
+    }
+
+    /**
+     * Creates and returns a new event manager handling events in tasks.
+     * 
+     * @return a newly created event manager
      */
     protected EventManager newEventManager() {
-        EventManager localEventManager = new EventManager(fListenerRegistry);
+        EventManager localEventManager = new EventManager(
+            fListenerRegistry,
+            fDispatchPlans);
         return localEventManager;
     }
 
+    /**
+     * This method is called when an event accepted by the
+     * {@link #fireEvent(Object, IEventListener)} method is dropped because the
+     * backlog is full or because the executor rejected it. The event is
+     * notified about the error and about the end of its handling.
+     * 
+     * @param event the dropped event
+     * @param callback the callback associated with the event
+     * @param error the error describing the reason of the drop
+     */
+    protected void onDropEvent(
+        Object event,
+        IEventListener<?> callback,
+        EventOverflowException error) {
+        if (event instanceof EventList) {
+            for (Object e : ((EventList) event).getEvents()) {
+                onDropEvent(e, null, error);
+            }
+        } else if (event instanceof IEventWithLifecycle) {
+            IEventWithLifecycle e = (IEventWithLifecycle) event;
+            e.onHandleError(null, error);
+            e.onHandleEnd();
+        }
+    }
+
+    /**
+     * Removes the oldest event waiting in the event queue or in the internal
+     * queue of the batched mode.
+     * 
+     * @return the removed event or <code>null</code> if there is no queued
+     *         events
+     */
+    private EventNode pollQueuedEvent() {
+        IEventQueue queue = fEventQueue;
+        if (fWorkerCount > 0) {
+            EventNode node = queue != null
+                ? queue.poll()
+                : fPendingEvents.poll();
+            if (node != null) {
+                fPendingCount.decrementAndGet();
+            }
+            return node;
+        }
+        return queue != null ? queue.poll() : null;
+    }
+
+    /**
+     * Releases a place in the backlog. Spilled events (if any) take the
+     * released place.
+     */
+    private void releaseCapacity() {
+        decrementBacklog();
+        if (fSpilledCount.get() > 0) {
+            drainSpilledEvents();
+        }
+    }
+
+    /**
+     * Gives back an event manager taken by the {@link #acquireEventManager()}
+     * method. Managers exceeding the limit of idle managers are dropped.
+     * 
+     * @param manager the manager to release
+     */
+    protected void releaseEventManager(IEventManager manager) {
+        if (fIdleManagerCount.incrementAndGet() <= MAX_IDLE_MANAGERS) {
+            fIdleManagers.offer(manager);
+        } else {
+            fIdleManagerCount.decrementAndGet();
+        }
+    }
+
     /**
      * @see org.ubimix.commons.events.IEventListenerRegistry#removeListener(java.lang.Class,
      *      org.ubimix.commons.events.IEventListener)
@@ -160,6 +1008,17 @@ public class AsyncEventManager implements IEventManager {
         return fListenerRegistry.removeListener(eventType, listener);
     }
 
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#removeListener(java.lang.Class,
+     *      java.lang.Object, org.ubimix.commons.events.IEventListener)
+     */
+    public <E> boolean removeListener(
+        Class<E> eventType,
+        Object key,
+        IEventListener<? super E> listener) {
+        return fListenerRegistry.removeListener(eventType, key, listener);
+    }
+
     /**
      * @see org.ubimix.commons.events.IEventListenerRegistry#removeListenerInterceptor(org.ubimix.commons.events.IEventListenerInterceptor)
      */
@@ -167,6 +1026,109 @@ public class AsyncEventManager implements IEventManager {
         fListenerRegistry.removeListenerInterceptor(interceptor);
     }
 
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#removeListeners(java.lang.Class,
+     *      java.util.Collection)
+     */
+    public <E> int removeListeners(
+        Class<E> eventType,
+        Collection<? extends IEventListener<? super E>> listeners) {
+        return fListenerRegistry.removeListeners(eventType, listeners);
+    }
+
+    /**
+     * Sets the maximal time a producer waits for a free place with the
+     * {@link EventOverflowPolicy#BLOCK} policy. If there is still no free
+     * place after this time then the event is dropped and an
+     * {@link EventOverflowException} is thrown. The default timeout is one
+     * second.
+     * 
+     * @param timeout the timeout in milliseconds
+     */
+    public void setBlockTimeout(long timeout) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException(
+                "The timeout should be a positive value. Timeout: "
+                    + timeout
+                    + ".");
+        }
+        fBlockTimeout = timeout;
+    }
+
+    /**
+     * Sets the maximal number of events accepted by this manager and not
+     * handled yet. When the backlog is full new events are handled according
+     * to the overflow policy (see
+     * {@link #setOverflowPolicy(EventOverflowPolicy)}). The capacity bounds the
+     * number of threads used by a cached pool as well as the number of tasks
+     * waiting in the queue of a fixed pool. This method should be called
+     * before the manager is used to fire events.
+     * 
+     * @param capacity the maximal number of events in the backlog;
+     *        <code>0</code> means that the backlog is not limited
+     */
+    public void setCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException(
+                "The capacity should be a positive value. Capacity: "
+                    + capacity
+                    + ".");
+        }
+        fCapacity = capacity;
+    }
+
+    /**
+     * Sets a queue used to keep fired events until they are taken by executed
+     * tasks. For example a {@link PriorityEventQueue} allows high-priority
+     * events to overtake events waiting for a free thread of the executor. The
+     * given queue should support concurrent calls of the
+     * {@link IEventQueue#poll()} method. If the queue is <code>null</code>
+     * (default) then each event is directly handed to its own task (or to an
+     * internal queue in the batched mode, see {@link #setWorkerCount(int)}).
+     * This method should be called before the manager is used to fire events.
+     * 
+     * @param eventQueue the queue to set
+     */
+    public void setEventQueue(IEventQueue eventQueue) {
+        fEventQueue = eventQueue;
+    }
+
+    /**
+     * Sets the policy applied when the backlog is full (see
+     * {@link #setCapacity(int)}) or when the executor rejects a task. The
+     * policies work as follows:
+     * <ul>
+     * <li>{@link EventOverflowPolicy#BLOCK} - the producer waits for a free
+     * place at most for the time defined by {@link #setBlockTimeout(long)};
+     * then the event is dropped and an {@link EventOverflowException} is
+     * thrown.</li>
+     * <li>{@link EventOverflowPolicy#CALLER_RUNS} - the event is handled in the
+     * thread firing it.</li>
+     * <li>{@link EventOverflowPolicy#DROP_OLDEST} - the oldest event waiting in
+     * the event queue (or in the queue of the batched mode) is dropped; if
+     * there is no such queue or if the executor rejected the task then the
+     * new event is dropped.</li>
+     * <li>{@link EventOverflowPolicy#DROP_NEWEST} - the new event is dropped.
+     * </li>
+     * <li>{@link EventOverflowPolicy#SPILL} - the event is kept in an
+     * unbounded queue and handed over to the executor when an accepted event
+     * is handled. If the executor rejects a spilled event then it is handled
+     * by the thread handing it over.</li>
+     * <li>{@link EventOverflowPolicy#FAIL} - the event is dropped and an
+     * {@link EventOverflowException} is thrown.</li>
+     * </ul>
+     * Dropped events are notified using the
+     * {@link #onDropEvent(Object, IEventListener, EventOverflowException)}
+     * method. If a task is rejected by the executor in the queued or in the
+     * batched mode then the policy is applied to an event removed from the
+     * queue. The default policy is {@link EventOverflowPolicy#FAIL}.
+     * 
+     * @param overflowPolicy the policy to set
+     */
+    public void setOverflowPolicy(EventOverflowPolicy overflowPolicy) {
+        fOverflowPolicy = overflowPolicy;
+    }
+
     /**
      * Sets a new executor
      * 
@@ -174,15 +1136,166 @@ public class AsyncEventManager implements IEventManager {
      */
     public void setExecutor(Executor executor) {
         fExecutor = executor;
+        fVirtual = false;
+        setPartitionCount(getPartitionCount());
+    }
+
+    /**
+     * Enables the partitioned mode. Events implementing the
+     * {@link IEventWithKey} interface and having a non-<code>null</code> key
+     * are distributed between the specified number of partitions using hash
+     * codes of their keys. Events of each partition are handled sequentially
+     * in the order of firing; they do not use the event queue (see
+     * {@link #setEventQueue(IEventQueue)}). The number of partitions limits
+     * the number of keyed events handled in parallel, so it is usually equal
+     * to the number of threads of the executor. This method should be called
+     * before the manager is used to fire events.
+     * 
+     * @param count the number of partitions; <code>0</code> disables the
+     *        partitioned mode
+     */
+    public void setPartitionCount(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException(
+                "The number of partitions should be positive or 0");
+        }
+        SerialExecutor[] partitions = null;
+        if (count > 0) {
+            partitions = new SerialExecutor[count];
+            for (int i = 0; i < count; i++) {
+                partitions[i] = new SerialExecutor(fExecutor);
+            }
+        }
+        fPartitions = partitions;
+    }
+
+    /**
+     * Enables the batched mode. Fired events are added to the event queue (see
+     * {@link #setEventQueue(IEventQueue)}) or to an internal queue; they are
+     * handled by at most the specified number of worker tasks running in the
+     * executor. A worker is submitted only when the queue goes from empty to
+     * non-empty (or when a running worker finds more pending events); each
+     * worker handles up to 64 events and then gives its thread back to the
+     * executor. Keyed events of the partitioned mode (see
+     * {@link #setPartitionCount(int)}) are not affected. This method should
+     * be called before the manager is used to fire events.
+     * 
+     * @param count the maximal number of workers; <code>0</code> disables the
+     *        batched mode
+     */
+    public void setWorkerCount(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException(
+                "The number of workers should be positive or 0");
+        }
+        fWorkerCount = count;
     }
 
     /**
-     * Sets a new listener registry used by all thread-local event managers
+     * Hands the given event over to the executor using the partition, the
+     * batched mode or the event queue if they are defined.
+     * 
+     * @return <code>null</code> if the event was accepted by the executor or
+     *         an event which should be handled by the overflow policy because
+     *         the executor rejected the task
+     */
+    private EventNode submitEvent(
+        final Object event,
+        final IEventListener<?> callback) {
+        Executor partition = getPartition(event);
+        IEventQueue queue = fEventQueue;
+        try {
+            if (partition != null) {
+                partition.execute(new Runnable() {
+                    public void run() {
+                        handleEvent(event, callback);
+                    }
+                });
+            } else if (fWorkerCount > 0) {
+                EventNode node = new EventNode(event, callback);
+                if (queue != null) {
+                    queue.offer(node);
+                } else {
+                    fPendingEvents.offer(node);
+                }
+                // Workers are woken only when the queue becomes non-empty
+                // or when all workers are gone
+                if (fPendingCount.getAndIncrement() == 0
+                    || fActiveWorkers.get() == 0) {
+                    addWorker();
+                }
+            } else if (queue != null) {
+                queue.offer(new EventNode(event, callback));
+                fExecutor.execute(fQueueTask);
+            } else {
+                fExecutor.execute(new Runnable() {
+                    public void run() {
+                        handleEvent(event, callback);
+                    }
+                });
+            }
+            return null;
+        } catch (RejectedExecutionException e) {
+            if (partition != null || (fWorkerCount == 0 && queue == null)) {
+                return new EventNode(event, callback);
+            }
+            // The event is already queued; a queued event without a task
+            // is taken back. It is null if a running task took it.
+            return pollQueuedEvent();
+        }
+    }
+
+    /**
+     * Starts a new worker task (see {@link #addWorker()}) from a running
+     * worker. Rejected tasks are counted but not reported to the caller.
+     * 
+     * @return <code>false</code> if the executor rejected the task
+     */
+    private boolean tryAddWorker() {
+        try {
+            addWorker();
+            return true;
+        } catch (RejectedExecutionException e) {
+            fRejectedCount.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Reserves a place in the backlog.
+     * 
+     * @return <code>true</code> if a place was reserved; <code>false</code>
+     *         if the backlog is full
+     */
+    private boolean tryAcquireCapacity() {
+        int capacity = fCapacity;
+        if (capacity == 0) {
+            fBacklogSize.incrementAndGet();
+            return true;
+        }
+        while (true) {
+            int size = fBacklogSize.get();
+            if (size >= capacity) {
+                return false;
+            }
+            if (fBacklogSize.compareAndSet(size, size + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Sets a new listener registry used by all internal event managers
      * 
      * @param listenerRegistry the registry to set
      */
     public void setListenerRegistry(IEventListenerRegistry listenerRegistry) {
         fListenerRegistry = listenerRegistry;
+        fDispatchPlans = new DispatchPlanCache(listenerRegistry);
+        // Idle managers use the previous registry
+        while (fIdleManagers.poll() != null) {
+            fIdleManagerCount.decrementAndGet();
+        }
     }
 
 }
\ No newline at end of file
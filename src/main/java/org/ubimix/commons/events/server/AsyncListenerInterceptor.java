@@ -0,0 +1,251 @@
+/**
+ *
+ */
+package org.ubimix.commons.events.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.ubimix.commons.events.IEventListener;
+import org.ubimix.commons.events.IEventListenerInterceptor;
+
+/**
+ * This interceptor delivers notifications to another (slow) interceptor
+ * outside of the registry lock. Registries notify interceptors synchronously
+ * while they hold their locks, so slow interceptors (audit, remote
+ * synchronization) block registration of listeners and the dispatching of
+ * events. This object just queues notifications; they are delivered by a task
+ * scheduled in the given executor or by the {@link #deliver()} method.
+ * <p>
+ * Notifications are delivered in the order they were received and by one
+ * thread at a time. The {@link #init(Map)} method copies the given map (it
+ * contains immutable lists of listeners), so the wrapped interceptor is
+ * initialized from a snapshot of the registry and then it receives all
+ * changes made after this snapshot. Changes accumulated before each delivery
+ * are reported in one call to interceptors implementing the
+ * {@link IEventListenerBatchInterceptor} interface.
+ * </p>
+ * 
+ * @author kotelnikov
+ */
+public class AsyncListenerInterceptor implements IEventListenerPurgeInterceptor {
+
+    /**
+     * A queued call of the {@link IEventListenerInterceptor#done()} method.
+     */
+    private static final Object DONE = new Object();
+
+    /**
+     * This lock keeps the order of notifications delivered by different
+     * threads.
+     */
+    private final Object fDeliveryLock = new Object();
+
+    private final Runnable fDeliveryTask = new Runnable() {
+        public void run() {
+            deliver();
+        }
+    };
+
+    private final Executor fExecutor;
+
+    private final IEventListenerInterceptor fInterceptor;
+
+    private List<Object> fQueue = new ArrayList<Object>();
+
+    /**
+     * This flag is <code>true</code> when a delivery task is scheduled and
+     * it did not find an empty queue yet.
+     */
+    private boolean fScheduled;
+
+    /**
+     * Creates an interceptor queuing notifications until the
+     * {@link #deliver()} method is called.
+     * 
+     * @param interceptor the interceptor to notify
+     */
+    public AsyncListenerInterceptor(IEventListenerInterceptor interceptor) {
+        this(interceptor, null);
+    }
+
+    /**
+     * @param interceptor the interceptor to notify
+     * @param executor the executor delivering notifications; if it is
+     *        <code>null</code> then notifications are delivered only by the
+     *        {@link #deliver()} method
+     */
+    public AsyncListenerInterceptor(
+        IEventListenerInterceptor interceptor,
+        Executor executor) {
+        fInterceptor = interceptor;
+        fExecutor = executor;
+    }
+
+    /**
+     * Delivers all queued notifications in the calling thread. This method
+     * returns when the queue is empty.
+     */
+    public void deliver() {
+        synchronized (fDeliveryLock) {
+            while (true) {
+                List<Object> batch;
+                synchronized (this) {
+                    if (fQueue.isEmpty()) {
+                        fScheduled = false;
+                        return;
+                    }
+                    batch = fQueue;
+                    fQueue = new ArrayList<Object>();
+                }
+                deliver(batch);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void deliver(List<Object> batch) {
+        List<ListenerChange> changes = new ArrayList<ListenerChange>();
+        for (Object entry : batch) {
+            if (entry instanceof ListenerChange) {
+                changes.add((ListenerChange) entry);
+                continue;
+            }
+            deliverChanges(changes);
+            try {
+                if (entry == DONE) {
+                    fInterceptor.done();
+                } else if (entry instanceof Integer) {
+                    ((IEventListenerPurgeInterceptor) fInterceptor)
+                        .onPurgeListeners((Integer) entry);
+                } else {
+                    fInterceptor
+                        .init((Map<Class<?>, List<IEventListener<?>>>) entry);
+                }
+            } catch (Throwable t) {
+                onError(t);
+            }
+        }
+        deliverChanges(changes);
+    }
+
+    private void deliverChanges(List<ListenerChange> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        if (fInterceptor instanceof IEventListenerBatchInterceptor) {
+            try {
+                ((IEventListenerBatchInterceptor) fInterceptor)
+                    .onListenerChanges(new ArrayList<ListenerChange>(changes));
+            } catch (Throwable t) {
+                onError(t);
+            }
+        } else {
+            for (ListenerChange change : changes) {
+                try {
+                    if (change.isAdded()) {
+                        fInterceptor.onAddListener(
+                            change.getEventType(),
+                            change.getListener());
+                    } else {
+                        fInterceptor.onRemoveListener(
+                            change.getEventType(),
+                            change.getListener());
+                    }
+                } catch (Throwable t) {
+                    onError(t);
+                }
+            }
+        }
+        changes.clear();
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerInterceptor#done()
+     */
+    public void done() {
+        enqueue(DONE);
+    }
+
+    private void enqueue(Object entry) {
+        boolean schedule;
+        synchronized (this) {
+            fQueue.add(entry);
+            schedule = fExecutor != null && !fScheduled;
+            if (schedule) {
+                fScheduled = true;
+            }
+        }
+        if (schedule) {
+            try {
+                fExecutor.execute(fDeliveryTask);
+            } catch (RuntimeException e) {
+                // This method is called by the registry after its listeners
+                // are changed, so the error is not propagated. The entry stays
+                // queued; it is delivered by the next scheduled task or by the
+                // deliver() method.
+                synchronized (this) {
+                    fScheduled = false;
+                }
+                onError(e);
+            }
+        }
+    }
+
+    /**
+     * Returns the interceptor notified by this object.
+     * 
+     * @return the wrapped interceptor
+     */
+    public IEventListenerInterceptor getInterceptor() {
+        return fInterceptor;
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerInterceptor#init(java.util.Map)
+     */
+    public void init(Map<Class<?>, List<IEventListener<?>>> listeners) {
+        enqueue(new HashMap<Class<?>, List<IEventListener<?>>>(listeners));
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerInterceptor#onAddListener(java.lang.Class,
+     *      org.ubimix.commons.events.IEventListener)
+     */
+    public void onAddListener(Class<?> eventType, IEventListener<?> listener) {
+        enqueue(new ListenerChange(eventType, listener, true));
+    }
+
+    /**
+     * This method is called when the wrapped interceptor throws an exception
+     * or when the executor rejects the delivery task. Errors do not interrupt
+     * the delivery of other notifications. This method does nothing by
+     * default.
+     * 
+     * @param error the error thrown by the wrapped interceptor or by the
+     *        executor
+     */
+    protected void onError(Throwable error) {
+    }
+
+    /**
+     * @see org.ubimix.commons.events.server.IEventListenerPurgeInterceptor#onPurgeListeners(int)
+     */
+    public void onPurgeListeners(int count) {
+        if (fInterceptor instanceof IEventListenerPurgeInterceptor) {
+            enqueue(count);
+        }
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerInterceptor#onRemoveListener(java.lang.Class,
+     *      org.ubimix.commons.events.IEventListener)
+     */
+    public void onRemoveListener(Class<?> eventType, IEventListener<?> listener) {
+        enqueue(new ListenerChange(eventType, listener, false));
+    }
+
+}
@@ -0,0 +1,203 @@
+/**
+ * 
+ */
+package org.ubimix.commons.events.server;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.ubimix.commons.events.AbstractEventListenerRegistry;
+import org.ubimix.commons.events.EventListenerRegistry;
+import org.ubimix.commons.events.IEventListener;
+import org.ubimix.commons.events.IEventListenerInterceptor;
+import org.ubimix.commons.events.IEventListenerRegistration;
+import org.ubimix.commons.events.IEventListenerRegistry;
+import org.ubimix.commons.events.ListenerList;
+
+/**
+ * An {@link IEventListenerRegistry} which does not take any locks to read
+ * listeners. Listeners of each event type (and of each routing key) are kept
+ * in immutable {@link ListenerList}s stored in concurrent maps; each
+ * modification replaces the corresponding list by a new one. Modifications
+ * (and notifications of interceptors) are serialized by the monitor of this
+ * registry, so they are linearizable: a reader sees either the previous or the
+ * new list, and once a modification method returns all subsequent reads see
+ * its result.
+ * <p>
+ * This registry should be used instead of the {@link EventListenerRegistry}
+ * when many threads dispatch events at the same time and listeners are rarely
+ * changed.
+ * </p>
+ * <p>
+ * Listeners could be registered using weak or soft references (see
+ * {@link #addWeakListener(Class, IEventListener)} and
+ * {@link #addSoftListener(Class, IEventListener)}). Such listeners are removed
+ * automatically when they are reclaimed by the garbage collector: the registry
+ * checks its reference queue when listeners are added or loaded and when an
+ * event is delivered to a reclaimed listener. Interceptors implementing the
+ * {@link IEventListenerPurgeInterceptor} interface are notified about the
+ * number of removed listeners.
+ * </p>
+ * 
+ * @author kotelnikov
+ */
+public class ConcurrentEventListenerRegistry
+    extends
+    AbstractEventListenerRegistry {
+
+    /**
+     * References to weak and soft listeners reclaimed by the garbage
+     * collector.
+     */
+    private final ReferenceQueue<Object> fReferenceQueue = new ReferenceQueue<Object>();
+
+    public ConcurrentEventListenerRegistry() {
+        super(
+            new ConcurrentHashMap<Class<?>, ListenerList>(),
+            new ConcurrentHashMap<Class<?>, Map<Object, ListenerList>>());
+    }
+
+    /**
+     * @see org.ubimix.commons.events.AbstractEventListenerRegistry#addListener(java.lang.Class,
+     *      org.ubimix.commons.events.IEventListener, int)
+     */
+    @Override
+    public <E> IEventListenerRegistration addListener(
+        Class<E> eventType,
+        IEventListener<? super E> listener,
+        int priority) {
+        purge();
+        return super.addListener(eventType, listener, priority);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.AbstractEventListenerRegistry#addListener(java.lang.Class,
+     *      java.lang.Object, org.ubimix.commons.events.IEventListener)
+     */
+    @Override
+    public <E> IEventListenerRegistration addListener(
+        Class<E> eventType,
+        Object key,
+        IEventListener<? super E> listener) {
+        purge();
+        return super.addListener(eventType, key, listener);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.AbstractEventListenerRegistry#addListeners(java.lang.Class,
+     *      java.util.Collection, int)
+     */
+    @Override
+    public <E> List<IEventListenerRegistration> addListeners(
+        Class<E> eventType,
+        Collection<? extends IEventListener<? super E>> listeners,
+        int priority) {
+        purge();
+        return super.addListeners(eventType, listeners, priority);
+    }
+
+    /**
+     * Registers the given listener using a soft reference. The listener is
+     * removed when the garbage collector reclaims it; it is reclaimed only
+     * when the memory is low. The listener should be removed using the
+     * returned registration object.
+     * 
+     * @param eventType the type of events for which the listener should be
+     *        added
+     * @param listener the listener to add
+     * @return the listener registration object used to unregister the given
+     *         listener
+     */
+    public <E> IEventListenerRegistration addSoftListener(
+        Class<E> eventType,
+        IEventListener<? super E> listener) {
+        return addListener(eventType, new ReferenceListener(
+            this,
+            eventType,
+            listener,
+            fReferenceQueue,
+            true));
+    }
+
+    /**
+     * Registers the given listener using a weak reference. The listener is
+     * removed as soon as the garbage collector reclaims it, so it should be
+     * strongly referenced by its owner (anonymous listeners which are not
+     * referenced anywhere else disappear immediately). The listener should be
+     * removed using the returned registration object.
+     * 
+     * @param eventType the type of events for which the listener should be
+     *        added
+     * @param listener the listener to add
+     * @return the listener registration object used to unregister the given
+     *         listener
+     */
+    public <E> IEventListenerRegistration addWeakListener(
+        Class<E> eventType,
+        IEventListener<? super E> listener) {
+        return addListener(eventType, new ReferenceListener(
+            this,
+            eventType,
+            listener,
+            fReferenceQueue,
+            false));
+    }
+
+    /**
+     * @see org.ubimix.commons.events.AbstractEventListenerRegistry#getListeners(java.lang.Class)
+     */
+    @Override
+    public <E> List<IEventListener<?>> getListeners(Class<E> eventType) {
+        purge();
+        return super.getListeners(eventType);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.AbstractEventListenerRegistry#newKeyIndex()
+     */
+    @Override
+    protected Map<Object, ListenerList> newKeyIndex() {
+        return new ConcurrentHashMap<Object, ListenerList>();
+    }
+
+    /**
+     * Removes all weak and soft listeners reclaimed by the garbage collector.
+     * This method does not take any locks if there is nothing to remove.
+     * 
+     * @return the number of removed listeners
+     */
+    @SuppressWarnings("unchecked")
+    public int purge() {
+        Reference<?> reference = fReferenceQueue.poll();
+        if (reference == null) {
+            return 0;
+        }
+        synchronized (this) {
+            int count = 0;
+            while (reference != null) {
+                ReferenceListener listener = ((ReferenceListener.IListenerReference) reference)
+                    .getOwner();
+                Class<Object> eventType = (Class<Object>) listener
+                    .getEventType();
+                if (removeListener(eventType, listener)) {
+                    count++;
+                }
+                reference = fReferenceQueue.poll();
+            }
+            if (count > 0) {
+                for (IEventListenerInterceptor interceptor : getListenerInterceptors()) {
+                    if (interceptor instanceof IEventListenerPurgeInterceptor) {
+                        ((IEventListenerPurgeInterceptor) interceptor)
+                            .onPurgeListeners(count);
+                    }
+                }
+            }
+            return count;
+        }
+    }
+
+}
@@ -0,0 +1,302 @@
+/**
+ * 
+ */
+package org.ubimix.commons.events.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.ubimix.commons.events.DispatchPlanCache;
+import org.ubimix.commons.events.EventListenerRegistry;
+import org.ubimix.commons.events.EventManager;
+import org.ubimix.commons.events.IEventListener;
+import org.ubimix.commons.events.IEventListenerInterceptor;
+import org.ubimix.commons.events.IEventListenerRegistration;
+import org.ubimix.commons.events.IEventListenerRegistry;
+import org.ubimix.commons.events.IEventManager;
+import org.ubimix.commons.events.IEventProvider;
+import org.ubimix.commons.events.IEventWithLifecycle;
+import org.ubimix.commons.events.RegistrySnapshot;
+
+/**
+ * This implementation of the {@link IEventManager} interface can be shared by
+ * multiple threads. Each thread firing events gets its own event queue and its
+ * own re-entrance tracking (a thread-specific {@link EventManager}), so events
+ * fired by one thread are delivered in this thread, in the order of arrival and
+ * without recursion, exactly as it is described in the
+ * {@link IEventManager#fireEvent(Object)} method. Different threads dispatch
+ * their events in parallel; they share only the listener registry and the
+ * cache of dispatch plans, which does not take locks to read.
+ * 
+ * @author kotelnikov
+ */
+public class ConcurrentEventManager implements IEventManager {
+
+    private final DispatchPlanCache fDispatchPlans;
+
+    private final IEventListenerRegistry fListenerRegistry;
+
+    private final ThreadLocal<EventManager> fLocalEventManager = new ThreadLocal<EventManager>();
+
+    public ConcurrentEventManager() {
+        this(new EventListenerRegistry());
+    }
+
+    /**
+     * @param listenerRegistry the registry of listeners shared by all threads
+     */
+    public ConcurrentEventManager(IEventListenerRegistry listenerRegistry) {
+        fListenerRegistry = listenerRegistry;
+        fDispatchPlans = new DispatchPlanCache(listenerRegistry);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#addListener(java.lang.Class,
+     *      org.ubimix.commons.events.IEventListener)
+     */
+    public <E> IEventListenerRegistration addListener(
+        Class<E> eventType,
+        IEventListener<? super E> listener) {
+        return fListenerRegistry.addListener(eventType, listener);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#addListener(java.lang.Class,
+     *      org.ubimix.commons.events.IEventListener, int)
+     */
+    public <E> IEventListenerRegistration addListener(
+        Class<E> eventType,
+        IEventListener<? super E> listener,
+        int priority) {
+        return fListenerRegistry.addListener(eventType, listener, priority);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#addListener(java.lang.Class,
+     *      java.lang.Object, org.ubimix.commons.events.IEventListener)
+     */
+    public <E> IEventListenerRegistration addListener(
+        Class<E> eventType,
+        Object key,
+        IEventListener<? super E> listener) {
+        return fListenerRegistry.addListener(eventType, key, listener);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#addListenerInterceptor(org.ubimix.commons.events.IEventListenerInterceptor)
+     */
+    public void addListenerInterceptor(IEventListenerInterceptor interceptor) {
+        fListenerRegistry.addListenerInterceptor(interceptor);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#addListeners(java.lang.Class,
+     *      java.util.Collection)
+     */
+    public <E> List<IEventListenerRegistration> addListeners(
+        Class<E> eventType,
+        Collection<? extends IEventListener<? super E>> listeners) {
+        return fListenerRegistry.addListeners(eventType, listeners);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#addListeners(java.lang.Class,
+     *      java.util.Collection, int)
+     */
+    public <E> List<IEventListenerRegistration> addListeners(
+        Class<E> eventType,
+        Collection<? extends IEventListener<? super E>> listeners,
+        int priority) {
+        return fListenerRegistry.addListeners(eventType, listeners, priority);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventManager#fireEvent(java.lang.Object)
+     */
+    public <E> void fireEvent(E event) {
+        IEventListener<E> callback = null;
+        fireEvent(event, callback);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventManager#fireEvent(java.lang.Object,
+     *      org.ubimix.commons.events.IEventListener)
+     */
+    public <E, L extends IEventListener<? super E>> void fireEvent(
+        E event,
+        L callback) {
+        if (fDispatchPlans.isIgnored(event, callback)) {
+            return;
+        }
+        // This manager should be notified first: events re-fired by their
+        // lifecycle methods (like the CallEvent) should use this shared
+        // manager and not the manager of the thread which fired them first.
+        if (event instanceof IEventWithLifecycle) {
+            ((IEventWithLifecycle) event).onFire(this, callback);
+        }
+        getLocalEventManager().fireEvent(event, callback);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventManager#fireEvent(java.lang.Class,
+     *      org.ubimix.commons.events.IEventProvider)
+     */
+    public <E> void fireEvent(
+        Class<E> eventType,
+        IEventProvider<? extends E> provider) {
+        if (hasListeners(eventType)) {
+            fireEvent(provider.getEvent());
+        }
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventManager#fireEvents(java.lang.Iterable)
+     */
+    public <E> void fireEvents(Iterable<E> events) {
+        List<E> list = new ArrayList<E>();
+        for (E event : events) {
+            if (event instanceof IEventWithLifecycle) {
+                ((IEventWithLifecycle) event).onFire(this, null);
+            }
+            list.add(event);
+        }
+        getLocalEventManager().fireEvents(list);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventManager#fireEvents(java.lang.Object[])
+     */
+    public <E> void fireEvents(E[] events) {
+        fireEvents(Arrays.asList(events));
+    }
+
+    /**
+     * Returns the cache of dispatch plans shared by all thread-specific
+     * managers.
+     * 
+     * @return the cache of dispatch plans
+     */
+    public DispatchPlanCache getDispatchPlans() {
+        return fDispatchPlans;
+    }
+
+    /**
+     * Returns the event listener registry shared by all thread-specific
+     * managers.
+     * 
+     * @return the event listener registry
+     */
+    public IEventListenerRegistry getListenerRegistry() {
+        return fListenerRegistry;
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#getEpoch()
+     */
+    public long getEpoch() {
+        return fListenerRegistry.getEpoch();
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#getListeners(java.lang.Class)
+     */
+    public <E> List<IEventListener<?>> getListeners(Class<E> eventType) {
+        return fListenerRegistry.getListeners(eventType);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#getListeners(java.lang.Class,
+     *      java.lang.Object)
+     */
+    public <E> List<IEventListener<?>> getListeners(
+        Class<E> eventType,
+        Object key) {
+        return fListenerRegistry.getListeners(eventType, key);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#getSnapshot()
+     */
+    public RegistrySnapshot getSnapshot() {
+        return fListenerRegistry.getSnapshot();
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#hasKeyedListeners(java.lang.Class)
+     */
+    public boolean hasKeyedListeners(Class<?> eventType) {
+        return fListenerRegistry.hasKeyedListeners(eventType);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventManager#hasListeners(java.lang.Class)
+     */
+    public boolean hasListeners(Class<?> eventType) {
+        return fDispatchPlans.hasListeners(eventType);
+    }
+
+    /**
+     * Returns an event manager associated with the current thread. The manager
+     * is created the first time when the thread fires an event.
+     * 
+     * @return an event manager associated with the current thread
+     */
+    protected EventManager getLocalEventManager() {
+        EventManager manager = fLocalEventManager.get();
+        if (manager == null) {
+            manager = newEventManager();
+            fLocalEventManager.set(manager);
+        }
+        return manager;
+    }
+
+    /**
+     * Creates and returns a new thread-specific event manager.
+     * 
+     * @return a new thread-specific event manager
+     */
+    protected EventManager newEventManager() {
+        return new EventManager(fListenerRegistry, fDispatchPlans);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#removeListener(java.lang.Class,
+     *      org.ubimix.commons.events.IEventListener)
+     */
+    public <E> boolean removeListener(
+        Class<E> eventType,
+        IEventListener<? super E> listener) {
+        return fListenerRegistry.removeListener(eventType, listener);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#removeListener(java.lang.Class,
+     *      java.lang.Object, org.ubimix.commons.events.IEventListener)
+     */
+    public <E> boolean removeListener(
+        Class<E> eventType,
+        Object key,
+        IEventListener<? super E> listener) {
+        return fListenerRegistry.removeListener(eventType, key, listener);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#removeListenerInterceptor(org.ubimix.commons.events.IEventListenerInterceptor)
+     */
+    public void removeListenerInterceptor(IEventListenerInterceptor interceptor) {
+        fListenerRegistry.removeListenerInterceptor(interceptor);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#removeListeners(java.lang.Class,
+     *      java.util.Collection)
+     */
+    public <E> int removeListeners(
+        Class<E> eventType,
+        Collection<? extends IEventListener<? super E>> listeners) {
+        return fListenerRegistry.removeListeners(eventType, listeners);
+    }
+
+}
@@ -0,0 +1,101 @@
+/**
+ * 
+ */
+package org.ubimix.commons.events.server;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.ubimix.commons.events.EventManager.EventNode;
+import org.ubimix.commons.events.IEventQueue;
+
+/**
+ * A lock-free multi-producer/single-consumer event queue. Producers append
+ * nodes with one atomic exchange of the tail reference; the consumer never
+ * takes a lock. This queue should be used only by event managers guaranteeing
+ * that only one thread at a time drains the queue (see
+ * {@link SharedEventManager}).
+ * 
+ * @author kotelnikov
+ */
+public class ConcurrentEventQueue implements IEventQueue {
+
+    private static class Node {
+
+        private volatile Node fNext;
+
+        private EventNode fValue;
+
+        public Node(EventNode value) {
+            fValue = value;
+        }
+
+    }
+
+    /**
+     * The consumer-side "stub" node. The first node in the queue is the node
+     * following this one.
+     */
+    private volatile Node fHead;
+
+    /**
+     * The last added node. Producers exchange this reference to append new
+     * nodes.
+     */
+    private final AtomicReference<Node> fTail;
+
+    /**
+     * The default constructor.
+     */
+    public ConcurrentEventQueue() {
+        Node stub = new Node(null);
+        fHead = stub;
+        fTail = new AtomicReference<Node>(stub);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventQueue#isEmpty()
+     */
+    public boolean isEmpty() {
+        return fTail.get() == fHead;
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventQueue#evict()
+     */
+    public EventNode evict() {
+        return poll();
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventQueue#offer(org.ubimix.commons.events.EventManager.EventNode)
+     */
+    public boolean offer(EventNode node) {
+        Node n = new Node(node);
+        Node prev = fTail.getAndSet(n);
+        prev.fNext = n;
+        return true;
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventQueue#poll()
+     */
+    public EventNode poll() {
+        Node head = fHead;
+        Node next = head.fNext;
+        if (next == null) {
+            if (fTail.get() == head) {
+                return null;
+            }
+            // A producer already exchanged the tail but did not link the
+            // previous node yet.
+            while ((next = head.fNext) == null) {
+                Thread.yield();
+            }
+        }
+        EventNode value = next.fValue;
+        next.fValue = null;
+        fHead = next;
+        return value;
+    }
+
+}
@@ -0,0 +1,32 @@
+/**
+ * 
+ */
+package org.ubimix.commons.events.server;
+
+import java.util.List;
+
+import org.ubimix.commons.events.IEventListenerInterceptor;
+
+/**
+ * Interceptors of this type are notified about added and removed listeners
+ * in batches by the {@link AsyncListenerInterceptor}. The
+ * {@link #onAddListener(Class, org.ubimix.commons.events.IEventListener)} and
+ * {@link #onRemoveListener(Class, org.ubimix.commons.events.IEventListener)}
+ * methods of such interceptors are not called by the
+ * {@link AsyncListenerInterceptor}.
+ * 
+ * @author kotelnikov
+ */
+public interface IEventListenerBatchInterceptor
+    extends
+    IEventListenerInterceptor {
+
+    /**
+     * This method is called with all changes of listeners accumulated since
+     * the previous call, in the order of their registration.
+     * 
+     * @param changes the list of added and removed listeners
+     */
+    void onListenerChanges(List<ListenerChange> changes);
+
+}
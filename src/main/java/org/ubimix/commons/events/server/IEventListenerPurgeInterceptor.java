@@ -0,0 +1,30 @@
+/**
+ * 
+ */
+package org.ubimix.commons.events.server;
+
+import org.ubimix.commons.events.IEventListenerInterceptor;
+
+/**
+ * Interceptors of this type are notified when a registry removes listeners
+ * reclaimed by the garbage collector (see
+ * {@link ConcurrentEventListenerRegistry#addWeakListener(Class, org.ubimix.commons.events.IEventListener)}
+ * ). Each purged listener is also reported individually by the
+ * {@link #onRemoveListener(Class, org.ubimix.commons.events.IEventListener)}
+ * method.
+ * 
+ * @author kotelnikov
+ */
+public interface IEventListenerPurgeInterceptor
+    extends
+    IEventListenerInterceptor {
+
+    /**
+     * This method is called after the registry removed listeners reclaimed by
+     * the garbage collector.
+     * 
+     * @param count the number of removed listeners
+     */
+    void onPurgeListeners(int count);
+
+}
@@ -0,0 +1,72 @@
+/**
+ * 
+ */
+package org.ubimix.commons.events.server;
+
+import org.ubimix.commons.events.IEventListener;
+
+/**
+ * An added or removed listener reported to
+ * {@link IEventListenerBatchInterceptor}s.
+ * 
+ * @author kotelnikov
+ */
+public final class ListenerChange {
+
+    private final boolean fAdded;
+
+    private final Class<?> fEventType;
+
+    private final IEventListener<?> fListener;
+
+    /**
+     * @param eventType the type of events of the listener
+     * @param listener the added or removed listener
+     * @param added <code>true</code> if the listener was added
+     */
+    public ListenerChange(
+        Class<?> eventType,
+        IEventListener<?> listener,
+        boolean added) {
+        fEventType = eventType;
+        fListener = listener;
+        fAdded = added;
+    }
+
+    /**
+     * Returns the type of events of the listener.
+     * 
+     * @return the type of events of the listener
+     */
+    public Class<?> getEventType() {
+        return fEventType;
+    }
+
+    /**
+     * Returns the added or removed listener.
+     * 
+     * @return the added or removed listener
+     */
+    public IEventListener<?> getListener() {
+        return fListener;
+    }
+
+    /**
+     * Returns <code>true</code> if the listener was added and
+     * <code>false</code> if it was removed.
+     * 
+     * @return <code>true</code> if the listener was added
+     */
+    public boolean isAdded() {
+        return fAdded;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return (fAdded ? "+" : "-") + fEventType.getName() + ":" + fListener;
+    }
+
+}
@@ -0,0 +1,214 @@
+/**
+ *
+ */
+package org.ubimix.commons.events.server;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.ubimix.commons.events.DispatchPlanCache;
+import org.ubimix.commons.events.EventListenerRegistry;
+import org.ubimix.commons.events.EventOverflowException;
+import org.ubimix.commons.events.EventOverflowPolicy;
+import org.ubimix.commons.events.EventWithLifecycle;
+import org.ubimix.commons.events.IEventListener;
+import org.ubimix.commons.events.IEventListenerRegistry;
+
+/**
+ * This event manager calls listeners of each event in parallel using a
+ * {@link ForkJoinPool}. It is useful when one event has many expensive and
+ * independent listeners. The array of listeners is recursively split into
+ * chunks of the specified size, so each task calls several listeners; events
+ * having less listeners than the chunk size are handled in the dispatching
+ * thread without tasks.
+ * <p>
+ * Events are still dispatched one by one: the callback of an event is called
+ * only when all listeners have finished and the next event is dispatched
+ * after that. Events fired by listeners are queued like in the
+ * {@link SharedEventManager}. Listeners and events should be ready to be used
+ * by several threads at the same time; for example
+ * {@link EventWithLifecycle} collects errors reported by parallel listeners.
+ * Listeners registered with routing keys are called sequentially.
+ * </p>
+ * <p>
+ * Pool threads calling listeners of this manager are considered as
+ * dispatching threads (see {@link #isDispatchingThread()}): if the capacity
+ * of the queue is limited and the {@link EventOverflowPolicy#BLOCK} policy is
+ * used then they get an {@link EventOverflowException} instead of waiting for
+ * the dispatching thread which waits for them.
+ * </p>
+ * 
+ * @author kotelnikov
+ */
+public class ParallelEventManager extends SharedEventManager {
+
+    /**
+     * This task calls a range of listeners; large ranges are split in two
+     * halves executed in parallel.
+     */
+    private class ListenerTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final IEventListener<?> fCallback;
+
+        private final Object fEvent;
+
+        private final int fFrom;
+
+        private final IEventListener<?>[] fListeners;
+
+        private final int fTo;
+
+        public ListenerTask(
+            Object event,
+            IEventListener<?> callback,
+            IEventListener<?>[] listeners,
+            int from,
+            int to) {
+            fEvent = event;
+            fCallback = callback;
+            fListeners = listeners;
+            fFrom = from;
+            fTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            boolean nested = fWorkers.get() != null;
+            if (!nested) {
+                fWorkers.set(Boolean.TRUE);
+            }
+            try {
+                doCompute();
+            } finally {
+                if (!nested) {
+                    fWorkers.remove();
+                }
+            }
+        }
+
+        private void doCompute() {
+            if (fTo - fFrom <= fChunkSize) {
+                ParallelEventManager.super.dispatchListeners(
+                    fEvent,
+                    fCallback,
+                    fListeners,
+                    fFrom,
+                    fTo);
+            } else {
+                int middle = (fFrom + fTo) >>> 1;
+                invokeAll(new ListenerTask(
+                    fEvent,
+                    fCallback,
+                    fListeners,
+                    fFrom,
+                    middle), new ListenerTask(
+                    fEvent,
+                    fCallback,
+                    fListeners,
+                    middle,
+                    fTo));
+            }
+        }
+
+    }
+
+    private static final int DEFAULT_CHUNK_SIZE = 4;
+
+    private final int fChunkSize;
+
+    private final ForkJoinPool fPool;
+
+    /**
+     * This thread local marks pool threads calling listeners of this manager.
+     */
+    private final ThreadLocal<Boolean> fWorkers = new ThreadLocal<Boolean>();
+
+    /**
+     * Creates a manager using the common pool.
+     */
+    public ParallelEventManager() {
+        this(new EventListenerRegistry());
+    }
+
+    /**
+     * Creates a manager using the common pool.
+     * 
+     * @param listenerRegistry the registry of listeners
+     */
+    public ParallelEventManager(IEventListenerRegistry listenerRegistry) {
+        this(
+            listenerRegistry,
+            new DispatchPlanCache(listenerRegistry),
+            ForkJoinPool.commonPool(),
+            DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param listenerRegistry the registry of listeners
+     * @param dispatchPlans the cache of dispatch plans built on top of the
+     *        given listener registry
+     * @param pool the pool used to call listeners
+     * @param chunkSize the maximal number of listeners called by one task
+     */
+    public ParallelEventManager(
+        IEventListenerRegistry listenerRegistry,
+        DispatchPlanCache dispatchPlans,
+        ForkJoinPool pool,
+        int chunkSize) {
+        super(listenerRegistry, dispatchPlans);
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException(
+                "The chunk size should be positive");
+        }
+        fPool = pool;
+        fChunkSize = chunkSize;
+    }
+
+    /**
+     * @see org.ubimix.commons.events.EventManager#dispatchListeners(java.lang.Object,
+     *      org.ubimix.commons.events.IEventListener,
+     *      org.ubimix.commons.events.IEventListener[], int, int)
+     */
+    @Override
+    protected void dispatchListeners(
+        Object event,
+        IEventListener<?> callback,
+        IEventListener<?>[] listeners,
+        int from,
+        int to) {
+        if (to - from <= fChunkSize) {
+            super.dispatchListeners(event, callback, listeners, from, to);
+        } else {
+            fPool.invoke(new ListenerTask(event, callback, listeners, from, to));
+        }
+    }
+
+    /**
+     * Returns the maximal number of listeners called by one task.
+     * 
+     * @return the maximal number of listeners called by one task
+     */
+    public int getChunkSize() {
+        return fChunkSize;
+    }
+
+    /**
+     * Returns the pool used to call listeners.
+     * 
+     * @return the pool used to call listeners
+     */
+    public ForkJoinPool getPool() {
+        return fPool;
+    }
+
+    /**
+     * @see org.ubimix.commons.events.server.SharedEventManager#isDispatchingThread()
+     */
+    @Override
+    protected boolean isDispatchingThread() {
+        return super.isDispatchingThread() || fWorkers.get() != null;
+    }
+
+}
@@ -0,0 +1,132 @@
+/**
+ * 
+ */
+package org.ubimix.commons.events.server;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+
+import org.ubimix.commons.events.IEventListener;
+
+/**
+ * Listeners of this type are registered instead of listeners added by
+ * {@link ConcurrentEventListenerRegistry#addWeakListener(Class, IEventListener)}
+ * and
+ * {@link ConcurrentEventListenerRegistry#addSoftListener(Class, IEventListener)}
+ * methods. They keep a weak (or soft) reference to the real listener and
+ * delegate all events to it while it is reachable. When the real listener is
+ * reclaimed by the garbage collector the reference is added to the queue of
+ * the registry which removes this listener.
+ * 
+ * @author kotelnikov
+ */
+class ReferenceListener implements IEventListener<Object> {
+
+    /**
+     * Soft references returning the listener which should be purged.
+     */
+    private static class SoftListenerReference
+        extends
+        SoftReference<IEventListener<Object>> implements IListenerReference {
+
+        private final ReferenceListener fOwner;
+
+        public SoftListenerReference(
+            IEventListener<Object> listener,
+            ReferenceQueue<Object> queue,
+            ReferenceListener owner) {
+            super(listener, queue);
+            fOwner = owner;
+        }
+
+        public ReferenceListener getOwner() {
+            return fOwner;
+        }
+
+    }
+
+    /**
+     * Weak references returning the listener which should be purged.
+     */
+    private static class WeakListenerReference
+        extends
+        WeakReference<IEventListener<Object>> implements IListenerReference {
+
+        private final ReferenceListener fOwner;
+
+        public WeakListenerReference(
+            IEventListener<Object> listener,
+            ReferenceQueue<Object> queue,
+            ReferenceListener owner) {
+            super(listener, queue);
+            fOwner = owner;
+        }
+
+        public ReferenceListener getOwner() {
+            return fOwner;
+        }
+
+    }
+
+    /**
+     * References returned by the reference queue of the registry implement
+     * this interface.
+     */
+    interface IListenerReference {
+
+        ReferenceListener getOwner();
+
+    }
+
+    private final Class<?> fEventType;
+
+    private final Reference<IEventListener<Object>> fReference;
+
+    private final ConcurrentEventListenerRegistry fRegistry;
+
+    @SuppressWarnings("unchecked")
+    public ReferenceListener(
+        ConcurrentEventListenerRegistry registry,
+        Class<?> eventType,
+        IEventListener<?> listener,
+        ReferenceQueue<Object> queue,
+        boolean soft) {
+        fRegistry = registry;
+        fEventType = eventType;
+        IEventListener<Object> l = (IEventListener<Object>) listener;
+        fReference = soft
+            ? new SoftListenerReference(l, queue, this)
+            : new WeakListenerReference(l, queue, this);
+    }
+
+    public Class<?> getEventType() {
+        return fEventType;
+    }
+
+    /**
+     * Returns the real listener or <code>null</code> if it was reclaimed by
+     * the garbage collector.
+     * 
+     * @return the real listener
+     */
+    public IEventListener<?> getListener() {
+        return fReference.get();
+    }
+
+    public void handleEvent(Object event) {
+        IEventListener<Object> listener = fReference.get();
+        if (listener != null) {
+            listener.handleEvent(event);
+        } else {
+            fRegistry.purge();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ReferenceListener [" + fReference.get() + "]";
+    }
+
+}
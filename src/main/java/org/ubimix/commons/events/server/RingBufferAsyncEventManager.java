@@ -0,0 +1,747 @@
+/**
+ *
+ */
+package org.ubimix.commons.events.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.ubimix.commons.events.DispatchPlanCache;
+import org.ubimix.commons.events.EventListenerRegistry;
+import org.ubimix.commons.events.EventManager;
+import org.ubimix.commons.events.IEventListener;
+import org.ubimix.commons.events.IEventListenerInterceptor;
+import org.ubimix.commons.events.IEventListenerRegistration;
+import org.ubimix.commons.events.IEventListenerRegistry;
+import org.ubimix.commons.events.IEventManager;
+import org.ubimix.commons.events.IEventProvider;
+import org.ubimix.commons.events.IEventWithLifecycle;
+import org.ubimix.commons.events.RegistrySnapshot;
+
+/**
+ * This asynchronous event manager hands events to dedicated consumer threads
+ * through a preallocated ring of slots. Producers claim slots by incrementing
+ * a sequence counter, fill them and publish them without locks; consumers
+ * claim published sequences one by one and wait for new events using the
+ * selected {@link WaitStrategy}. Nothing is allocated to fire an event in the
+ * steady state.
+ * <p>
+ * With one consumer thread events are handled in the order of their
+ * publication; with several consumers events are handled concurrently, like
+ * in the {@link AsyncEventManager}. When the ring is full producers wait until
+ * consumers free the oldest slot. Each consumer thread uses its own internal
+ * {@link EventManager}, so listeners, callbacks and
+ * {@link IEventWithLifecycle} methods are called exactly as by the other
+ * managers.
+ * </p>
+ * <p>
+ * Listeners called by consumer threads can fire new events. If the ring is
+ * full at this moment then the event is not published (the consumer would
+ * wait for itself); it is handled by the event manager of this consumer
+ * thread after the current event, like with the
+ * {@link org.ubimix.commons.events.EventOverflowPolicy#CALLER_RUNS} policy.
+ * </p>
+ * <p>
+ * Consumer threads are started by the constructor and stopped by the
+ * {@link #close()} method. Events accepted before the call of this method
+ * (including events which are being published at this moment) are handled
+ * before the threads exit.
+ * </p>
+ * 
+ * @author kotelnikov
+ */
+public class RingBufferAsyncEventManager implements IEventManager {
+
+    /**
+     * A preallocated slot of the ring.
+     */
+    private static class Slot {
+
+        private IEventListener<?> fCallback;
+
+        private Object fEvent;
+
+        /**
+         * This flag is <code>true</code> if the event is a list of events
+         * fired by the {@link RingBufferAsyncEventManager#fireEvents(Iterable)}
+         * method.
+         */
+        private boolean fList;
+
+        void clear() {
+            set(null, null, false);
+        }
+
+        void set(Object event, IEventListener<?> callback, boolean list) {
+            fEvent = event;
+            fCallback = callback;
+            fList = list;
+        }
+
+    }
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * The time (in nanoseconds) for which the {@link WaitStrategy#PARK}
+     * strategy parks consumers. The actual time depends on the timer
+     * resolution.
+     */
+    private static final long PARK_NANOS = 100;
+
+    /**
+     * The distance between sequences of consumers in the
+     * {@link #fConsumerSequences} array. It is used to put them into different
+     * cache lines.
+     */
+    private static final int SEQUENCE_PADDING = 16;
+
+    /**
+     * The number of iterations before a consumer yields the core.
+     */
+    private static final int SPIN_TRIES = 100;
+
+    /**
+     * The number of iterations before a consumer parks.
+     */
+    private static final int YIELD_TRIES = 200;
+
+    /**
+     * For each slot this array contains the "round" of the last published
+     * sequence using the slot. A slot is published when its round is equal
+     * to the round of the expected sequence.
+     */
+    private final AtomicIntegerArray fAvailable;
+
+    /**
+     * The last sequence claimed by producers.
+     */
+    private final AtomicLong fClaimSequence = new AtomicLong(-1);
+
+    private final Condition fConsumerCondition;
+
+    private final ReentrantLock fConsumerLock;
+
+    /**
+     * The event managers of consumer threads. This thread local is used to
+     * recognize consumer threads firing events.
+     */
+    private final ThreadLocal<IEventManager> fConsumerManagers = new ThreadLocal<IEventManager>();
+
+    /**
+     * For each consumer this array contains the sequence before the sequence
+     * handled (or expected) by the consumer. All slots up to the minimal
+     * sequence of consumers can be re-used by producers.
+     */
+    private final AtomicLongArray fConsumerSequences;
+
+    private final Thread[] fConsumers;
+
+    private final DispatchPlanCache fDispatchPlans;
+
+    /**
+     * The last known minimal sequence of consumers. It is used by producers
+     * to avoid scanning sequences of consumers for each event.
+     */
+    private volatile long fGatingSequence = -1;
+
+    private final IEventListenerRegistry fListenerRegistry;
+
+    private final int fMask;
+
+    /**
+     * The number of producers publishing events at this moment. Consumers do
+     * not exit while this number is positive.
+     */
+    private final AtomicInteger fPublishers = new AtomicInteger();
+
+    private volatile boolean fRunning = true;
+
+    private final int fShift;
+
+    private final Slot[] fSlots;
+
+    /**
+     * The number of consumers waiting on the {@link #fConsumerCondition}
+     * condition.
+     */
+    private final AtomicInteger fWaitingConsumers = new AtomicInteger();
+
+    private final WaitStrategy fWaitStrategy;
+
+    /**
+     * The last sequence claimed by consumers.
+     */
+    private final AtomicLong fWorkSequence = new AtomicLong(-1);
+
+    /**
+     * Creates a manager with one consumer thread using the
+     * {@link WaitStrategy#BLOCKING} strategy.
+     */
+    public RingBufferAsyncEventManager() {
+        this(
+            new EventListenerRegistry(),
+            DEFAULT_CAPACITY,
+            1,
+            WaitStrategy.BLOCKING);
+    }
+
+    /**
+     * @param listenerRegistry the registry of listeners
+     * @param capacity the number of slots in the ring; it is rounded up to
+     *        the next power of two
+     * @param consumerCount the number of consumer threads
+     * @param waitStrategy the strategy used by idle consumers
+     */
+    public RingBufferAsyncEventManager(
+        IEventListenerRegistry listenerRegistry,
+        int capacity,
+        int consumerCount,
+        WaitStrategy waitStrategy) {
+        if (capacity <= 0 || consumerCount <= 0) {
+            throw new IllegalArgumentException(
+                "The capacity and the number of consumers should be positive");
+        }
+        fListenerRegistry = listenerRegistry;
+        fDispatchPlans = new DispatchPlanCache(listenerRegistry);
+        fWaitStrategy = waitStrategy;
+        int size = 1;
+        int shift = 0;
+        while (size < capacity) {
+            size <<= 1;
+            shift++;
+        }
+        fMask = size - 1;
+        fShift = shift;
+        fSlots = new Slot[size];
+        fAvailable = new AtomicIntegerArray(size);
+        for (int i = 0; i < size; i++) {
+            fSlots[i] = new Slot();
+            fAvailable.set(i, -1);
+        }
+        fConsumerLock = new ReentrantLock();
+        fConsumerCondition = fConsumerLock.newCondition();
+        fConsumerSequences = new AtomicLongArray(consumerCount
+            * SEQUENCE_PADDING);
+        fConsumers = new Thread[consumerCount];
+        for (int i = 0; i < consumerCount; i++) {
+            fConsumerSequences.set(i * SEQUENCE_PADDING, -1);
+            final int index = i * SEQUENCE_PADDING;
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    consume(index);
+                }
+            }, getClass().getSimpleName() + "-" + i);
+            thread.setDaemon(true);
+            fConsumers[i] = thread;
+        }
+        for (Thread thread : fConsumers) {
+            thread.start();
+        }
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#addListener(java.lang.Class,
+     *      org.ubimix.commons.events.IEventListener)
+     */
+    public <E> IEventListenerRegistration addListener(
+        Class<E> eventType,
+        IEventListener<? super E> listener) {
+        return fListenerRegistry.addListener(eventType, listener);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#addListener(java.lang.Class,
+     *      org.ubimix.commons.events.IEventListener, int)
+     */
+    public <E> IEventListenerRegistration addListener(
+        Class<E> eventType,
+        IEventListener<? super E> listener,
+        int priority) {
+        return fListenerRegistry.addListener(eventType, listener, priority);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#addListener(java.lang.Class,
+     *      java.lang.Object, org.ubimix.commons.events.IEventListener)
+     */
+    public <E> IEventListenerRegistration addListener(
+        Class<E> eventType,
+        Object key,
+        IEventListener<? super E> listener) {
+        return fListenerRegistry.addListener(eventType, key, listener);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#addListenerInterceptor(org.ubimix.commons.events.IEventListenerInterceptor)
+     */
+    public void addListenerInterceptor(IEventListenerInterceptor interceptor) {
+        fListenerRegistry.addListenerInterceptor(interceptor);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#addListeners(java.lang.Class,
+     *      java.util.Collection)
+     */
+    public <E> List<IEventListenerRegistration> addListeners(
+        Class<E> eventType,
+        Collection<? extends IEventListener<? super E>> listeners) {
+        return fListenerRegistry.addListeners(eventType, listeners);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#addListeners(java.lang.Class,
+     *      java.util.Collection, int)
+     */
+    public <E> List<IEventListenerRegistration> addListeners(
+        Class<E> eventType,
+        Collection<? extends IEventListener<? super E>> listeners,
+        int priority) {
+        return fListenerRegistry.addListeners(eventType, listeners, priority);
+    }
+
+    /**
+     * Claims the next sequence and waits until its slot is released by
+     * consumers. A claimed sequence is always published, so this method does
+     * not stop waiting when the manager is closed: consumers work until all
+     * accepted events are published.
+     * 
+     * @return the claimed sequence
+     */
+    private long claimSequence() {
+        long sequence = fClaimSequence.incrementAndGet();
+        long wrapPoint = sequence - fSlots.length;
+        if (wrapPoint > fGatingSequence) {
+            long min;
+            while (wrapPoint > (min = getMinimumSequence())) {
+                LockSupport.parkNanos(1);
+            }
+            fGatingSequence = min;
+        }
+        return sequence;
+    }
+
+    /**
+     * Stops consumer threads. Events accepted before this call are handled
+     * before the threads exit; events fired after this call are rejected.
+     * This method does not wait for consumer threads.
+     */
+    public void close() {
+        fRunning = false;
+        signalConsumers();
+    }
+
+    /**
+     * The main loop of consumer threads.
+     * 
+     * @param index the index of the consumer sequence
+     */
+    private void consume(int index) {
+        IEventManager manager = newEventManager();
+        fConsumerManagers.set(manager);
+        try {
+            while (true) {
+                long sequence = fWorkSequence.incrementAndGet();
+                // All slots before the claimed sequence are released
+                fConsumerSequences.set(index, sequence - 1);
+                if (!waitFor(sequence)) {
+                    return;
+                }
+                Slot slot = fSlots[(int) sequence & fMask];
+                Object event = slot.fEvent;
+                IEventListener<?> callback = slot.fCallback;
+                boolean list = slot.fList;
+                slot.clear();
+                dispatch(manager, event, callback, list);
+            }
+        } finally {
+            fConsumerManagers.remove();
+        }
+    }
+
+    /**
+     * Delivers the given event using the event manager of a consumer thread.
+     */
+    private void dispatch(
+        IEventManager manager,
+        Object event,
+        IEventListener<?> callback,
+        boolean list) {
+        try {
+            if (list) {
+                manager.fireEvents((List<?>) event);
+            } else {
+                @SuppressWarnings("unchecked")
+                IEventListener<Object> c = (IEventListener<Object>) callback;
+                manager.fireEvent(event, c);
+            }
+        } catch (Throwable t) {
+            onError(event, t);
+        }
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventManager#fireEvent(java.lang.Object)
+     */
+    public <E> void fireEvent(E event) {
+        IEventListener<E> listener = null;
+        fireEvent(event, listener);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventManager#fireEvent(java.lang.Object,
+     *      org.ubimix.commons.events.IEventListener)
+     */
+    public <E, L extends IEventListener<? super E>> void fireEvent(
+        E event,
+        L listener) {
+        if (fDispatchPlans.isIgnored(event, listener)) {
+            return;
+        }
+        if (event instanceof IEventWithLifecycle) {
+            ((IEventWithLifecycle) event).onFire(this, listener);
+        }
+        publish(event, listener, false);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventManager#fireEvent(java.lang.Class,
+     *      org.ubimix.commons.events.IEventProvider)
+     */
+    public <E> void fireEvent(
+        Class<E> eventType,
+        IEventProvider<? extends E> provider) {
+        if (hasListeners(eventType)) {
+            fireEvent(provider.getEvent());
+        }
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventManager#fireEvents(java.lang.Iterable)
+     */
+    public <E> void fireEvents(Iterable<E> events) {
+        List<E> list = new ArrayList<E>();
+        for (E event : events) {
+            if (event instanceof IEventWithLifecycle) {
+                ((IEventWithLifecycle) event).onFire(this, null);
+            }
+            list.add(event);
+        }
+        if (!list.isEmpty()) {
+            publish(list, null, true);
+        }
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventManager#fireEvents(java.lang.Object[])
+     */
+    public <E> void fireEvents(E[] events) {
+        fireEvents(Arrays.asList(events));
+    }
+
+    /**
+     * Returns the number of slots in the ring.
+     * 
+     * @return the number of slots in the ring
+     */
+    public int getRingSize() {
+        return fSlots.length;
+    }
+
+    /**
+     * Returns the number of consumer threads.
+     * 
+     * @return the number of consumer threads
+     */
+    public int getConsumerCount() {
+        return fConsumers.length;
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#getEpoch()
+     */
+    public long getEpoch() {
+        return fListenerRegistry.getEpoch();
+    }
+
+    /**
+     * Returns the event listener registry used by all consumer threads.
+     * 
+     * @return the event listener registry used by all consumer threads
+     */
+    public IEventListenerRegistry getListenerRegistry() {
+        return fListenerRegistry;
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#getListeners(java.lang.Class)
+     */
+    public <E> List<IEventListener<?>> getListeners(Class<E> eventType) {
+        return fListenerRegistry.getListeners(eventType);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#getListeners(java.lang.Class,
+     *      java.lang.Object)
+     */
+    public <E> List<IEventListener<?>> getListeners(
+        Class<E> eventType,
+        Object key) {
+        return fListenerRegistry.getListeners(eventType, key);
+    }
+
+    /**
+     * Returns the minimal sequence released by all consumers.
+     */
+    private long getMinimumSequence() {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < fConsumers.length; i++) {
+            min = Math.min(min, fConsumerSequences.get(i * SEQUENCE_PADDING));
+        }
+        return min;
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#getSnapshot()
+     */
+    public RegistrySnapshot getSnapshot() {
+        return fListenerRegistry.getSnapshot();
+    }
+
+    /**
+     * Returns the strategy used by idle consumers.
+     * 
+     * @return the wait strategy of consumers
+     */
+    public WaitStrategy getWaitStrategy() {
+        return fWaitStrategy;
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#hasKeyedListeners(java.lang.Class)
+     */
+    public boolean hasKeyedListeners(Class<?> eventType) {
+        return fListenerRegistry.hasKeyedListeners(eventType);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventManager#hasListeners(java.lang.Class)
+     */
+    public boolean hasListeners(Class<?> eventType) {
+        return fDispatchPlans.hasListeners(eventType);
+    }
+
+    /**
+     * Returns <code>true</code> if the manager is closed, all producers which
+     * were accepted before finished their work and the specified sequence is
+     * not published. The order of checks is important: a producer increments
+     * the number of publishers before it checks the running flag.
+     */
+    private boolean isClosed(long sequence) {
+        return !fRunning && fPublishers.get() == 0 && !isPublished(sequence);
+    }
+
+    private boolean isPublished(long sequence) {
+        int index = (int) sequence & fMask;
+        return fAvailable.get(index) == (int) (sequence >>> fShift);
+    }
+
+    /**
+     * Creates and returns a new event manager used by a consumer thread.
+     * 
+     * @return a newly created event manager
+     */
+    protected EventManager newEventManager() {
+        return new EventManager(fListenerRegistry, fDispatchPlans);
+    }
+
+    /**
+     * This method is called when an event manager of a consumer thread throws
+     * an exception. Such errors do not stop consumers. This method does
+     * nothing by default.
+     * 
+     * @param event the handled event
+     * @param error the thrown error
+     */
+    protected void onError(Object event, Throwable error) {
+    }
+
+    /**
+     * Claims the next sequence, waits until its slot is released by consumers
+     * and publishes the given event. Consumer threads do not wait: if the
+     * ring is full then they deliver the event using their own event manager.
+     */
+    private void publish(Object event, IEventListener<?> callback, boolean list) {
+        fPublishers.incrementAndGet();
+        try {
+            if (!fRunning) {
+                throw new RejectedExecutionException(
+                    "The event manager is closed");
+            }
+            IEventManager consumer = fConsumerManagers.get();
+            if (consumer == null) {
+                publish(claimSequence(), event, callback, list);
+            } else {
+                long sequence = tryClaimSequence();
+                if (sequence >= 0) {
+                    publish(sequence, event, callback, list);
+                } else {
+                    dispatch(consumer, event, callback, list);
+                }
+            }
+        } finally {
+            fPublishers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Publishes the given event in the slot of the claimed sequence.
+     */
+    private void publish(
+        long sequence,
+        Object event,
+        IEventListener<?> callback,
+        boolean list) {
+        int index = (int) sequence & fMask;
+        fSlots[index].set(event, callback, list);
+        int round = (int) (sequence >>> fShift);
+        if (fWaitStrategy == WaitStrategy.BLOCKING) {
+            // The volatile write is ordered with the read of waiting consumers
+            fAvailable.set(index, round);
+            if (fWaitingConsumers.get() > 0) {
+                signalConsumers();
+            }
+        } else {
+            fAvailable.lazySet(index, round);
+        }
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#removeListener(java.lang.Class,
+     *      org.ubimix.commons.events.IEventListener)
+     */
+    public <E> boolean removeListener(
+        Class<E> eventType,
+        IEventListener<? super E> listener) {
+        return fListenerRegistry.removeListener(eventType, listener);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#removeListener(java.lang.Class,
+     *      java.lang.Object, org.ubimix.commons.events.IEventListener)
+     */
+    public <E> boolean removeListener(
+        Class<E> eventType,
+        Object key,
+        IEventListener<? super E> listener) {
+        return fListenerRegistry.removeListener(eventType, key, listener);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#removeListenerInterceptor(org.ubimix.commons.events.IEventListenerInterceptor)
+     */
+    public void removeListenerInterceptor(IEventListenerInterceptor interceptor) {
+        fListenerRegistry.removeListenerInterceptor(interceptor);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.IEventListenerRegistry#removeListeners(java.lang.Class,
+     *      java.util.Collection)
+     */
+    public <E> int removeListeners(
+        Class<E> eventType,
+        Collection<? extends IEventListener<? super E>> listeners) {
+        return fListenerRegistry.removeListeners(eventType, listeners);
+    }
+
+    private void signalConsumers() {
+        fConsumerLock.lock();
+        try {
+            fConsumerCondition.signalAll();
+        } finally {
+            fConsumerLock.unlock();
+        }
+    }
+
+    /**
+     * Claims the next sequence only if its slot is already released by
+     * consumers.
+     * 
+     * @return the claimed sequence or <code>-1</code> if the ring is full
+     */
+    private long tryClaimSequence() {
+        long current;
+        do {
+            current = fClaimSequence.get();
+            long wrapPoint = current + 1 - fSlots.length;
+            if (wrapPoint > fGatingSequence) {
+                long min = getMinimumSequence();
+                if (wrapPoint > min) {
+                    return -1;
+                }
+                fGatingSequence = min;
+            }
+        } while (!fClaimSequence.compareAndSet(current, current + 1));
+        return current + 1;
+    }
+
+    /**
+     * Waits until the specified sequence is published.
+     * 
+     * @return <code>false</code> if the manager is closed and the sequence
+     *         is not published
+     */
+    private boolean waitFor(long sequence) {
+        int counter = 0;
+        while (!isPublished(sequence)) {
+            if (isClosed(sequence)) {
+                return false;
+            }
+            switch (fWaitStrategy) {
+                case BUSY_SPIN:
+                    break;
+                case YIELD:
+                    if (counter < SPIN_TRIES) {
+                        counter++;
+                    } else {
+                        Thread.yield();
+                    }
+                    break;
+                case PARK:
+                    if (counter < SPIN_TRIES) {
+                        counter++;
+                    } else if (counter < YIELD_TRIES) {
+                        counter++;
+                        Thread.yield();
+                    } else {
+                        LockSupport.parkNanos(PARK_NANOS);
+                    }
+                    break;
+                default:
+                    fWaitingConsumers.incrementAndGet();
+                    fConsumerLock.lock();
+                    try {
+                        while (fRunning && !isPublished(sequence)) {
+                            fConsumerCondition.awaitUninterruptibly();
+                        }
+                    } finally {
+                        fConsumerLock.unlock();
+                        fWaitingConsumers.decrementAndGet();
+                    }
+                    break;
+            }
+        }
+        return true;
+    }
+
+}
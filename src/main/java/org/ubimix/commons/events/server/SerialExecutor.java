@@ -0,0 +1,160 @@
+/**
+ *
+ */
+package org.ubimix.commons.events.server;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * This executor runs tasks one by one, in the order of their submission, using
+ * threads of another executor. At most one thread of the underlying executor
+ * is used at a time, so many serial executors can share the same thread pool
+ * and run in parallel with each other.
+ * <p>
+ * To avoid monopolizing a thread of a bounded pool, each drain task runs at
+ * most {@link #MAX_BATCH_SIZE} tasks and then re-submits itself.
+ * </p>
+ * <p>
+ * If the underlying executor rejects the drain task, queued tasks are not left
+ * without a drain: the thread which tried to schedule it runs them in place
+ * (see {@link #runInPlace()}).
+ * </p>
+ * 
+ * @author kotelnikov
+ */
+class SerialExecutor implements Executor {
+
+    /**
+     * The maximal number of tasks executed before the thread is returned to
+     * the underlying executor.
+     */
+    static final int MAX_BATCH_SIZE = 64;
+
+    /**
+     * This flag is <code>true</code> when the drain task is submitted to the
+     * underlying executor and it did not find an empty queue yet.
+     */
+    private boolean fActive;
+
+    private final Runnable fDrainTask = new Runnable() {
+        public void run() {
+            drain();
+        }
+    };
+
+    private final Executor fExecutor;
+
+    private final Queue<Runnable> fTasks = new ArrayDeque<Runnable>();
+
+    /**
+     * @param executor the executor providing threads
+     */
+    public SerialExecutor(Executor executor) {
+        fExecutor = executor;
+    }
+
+    /**
+     * Runs queued tasks. If a task throws an exception the drain task is
+     * re-submitted, so the following tasks are not blocked. If the underlying
+     * executor rejects the re-submitted drain task then the current thread
+     * runs the remaining tasks in place.
+     */
+    private void drain() {
+        boolean done = false;
+        try {
+            done = runTasks();
+        } finally {
+            if (!done) {
+                try {
+                    fExecutor.execute(fDrainTask);
+                } catch (RuntimeException e) {
+                    runInPlace();
+                }
+            }
+        }
+    }
+
+    /**
+     * @see java.util.concurrent.Executor#execute(java.lang.Runnable)
+     */
+    public void execute(Runnable task) {
+        boolean schedule;
+        synchronized (this) {
+            fTasks.add(task);
+            schedule = !fActive;
+            fActive = true;
+        }
+        if (schedule) {
+            try {
+                fExecutor.execute(fDrainTask);
+            } catch (RuntimeException e) {
+                // Only the given task is rejected; tasks added by other
+                // threads since the queue was activated still need a drain.
+                boolean empty;
+                synchronized (this) {
+                    fTasks.remove(task);
+                    empty = fTasks.isEmpty();
+                    if (empty) {
+                        fActive = false;
+                    }
+                }
+                if (!empty) {
+                    runInPlace();
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Runs all queued tasks in the current thread and marks the queue as
+     * inactive. This method is used when the underlying executor rejects the
+     * drain task. Errors of tasks are reported to the uncaught exception
+     * handler of the current thread (as a thread of a pool would do), so they
+     * do not interrupt the following tasks.
+     */
+    private void runInPlace() {
+        Thread thread = Thread.currentThread();
+        while (true) {
+            Runnable task;
+            synchronized (this) {
+                task = fTasks.poll();
+                if (task == null) {
+                    fActive = false;
+                    return;
+                }
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                thread.getUncaughtExceptionHandler().uncaughtException(
+                    thread,
+                    e);
+            }
+        }
+    }
+
+    /**
+     * Runs at most {@link #MAX_BATCH_SIZE} queued tasks.
+     * 
+     * @return <code>true</code> if the queue is empty and it was marked as
+     *         inactive
+     */
+    private boolean runTasks() {
+        for (int i = 0; i < MAX_BATCH_SIZE; i++) {
+            Runnable task;
+            synchronized (this) {
+                task = fTasks.poll();
+                if (task == null) {
+                    fActive = false;
+                    return true;
+                }
+            }
+            task.run();
+        }
+        return false;
+    }
+
+}
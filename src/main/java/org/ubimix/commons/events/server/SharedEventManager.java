@@ -0,0 +1,140 @@
+/**
+ * 
+ */
+package org.ubimix.commons.events.server;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.ubimix.commons.events.DispatchPlanCache;
+import org.ubimix.commons.events.EventListenerRegistry;
+import org.ubimix.commons.events.EventManager;
+import org.ubimix.commons.events.EventOverflowException;
+import org.ubimix.commons.events.EventOverflowPolicy;
+import org.ubimix.commons.events.IEventListenerRegistry;
+import org.ubimix.commons.events.IEventQueue;
+
+/**
+ * An {@link EventManager} which can be used by multiple threads firing events
+ * at the same time. Events are added to a lock-free queue (see
+ * {@link ConcurrentEventQueue}) and they are delivered to listeners by the
+ * thread which managed to acquire the "dispatching" flag; other threads just
+ * add their events to the queue and return immediately. All events are
+ * delivered in the order of arrival.
+ * <p>
+ * If the capacity of the queue is limited then producers using the
+ * {@link EventOverflowPolicy#BLOCK} policy wait until the dispatching thread
+ * removes events from the queue. The dispatching thread itself never waits
+ * (see {@link #isDispatchingThread()}): it gets an
+ * {@link EventOverflowException} instead.
+ * </p>
+ * 
+ * @author kotelnikov
+ */
+public class SharedEventManager extends EventManager {
+
+    /**
+     * The thread delivering queued events to listeners.
+     */
+    private volatile Thread fDispatcher;
+
+    private final AtomicBoolean fDispatching = new AtomicBoolean();
+
+    public SharedEventManager() {
+        this(new EventListenerRegistry());
+    }
+
+    /**
+     * @param listenerRegistry the registry of listeners
+     */
+    public SharedEventManager(IEventListenerRegistry listenerRegistry) {
+        super(listenerRegistry);
+    }
+
+    /**
+     * @param listenerRegistry the registry of listeners
+     * @param dispatchPlans the cache of dispatch plans built on top of the
+     *        given listener registry
+     */
+    public SharedEventManager(
+        IEventListenerRegistry listenerRegistry,
+        DispatchPlanCache dispatchPlans) {
+        super(listenerRegistry, dispatchPlans);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.EventManager#awaitCapacity(java.lang.Object)
+     */
+    @Override
+    protected boolean awaitCapacity(Object lock) {
+        if (isDispatchingThread()) {
+            return false;
+        }
+        try {
+            lock.wait();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @see org.ubimix.commons.events.EventManager#beginDispatch()
+     */
+    @Override
+    protected boolean beginDispatch() {
+        if (!fDispatching.compareAndSet(false, true)) {
+            return false;
+        }
+        fDispatcher = Thread.currentThread();
+        return true;
+    }
+
+    /**
+     * @see org.ubimix.commons.events.EventManager#endDispatch()
+     */
+    @Override
+    protected void endDispatch() {
+        fDispatcher = null;
+        fDispatching.set(false);
+    }
+
+    /**
+     * Returns <code>true</code> if the current thread delivers queued events
+     * to listeners. Such threads can not wait for a free place in the queue:
+     * the queue is freed only when they return. Subclasses delivering events
+     * using other threads should overload this method.
+     * 
+     * @return <code>true</code> if the current thread delivers events for
+     *         this manager
+     */
+    protected boolean isDispatchingThread() {
+        return fDispatcher == Thread.currentThread();
+    }
+
+    /**
+     * @see org.ubimix.commons.events.EventManager#isOverflowPolicySupported(org.ubimix.commons.events.EventOverflowPolicy)
+     */
+    @Override
+    protected boolean isOverflowPolicySupported(EventOverflowPolicy policy) {
+        return policy == EventOverflowPolicy.BLOCK
+            || super.isOverflowPolicySupported(policy);
+    }
+
+    /**
+     * @see org.ubimix.commons.events.EventManager#newEventQueue()
+     */
+    @Override
+    protected IEventQueue newEventQueue() {
+        return new ConcurrentEventQueue();
+    }
+
+    /**
+     * @see org.ubimix.commons.events.EventManager#signalCapacity(java.lang.Object)
+     */
+    @Override
+    protected void signalCapacity(Object lock) {
+        lock.notifyAll();
+    }
+
+}
@@ -0,0 +1,46 @@
+/**
+ * 
+ */
+package org.ubimix.commons.events.server;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks methods of subscriber objects which should be notified about events.
+ * Each annotated method should have exactly one parameter; the type of this
+ * parameter defines the type of events delivered to the method.
+ * 
+ * <pre>
+ * class Foo {
+ *     &#064;Subscribe
+ *     public void onMessage(MyEvent event) {
+ *         System.out.println(event.getMessage());
+ *     }
+ * }
+ * SubscriberRegistry subscribers = new SubscriberRegistry(manager);
+ * IEventListenerRegistration registration = subscribers.register(new Foo());
+ * </pre>
+ * 
+ * @author kotelnikov
+ * @see SubscriberRegistry
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Subscribe {
+
+    /**
+     * Returns the priority of the listener registered for the annotated method
+     * (see
+     * {@link org.ubimix.commons.events.IEventListenerRegistry#addListener(Class, org.ubimix.commons.events.IEventListener, int)}
+     * ).
+     * 
+     * @return the priority of the listener
+     */
+    int priority() default 0;
+
+}
@@ -0,0 +1,378 @@
+/**
+ * 
+ */
+package org.ubimix.commons.events.server;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ubimix.commons.events.IEventListener;
+import org.ubimix.commons.events.IEventListenerRegistration;
+import org.ubimix.commons.events.IEventListenerRegistry;
+
+/**
+ * This object registers methods of subscriber objects annotated with
+ * {@link Subscribe} as listeners in an {@link IEventListenerRegistry}. Each
+ * subscriber class is scanned only once; the list of its annotated methods is
+ * cached and re-used for all instances of the same class.
+ * <p>
+ * Annotated methods are not called using reflection. Public methods of public
+ * classes are bound to invokers generated by the {@link LambdaMetafactory}, so
+ * they are called as fast as hand-written listeners. Other methods are called
+ * using {@link MethodHandle}s. Invokers are generated using a lookup object
+ * private to the subscriber class (Java 9+), so subscribers can be defined in
+ * other class loaders (for example in other OSGi bundles). If an invoker
+ * class can not be generated for a subscriber class then its methods are
+ * called using {@link MethodHandle}s as well.
+ * </p>
+ * <p>
+ * Scanned methods are attached to subscriber classes using a
+ * {@link ClassValue}, so this registry does not prevent class loaders of
+ * subscribers from being garbage collected.
+ * </p>
+ * 
+ * @author kotelnikov
+ */
+public class SubscriberRegistry {
+
+    /**
+     * Invokers of this type call an annotated method of a subscriber.
+     */
+    public interface IHandlerInvoker {
+
+        /**
+         * Calls the handler method of the given subscriber.
+         * 
+         * @param subscriber the subscriber object
+         * @param event the event to deliver
+         * @throws Throwable the error thrown by the handler method
+         */
+        void invoke(Object subscriber, Object event) throws Throwable;
+
+    }
+
+    /**
+     * Instances of this type keep information about one annotated method of a
+     * subscriber class.
+     */
+    public static class SubscriberMethod {
+
+        private final Class<?> fEventType;
+
+        private final IHandlerInvoker fInvoker;
+
+        private final Method fMethod;
+
+        private final int fPriority;
+
+        public SubscriberMethod(
+            Method method,
+            Class<?> eventType,
+            int priority,
+            IHandlerInvoker invoker) {
+            fMethod = method;
+            fEventType = eventType;
+            fPriority = priority;
+            fInvoker = invoker;
+        }
+
+        public Class<?> getEventType() {
+            return fEventType;
+        }
+
+        public Method getMethod() {
+            return fMethod;
+        }
+
+        public int getPriority() {
+            return fPriority;
+        }
+
+        /**
+         * Delivers the given event to the specified subscriber.
+         * 
+         * @param subscriber the subscriber object
+         * @param event the event to deliver
+         */
+        public void invoke(Object subscriber, Object event) {
+            try {
+                fInvoker.invoke(subscriber, event);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new RuntimeException(t);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return fMethod.toString();
+        }
+
+    }
+
+    /**
+     * Listeners of this type deliver events to annotated methods of
+     * subscribers.
+     */
+    private static class SubscriberListener implements IEventListener<Object> {
+
+        private final SubscriberMethod fMethod;
+
+        private final Object fSubscriber;
+
+        public SubscriberListener(Object subscriber, SubscriberMethod method) {
+            fSubscriber = subscriber;
+            fMethod = method;
+        }
+
+        public void handleEvent(Object event) {
+            fMethod.invoke(fSubscriber, event);
+        }
+
+        @Override
+        public String toString() {
+            return fMethod + " [" + fSubscriber + "]";
+        }
+
+    }
+
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(
+        void.class,
+        Object.class,
+        Object.class);
+
+    /**
+     * The <code>MethodHandles.privateLookupIn(Class, Lookup)</code> method
+     * available since Java 9 or <code>null</code> if it is not available.
+     */
+    private static final Method PRIVATE_LOOKUP_IN = getPrivateLookupIn();
+
+    /**
+     * Returns a lookup object used to access members of the given class. If
+     * possible, this method returns a lookup with private access to the class,
+     * so invokers generated by the {@link LambdaMetafactory} are defined in the
+     * class loader of the subscriber.
+     * 
+     * @param type the class of subscribers
+     * @return a lookup object used to access members of the given class
+     */
+    private static MethodHandles.Lookup getLookup(Class<?> type) {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        if (PRIVATE_LOOKUP_IN != null) {
+            try {
+                return (MethodHandles.Lookup) PRIVATE_LOOKUP_IN.invoke(
+                    null,
+                    type,
+                    lookup);
+            } catch (Exception e) {
+                // The package of the class is not open to this module
+            }
+        }
+        return lookup;
+    }
+
+    private static Method getPrivateLookupIn() {
+        try {
+            return MethodHandles.class.getMethod(
+                "privateLookupIn",
+                Class.class,
+                MethodHandles.Lookup.class);
+        } catch (NoSuchMethodException e) {
+            // Java 8
+            return null;
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the given class and all its enclosing
+     * classes are public.
+     * 
+     * @param type the class to check
+     * @return <code>true</code> if the given class is accessible from any
+     *         package
+     */
+    private static boolean isPublic(Class<?> type) {
+        while (type != null) {
+            if (!Modifier.isPublic(type.getModifiers())) {
+                return false;
+            }
+            type = type.getDeclaringClass();
+        }
+        return true;
+    }
+
+    /**
+     * Annotated methods attached to subscriber classes.
+     */
+    private final ClassValue<SubscriberMethod[]> fMethods = new ClassValue<SubscriberMethod[]>() {
+        @Override
+        protected SubscriberMethod[] computeValue(Class<?> type) {
+            return newSubscriberMethods(type);
+        }
+    };
+
+    private final IEventListenerRegistry fRegistry;
+
+    /**
+     * @param registry the registry used to add listeners for subscribers
+     */
+    public SubscriberRegistry(IEventListenerRegistry registry) {
+        fRegistry = registry;
+    }
+
+    /**
+     * Returns the registry used to add listeners for subscribers.
+     * 
+     * @return the registry used to add listeners for subscribers
+     */
+    public IEventListenerRegistry getRegistry() {
+        return fRegistry;
+    }
+
+    /**
+     * Returns all methods of the specified class (and of its superclasses)
+     * annotated with {@link Subscribe}. The class is scanned only the first
+     * time when this method is called; the result is cached.
+     * 
+     * @param type the class of subscribers
+     * @return an array of annotated methods; the returned array should not be
+     *         modified
+     */
+    public SubscriberMethod[] getSubscriberMethods(Class<?> type) {
+        return fMethods.get(type);
+    }
+
+    /**
+     * Creates and returns a new invoker for the given method.
+     * 
+     * @param method the method to call
+     * @param eventType the type of events handled by this method
+     * @return a new invoker for the given method
+     */
+    protected IHandlerInvoker newInvoker(Method method, Class<?> eventType) {
+        Class<?> type = method.getDeclaringClass();
+        MethodHandles.Lookup lookup = getLookup(type);
+        if (Modifier.isPublic(method.getModifiers()) && isPublic(type)) {
+            try {
+                MethodHandle handle = lookup.unreflect(method);
+                CallSite site = LambdaMetafactory.metafactory(
+                    lookup,
+                    "invoke",
+                    MethodType.methodType(IHandlerInvoker.class),
+                    INVOKER_TYPE,
+                    handle,
+                    MethodType.methodType(void.class, type, eventType));
+                return (IHandlerInvoker) site.getTarget().invoke();
+            } catch (Throwable t) {
+                // The invoker class can not be defined for this class (for
+                // example its class loader does not see the invoker
+                // interface), so the method is called using a method handle
+            }
+        }
+        try {
+            method.setAccessible(true);
+            final MethodHandle handle = lookup
+                .unreflect(method)
+                .asType(INVOKER_TYPE);
+            return new IHandlerInvoker() {
+                public void invoke(Object subscriber, Object event)
+                    throws Throwable {
+                    handle.invokeExact(subscriber, event);
+                }
+            };
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalArgumentException("Can not bind the method "
+                + method
+                + ".", t);
+        }
+    }
+
+    /**
+     * Scans the given class and returns all methods annotated with
+     * {@link Subscribe}. Methods overridden in subclasses are reported only
+     * once.
+     * 
+     * @param type the class to scan
+     * @return an array of annotated methods
+     */
+    protected SubscriberMethod[] newSubscriberMethods(Class<?> type) {
+        List<SubscriberMethod> result = new ArrayList<SubscriberMethod>();
+        Set<String> signatures = new HashSet<String>();
+        for (Class<?> t = type; t != null && t != Object.class; t = t
+            .getSuperclass()) {
+            for (Method method : t.getDeclaredMethods()) {
+                Subscribe annotation = method.getAnnotation(Subscribe.class);
+                if (annotation == null || method.isBridge()) {
+                    continue;
+                }
+                Class<?>[] params = method.getParameterTypes();
+                if (params.length != 1
+                    || params[0].isPrimitive()
+                    || Modifier.isStatic(method.getModifiers())) {
+                    throw new IllegalArgumentException("The method "
+                        + method
+                        + " should be a non-static method with one "
+                        + "non-primitive parameter.");
+                }
+                String signature = method.getName() + params[0].getName();
+                if (!signatures.add(signature)) {
+                    continue;
+                }
+                IHandlerInvoker invoker = newInvoker(method, params[0]);
+                result.add(new SubscriberMethod(
+                    method,
+                    params[0],
+                    annotation.priority(),
+                    invoker));
+            }
+        }
+        return result.toArray(new SubscriberMethod[result.size()]);
+    }
+
+    /**
+     * Registers all methods of the given subscriber annotated with
+     * {@link Subscribe} as listeners of the corresponding event types.
+     * 
+     * @param subscriber the object to register
+     * @return a registration object used to remove all listeners registered
+     *         for the given subscriber
+     */
+    @SuppressWarnings("unchecked")
+    public IEventListenerRegistration register(Object subscriber) {
+        SubscriberMethod[] methods = getSubscriberMethods(subscriber
+            .getClass());
+        final IEventListenerRegistration[] registrations = new IEventListenerRegistration[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            SubscriberMethod method = methods[i];
+            Class<Object> eventType = (Class<Object>) method.getEventType();
+            registrations[i] = fRegistry.addListener(
+                eventType,
+                new SubscriberListener(subscriber, method),
+                method.getPriority());
+        }
+        return new IEventListenerRegistration() {
+            public boolean unregister() {
+                boolean result = false;
+                for (IEventListenerRegistration registration : registrations) {
+                    result |= registration.unregister();
+                }
+                return result;
+            }
+        };
+    }
+
+}
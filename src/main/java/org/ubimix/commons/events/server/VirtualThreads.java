@@ -0,0 +1,73 @@
+/**
+ *
+ */
+package org.ubimix.commons.events.server;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This class creates executors starting a new virtual thread for each task.
+ * Virtual threads are available only in recent JVMs, so they are detected
+ * using reflection; on older JVMs this class falls back to a cached pool of
+ * platform threads (see {@link #isSupported()} and
+ * {@link AsyncEventManager#isVirtual()}). Executors returned by this class are used to handle
+ * events with listeners blocked on I/O: each event gets its own cheap thread
+ * (see {@link AsyncEventManager#AsyncEventManager(java.util.concurrent.Executor, org.ubimix.commons.events.IEventListenerRegistry)}
+ * ).
+ * 
+ * @author kotelnikov
+ */
+public final class VirtualThreads {
+
+    /**
+     * The <code>Executors.newVirtualThreadPerTaskExecutor()</code> method or
+     * <code>null</code> if virtual threads are not available.
+     */
+    private static final Method FACTORY = getFactory();
+
+    private static Method getFactory() {
+        try {
+            Method method = Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor");
+            // Virtual threads could be a disabled preview feature
+            ExecutorService executor = (ExecutorService) method.invoke(null);
+            executor.shutdown();
+            return method;
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the current JVM supports virtual threads.
+     * 
+     * @return <code>true</code> if virtual threads are available
+     */
+    public static boolean isSupported() {
+        return FACTORY != null;
+    }
+
+    /**
+     * Returns a new executor starting a virtual thread for each task. If
+     * virtual threads are not available then this method returns a cached
+     * pool of platform threads.
+     * 
+     * @return a new executor
+     */
+    public static ExecutorService newExecutor() {
+        if (FACTORY != null) {
+            try {
+                return (ExecutorService) FACTORY.invoke(null);
+            } catch (Exception e) {
+                // Use platform threads
+            }
+        }
+        return Executors.newCachedThreadPool();
+    }
+
+    private VirtualThreads() {
+    }
+
+}
@@ -0,0 +1,44 @@
+/**
+ *
+ */
+package org.ubimix.commons.events.server;
+
+/**
+ * Strategies used by consumer threads of the {@link RingBufferAsyncEventManager}
+ * to wait for new events. Strategies are listed from the lowest latency (and
+ * the highest CPU usage) to the highest latency (and the lowest CPU usage).
+ * 
+ * @author kotelnikov
+ */
+public enum WaitStrategy {
+
+    /**
+     * Consumers check the ring in a tight loop. This strategy gives the lowest
+     * hand-off latency but each consumer thread occupies a CPU core all the
+     * time. It should be used only when the number of consumers is less than
+     * the number of available cores.
+     */
+    BUSY_SPIN,
+
+    /**
+     * Consumers spin for a short time and then call the
+     * {@link Thread#yield()} method between checks, giving the core to other
+     * threads which are ready to run.
+     */
+    YIELD,
+
+    /**
+     * Consumers spin, then yield and then park for short periods of time.
+     * Idle consumers use almost no CPU, but the latency depends on the timer
+     * resolution of the operating system.
+     */
+    PARK,
+
+    /**
+     * Idle consumers wait on a condition signaled by producers. Producers
+     * take a lock only when some consumers are waiting. This strategy is
+     * recommended when latency is less important than CPU usage.
+     */
+    BLOCKING
+
+}
@@ -0,0 +1,30 @@
+package org.ubimix.commons.events;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import org.ubimix.commons.events.server.AsyncEventManagerTest;
+import org.ubimix.commons.events.server.ConcurrentEventListenerRegistryTest;
+import org.ubimix.commons.events.server.RingBufferAsyncEventManagerTest;
+
+/**
+ * Benchmarks printing their results to the standard output. They are not
+ * part of the {@link AllTests} suite: their method names do not start with
+ * "test", so they are called only by this suite.
+ *
+ * @author kotelnikov
+ */
+public class AllBenchmarks {
+
+    public static Test suite() {
+        TestSuite suite = new TestSuite(
+            "Benchmarks for org.ubimix.commons.events");
+        suite.addTest(new ListenerListTest("benchmarkFootprint"));
+        suite.addTest(new SlottedEventListenerRegistryTest("benchmarkChurn"));
+        suite.addTest(new AsyncEventManagerTest("benchmarkBlockedListeners"));
+        suite.addTest(new ConcurrentEventListenerRegistryTest(
+            "benchmarkContention"));
+        suite.addTest(new RingBufferAsyncEventManagerTest("benchmarkLatency"));
+        return suite;
+    }
+}
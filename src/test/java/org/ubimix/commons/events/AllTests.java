@@ -5,6 +5,14 @@ import junit.framework.TestSuite;
 
 import org.ubimix.commons.events.calls.CallEventTest;
 import org.ubimix.commons.events.server.AsyncEventManagerTest;
+import org.ubimix.commons.events.server.AsyncListenerInterceptorTest;
+import org.ubimix.commons.events.server.ConcurrentEventListenerRegistryTest;
+import org.ubimix.commons.events.server.ConcurrentEventManagerTest;
+import org.ubimix.commons.events.server.ParallelEventManagerTest;
+import org.ubimix.commons.events.server.RingBufferAsyncEventManagerTest;
+import org.ubimix.commons.events.server.SerialExecutorTest;
+import org.ubimix.commons.events.server.SharedEventManagerTest;
+import org.ubimix.commons.events.server.SubscriberRegistryTest;
 
 public class AllTests {
 
@@ -15,8 +23,19 @@ public class AllTests {
         suite.addTestSuite(EventListenerInterceptorTest.class);
         suite.addTestSuite(EventManagerTest.class);
         suite.addTestSuite(EventObservationTest.class);
+        suite.addTestSuite(ListenerListTest.class);
+        suite.addTestSuite(RingBufferEventManagerTest.class);
+        suite.addTestSuite(SlottedEventListenerRegistryTest.class);
         suite.addTestSuite(CallEventTest.class);
         suite.addTestSuite(AsyncEventManagerTest.class);
+        suite.addTestSuite(AsyncListenerInterceptorTest.class);
+        suite.addTestSuite(ConcurrentEventListenerRegistryTest.class);
+        suite.addTestSuite(ConcurrentEventManagerTest.class);
+        suite.addTestSuite(ParallelEventManagerTest.class);
+        suite.addTestSuite(RingBufferAsyncEventManagerTest.class);
+        suite.addTestSuite(SerialExecutorTest.class);
+        suite.addTestSuite(SharedEventManagerTest.class);
+        suite.addTestSuite(SubscriberRegistryTest.class);
         // $JUnit-END$
         return suite;
     }
@@ -3,7 +3,11 @@
  */
 package org.ubimix.commons.events;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import junit.framework.TestCase;
@@ -161,4 +165,49 @@ public class EventListenerInterceptorTest extends TestCase {
         assertEquals(0, listOfCommands.size());
     }
 
+    /**
+     * Interceptors are initialized without the registry lock, and changes
+     * made during the initialization are reported after it.
+     */
+    public void testInit() throws Exception {
+        final EventListenerRegistry registry = new EventListenerRegistry();
+        final IEventListener<String> a = new IEventListener<String>() {
+            public void handleEvent(String event) {
+            }
+        };
+        final IEventListener<String> b = new IEventListener<String>() {
+            public void handleEvent(String event) {
+            }
+        };
+        registry.addListener(String.class, a);
+        final List<Object> log = new ArrayList<Object>();
+        registry.addListenerInterceptor(new EventListenerInterceptor() {
+            @Override
+            public void init(Map<Class<?>, List<IEventListener<?>>> listeners) {
+                assertFalse(Thread.holdsLock(registry));
+                Thread thread = new Thread() {
+                    @Override
+                    public void run() {
+                        registry.addListener(String.class, b);
+                    }
+                };
+                thread.start();
+                try {
+                    thread.join(5000);
+                } catch (InterruptedException e) {
+                }
+                assertFalse(thread.isAlive());
+                log.add(listeners.get(String.class));
+            }
+
+            @Override
+            public void onAddListener(
+                Class<?> eventType,
+                IEventListener<?> listener) {
+                log.add(listener);
+            }
+        });
+        assertEquals(Arrays.<Object> asList(Arrays.asList(a), b), log);
+    }
+
 }
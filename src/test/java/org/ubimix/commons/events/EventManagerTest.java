@@ -3,7 +3,10 @@
  */
 package org.ubimix.commons.events;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.CyclicBarrier;
@@ -156,6 +159,86 @@ public class EventManagerTest extends TestCase {
         assertEquals(count, callbackListenerCounter[0]);
     }
 
+    public void testBatchEvents() throws Exception {
+        IEventManager manager = newEventManager();
+        final List<String> batches = new ArrayList<String>();
+        final List<String> events = new ArrayList<String>();
+        manager.addListener(TestEventA.class, new IBatchEventListener<TestEventA>() {
+            public void handleEvent(TestEventA event) {
+                batches.add(event.getClass().getSimpleName());
+            }
+
+            public void handleEvents(List<TestEventA> list) {
+                batches.add(list.get(0).getClass().getSimpleName()
+                    + "x"
+                    + list.size());
+            }
+        });
+        manager.addListener(TestEventB.class, new IEventListener<TestEventB>() {
+            public void handleEvent(TestEventB event) {
+                events.add(event.getClass().getSimpleName());
+            }
+        });
+        manager.fireEvents(new TestEventA[] {
+            new TestEventB(),
+            new TestEventB(),
+            new TestEventC(),
+            new TestEventB() });
+        assertEquals(
+            Arrays.asList("TestEventBx2", "TestEventCx1", "TestEventBx1"),
+            batches);
+        assertEquals(
+            Arrays.asList("TestEventB", "TestEventB", "TestEventB"),
+            events);
+
+        batches.clear();
+        manager.fireEvent(new TestEventC());
+        manager.fireEvents(new ArrayList<TestEventA>());
+        assertEquals(Arrays.asList("TestEventC"), batches);
+    }
+
+    public void testBulkRegistration() {
+        IEventManager manager = newEventManager();
+        final List<String> result = new ArrayList<String>();
+        class Listener implements IEventListener<String> {
+            private final String fName;
+
+            Listener(String name) {
+                fName = name;
+            }
+
+            public void handleEvent(String event) {
+                result.add(fName);
+            }
+        }
+        List<IEventListener<String>> listeners = new ArrayList<IEventListener<String>>();
+        for (int i = 0; i < 1000; i++) {
+            listeners.add(new Listener("" + i));
+        }
+        manager.addListener(String.class, new Listener("first"), 1);
+        manager.addListener(String.class, new Listener("last"), -1);
+        List<IEventListenerRegistration> registrations = manager.addListeners(
+            String.class,
+            listeners);
+        assertEquals(1000, registrations.size());
+        assertEquals(1002, manager.getListeners(String.class).size());
+        manager.fireEvent("");
+        assertEquals(1002, result.size());
+        assertEquals("first", result.get(0));
+        assertEquals("0", result.get(1));
+        assertEquals("999", result.get(1000));
+        assertEquals("last", result.get(1001));
+
+        // Registrations are individually revocable
+        assertTrue(registrations.get(10).unregister());
+        assertFalse(registrations.get(10).unregister());
+        assertEquals(999, manager.removeListeners(String.class, listeners));
+        assertEquals(0, manager.removeListeners(String.class, listeners));
+        result.clear();
+        manager.fireEvent("");
+        assertEquals(Arrays.asList("first", "last"), result);
+    }
+
     public void testCallbacks() throws Exception {
         final IEventManager eventManager = newEventManager();
         class A {
@@ -230,6 +313,214 @@ public class EventManagerTest extends TestCase {
         assertEquals(2, cCounter[0]);
     }
 
+    public void testConflation() {
+        class Position implements IConflatableEvent {
+            final String id;
+
+            final int value;
+
+            Position(String id, int value) {
+                this.id = id;
+                this.value = value;
+            }
+
+            public Object getConflationKey() {
+                return id;
+            }
+        }
+        final EventManager manager = new EventManager();
+        manager.setConflating(true);
+        final List<String> result = new ArrayList<String>();
+        manager.addListener(Position.class, new IEventListener<Position>() {
+            public void handleEvent(Position event) {
+                result.add(event.id + event.value);
+            }
+        });
+        manager.addListener(String.class, new IEventListener<String>() {
+            public void handleEvent(String event) {
+                // All these events are queued while this one is dispatched.
+                manager.fireEvent(new Position("a", 1));
+                manager.fireEvent(new Position("b", 1));
+                manager.fireEvent(new Position("a", 2));
+                manager.fireEvent(new Position("a", 3), null);
+                manager.fireEvent(
+                    new Position("b", 2),
+                    new IEventListener<Position>() {
+                        public void handleEvent(Position event) {
+                            result.add("callback");
+                        }
+                    });
+                manager.fireEvent(new Position("b", 3));
+            }
+        });
+        manager.fireEvent("");
+        assertEquals(Arrays.asList("a3", "b3", "b2", "callback"), result);
+
+        // Already dispatched events are not replaced
+        result.clear();
+        manager.fireEvent(new Position("a", 4));
+        manager.fireEvent(new Position("a", 5));
+        assertEquals(Arrays.asList("a4", "a5"), result);
+    }
+
+    public void testConflationLifecycle() {
+        class Progress extends EventWithLifecycle implements IConflatableEvent {
+            public Object getConflationKey() {
+                return "progress";
+            }
+        }
+        final EventManager manager = new EventManager();
+        manager.setConflating(true);
+        final List<Progress> handled = new ArrayList<Progress>();
+        manager.addListener(Progress.class, new IEventListener<Progress>() {
+            public void handleEvent(Progress event) {
+                handled.add(event);
+            }
+        });
+        final Progress first = new Progress();
+        final Progress second = new Progress();
+        manager.addListener(String.class, new IEventListener<String>() {
+            public void handleEvent(String event) {
+                manager.fireEvent(first);
+                manager.fireEvent(second);
+            }
+        });
+        manager.fireEvent("");
+        assertEquals(Arrays.asList(second), handled);
+        // The replaced event is finished with an error
+        assertTrue(first.hasErrors());
+        Throwable error = first.getErrors().iterator().next();
+        assertTrue(error instanceof EventOverflowException);
+        assertFalse(second.hasErrors());
+    }
+
+    public void testDispatchPlans() {
+        IEventListenerRegistry registry = new EventListenerRegistry();
+        DispatchPlanCache plans = new DispatchPlanCache(registry);
+        IEventManager first = new EventManager(registry, plans);
+        IEventManager second = new EventManager(registry, plans);
+        final int[] aCounter = { 0 };
+        final int[] bCounter = { 0 };
+        first.addListener(TestEventA.class, new IEventListener<TestEventA>() {
+            public void handleEvent(TestEventA event) {
+                aCounter[0]++;
+            }
+        });
+        first.fireEvent(new TestEventB());
+        assertEquals(1, aCounter[0]);
+        IEventListener<?>[] plan = plans.getListeners(TestEventB.class);
+        assertEquals(1, plan.length);
+        assertSame(plan, plans.getListeners(TestEventB.class));
+
+        // New listeners reset the plans
+        IEventListenerRegistration r = second.addListener(
+            TestEventB.class,
+            new IEventListener<TestEventB>() {
+                public void handleEvent(TestEventB event) {
+                    bCounter[0]++;
+                }
+            });
+        assertEquals(2, plans.getListeners(TestEventB.class).length);
+        first.fireEvent(new TestEventB());
+        assertEquals(2, aCounter[0]);
+        assertEquals(1, bCounter[0]);
+
+        r.unregister();
+        second.fireEvent(new TestEventB());
+        assertEquals(3, aCounter[0]);
+        assertEquals(1, bCounter[0]);
+        assertEquals(0, plans.getListeners(String.class).length);
+
+        // Plans of many classes are kept while the registry is not changed
+        Class<?>[] types = {
+            TestEventA.class,
+            TestEventB.class,
+            String.class,
+            Integer.class,
+            Long.class,
+            Object.class };
+        IEventListener<?>[][] computed = new IEventListener<?>[types.length][];
+        for (int i = 0; i < types.length; i++) {
+            computed[i] = plans.getListeners(types[i]);
+        }
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < types.length; i++) {
+                assertSame(computed[i], plans.getListeners(types[i]));
+            }
+        }
+    }
+
+    public void testEventQueue() {
+        EventQueue queue = new EventQueue(2);
+        int counter = 0;
+        int next = 0;
+        for (int step = 1; step < 10; step++) {
+            for (int i = 0; i < step * 3; i++) {
+                queue.offer(new EventManager.EventNode(counter++, null));
+            }
+            for (int i = 0; i < step * 2; i++) {
+                assertEquals(next++, queue.poll().getEvent());
+            }
+        }
+        assertEquals(counter - next, queue.size());
+        while (!queue.isEmpty()) {
+            assertEquals(next++, queue.poll().getEvent());
+        }
+        assertEquals(counter, next);
+        assertNull(queue.poll());
+    }
+
+    /**
+     * The event queue is created on first use, so it could depend on fields of
+     * subclasses.
+     */
+    public void testEventQueueFactory() {
+        class QueueManager extends EventManager {
+            private final IEventQueue fQueue;
+
+            QueueManager(IEventQueue queue) {
+                fQueue = queue;
+            }
+
+            @Override
+            protected IEventQueue newEventQueue() {
+                return fQueue;
+            }
+        }
+        final int[] offered = { 0 };
+        IEventQueue lane = new EventQueue() {
+            @Override
+            public boolean offer(EventManager.EventNode node) {
+                offered[0]++;
+                return super.offer(node);
+            }
+        };
+        EventPriority[] priorities = EventPriority.values();
+        IEventQueue[] lanes = new IEventQueue[priorities.length];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = i == EventPriority.NORMAL.ordinal()
+                ? lane
+                : new EventQueue();
+        }
+        IEventManager manager = new QueueManager(new PriorityEventQueue(lanes));
+        final List<String> result = new ArrayList<String>();
+        manager.addListener(String.class, new IEventListener<String>() {
+            public void handleEvent(String event) {
+                result.add(event);
+            }
+        });
+        manager.fireEvent("a");
+        manager.fireEvent("b");
+        assertEquals(Arrays.asList("a", "b"), result);
+        assertEquals(2, offered[0]);
+
+        try {
+            new PriorityEventQueue(new EventQueue());
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
     public void testEventSuperclassListeners() {
         IEventManager manager = newEventManager();
         final int[] counter = { 0 };
@@ -251,6 +542,435 @@ public class EventManagerTest extends TestCase {
      * This test is used to check that events fired from listeners do not leads
      * to the deep recursion.
      */
+    public void testKeyedListeners() {
+        class EntityEvent implements IEventWithKey {
+            final String id;
+
+            EntityEvent(String id) {
+                this.id = id;
+            }
+
+            public Object getEventKey() {
+                return id;
+            }
+        }
+        IEventManager manager = newEventManager();
+        final List<String> result = new ArrayList<String>();
+        class Listener implements IEventListener<EntityEvent> {
+            private final String fName;
+
+            Listener(String name) {
+                fName = name;
+            }
+
+            public void handleEvent(EntityEvent event) {
+                result.add(fName + ":" + event.id);
+            }
+        }
+        IEventListenerRegistration a = manager.addListener(
+            EntityEvent.class,
+            "a",
+            new Listener("a"));
+        assertTrue(manager.hasListeners(EntityEvent.class));
+        assertTrue(manager.hasKeyedListeners(EntityEvent.class));
+        manager.addListener(EntityEvent.class, "b", new Listener("b"));
+        manager.addListener(Object.class, "b", new IEventListener<Object>() {
+            public void handleEvent(Object event) {
+                result.add("object:" + ((EntityEvent) event).id);
+            }
+        });
+        manager.addListener(EntityEvent.class, new Listener("all"));
+
+        manager.fireEvent(new EntityEvent("a"));
+        manager.fireEvent(new EntityEvent("b"));
+        manager.fireEvent(new EntityEvent("c"));
+        assertEquals(Arrays.asList(
+            "all:a",
+            "a:a",
+            "all:b",
+            "b:b",
+            "object:b",
+            "all:c"), result);
+
+        // Keyed listeners are notified about events fired together
+        result.clear();
+        manager.fireEvents(getArray(
+            new EntityEvent("a"),
+            new EntityEvent("c")));
+        assertEquals(Arrays.asList("all:a", "all:c", "a:a"), result);
+
+        result.clear();
+        assertTrue(a.unregister());
+        assertFalse(a.unregister());
+        assertNull(manager.getListeners(EntityEvent.class, "a"));
+        assertEquals(1, manager.getListeners(EntityEvent.class, "b").size());
+        manager.fireEvent(new EntityEvent("a"));
+        assertEquals(Arrays.asList("all:a"), result);
+    }
+
+    public void testListenerPriorities() {
+        IEventManager manager = newEventManager();
+        final List<String> result = new ArrayList<String>();
+        class NamedListener implements IEventListener<TestEventA> {
+            private final String fName;
+
+            NamedListener(String name) {
+                fName = name;
+            }
+
+            public void handleEvent(TestEventA event) {
+                result.add(fName);
+            }
+        }
+        manager.addListener(TestEventB.class, new NamedListener("b0"));
+        manager.addListener(TestEventA.class, new NamedListener("a10"), 10);
+        manager.addListener(TestEventB.class, new NamedListener("b-5"), -5);
+        manager.addListener(TestEventB.class, new NamedListener("b5"), 5);
+        IEventListenerRegistration r = manager.addListener(
+            TestEventB.class,
+            new NamedListener("b5-2"),
+            5);
+        manager.addListener(TestEventB.class, new NamedListener("b0-2"));
+        manager.fireEvent(new TestEventB());
+        // Listeners of the event class are called before listeners of its
+        // superclasses
+        assertEquals(
+            Arrays.asList("b5", "b5-2", "b0", "b0-2", "b-5", "a10"),
+            result);
+
+        result.clear();
+        r.unregister();
+        manager.fireEvent(new TestEventB());
+        assertEquals(Arrays.asList("b5", "b0", "b0-2", "b-5", "a10"), result);
+    }
+
+    public void testListenerTransaction() {
+        IEventManager manager = newEventManager();
+        final List<String> result = new ArrayList<String>();
+        class Listener implements IEventListener<Object> {
+            private final String fName;
+
+            Listener(String name) {
+                fName = name;
+            }
+
+            public void handleEvent(Object event) {
+                result.add(fName + ":" + event);
+            }
+        }
+        EventListenerTransaction transaction = new EventListenerTransaction(
+            manager);
+        transaction.addListener(String.class, new Listener("a"));
+        IEventListenerRegistration b = transaction.addListener(
+            String.class,
+            new Listener("b"),
+            1);
+        IEventListenerRegistration c = transaction.addListener(
+            String.class,
+            new Listener("c"));
+        transaction.addListener(Integer.class, new Listener("d"));
+        assertTrue(c.unregister());
+        assertFalse(manager.hasListeners(String.class));
+        transaction.commit();
+        assertTrue(transaction.isCommitted());
+        manager.fireEvent("x");
+        manager.fireEvent(1);
+        assertEquals(Arrays.asList("b:x", "a:x", "d:1"), result);
+
+        result.clear();
+        assertTrue(b.unregister());
+        manager.fireEvent("y");
+        assertEquals(Arrays.asList("a:y"), result);
+        try {
+            transaction.commit();
+            fail();
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    public void testNoListeners() {
+        IEventManager manager = newEventManager();
+        final int[] counters = { 0, 0 };
+        IEventProvider<TestEventB> provider = new IEventProvider<TestEventB>() {
+            public TestEventB getEvent() {
+                counters[0]++;
+                return new TestEventB();
+            }
+        };
+        assertFalse(manager.hasListeners(TestEventB.class));
+        manager.fireEvent(TestEventB.class, provider);
+        assertEquals(0, counters[0]);
+
+        // Listeners of superclasses are taken into account
+        IEventListenerRegistration r = manager.addListener(
+            TestEventA.class,
+            new IEventListener<TestEventA>() {
+                public void handleEvent(TestEventA event) {
+                    counters[1]++;
+                }
+            });
+        assertTrue(manager.hasListeners(TestEventB.class));
+        assertFalse(manager.hasListeners(String.class));
+        manager.fireEvent(TestEventB.class, provider);
+        assertEquals(1, counters[0]);
+        assertEquals(1, counters[1]);
+
+        r.unregister();
+        assertFalse(manager.hasListeners(TestEventB.class));
+        manager.fireEvent(new TestEventB());
+        assertEquals(1, counters[1]);
+
+        // Callbacks and lifecycle methods are called even without listeners
+        final List<String> result = new ArrayList<String>();
+        manager.fireEvent(new TestEventB(), new IEventListener<TestEventB>() {
+            public void handleEvent(TestEventB event) {
+                result.add("callback");
+            }
+        });
+        manager.fireEvent(new EventWithLifecycle() {
+            @Override
+            public void onHandleEnd() {
+                result.add("end");
+            }
+        });
+        assertEquals(Arrays.asList("callback", "end"), result);
+    }
+
+    public void testPriorities() {
+        class Message implements IEventWithPriority {
+            final EventPriority priority;
+
+            final String text;
+
+            Message(String text, EventPriority priority) {
+                this.text = text;
+                this.priority = priority;
+            }
+
+            public EventPriority getEventPriority() {
+                return priority;
+            }
+        }
+        final IEventManager manager = new EventManager() {
+            @Override
+            protected IEventQueue newEventQueue() {
+                return new PriorityEventQueue();
+            }
+        };
+        final List<String> result = new ArrayList<String>();
+        manager.addListener(Message.class, new IEventListener<Message>() {
+            public void handleEvent(Message event) {
+                result.add(event.text);
+            }
+        });
+        manager.addListener(String.class, new IEventListener<String>() {
+            public void handleEvent(String event) {
+                manager.fireEvent(new Message("low1", EventPriority.LOW));
+                manager.fireEvent(new Message("normal1", null));
+                manager.fireEvent(new Message("low2", EventPriority.LOW));
+                manager.fireEvent(new Message("high", EventPriority.HIGH));
+                manager.fireEvent(new Message("normal2", EventPriority.NORMAL));
+            }
+        });
+        manager.fireEvent("");
+        assertEquals(
+            Arrays.asList("high", "normal1", "normal2", "low1", "low2"),
+            result);
+    }
+
+    public void testPriorityOverflow() {
+        class Message implements IEventWithPriority {
+            final EventPriority priority;
+
+            final String text;
+
+            Message(String text, EventPriority priority) {
+                this.text = text;
+                this.priority = priority;
+            }
+
+            public EventPriority getEventPriority() {
+                return priority;
+            }
+        }
+        final EventManager manager = new EventManager() {
+            @Override
+            protected IEventQueue newEventQueue() {
+                return new PriorityEventQueue();
+            }
+        };
+        manager.setCapacity(3);
+        manager.setOverflowPolicy(EventOverflowPolicy.DROP_OLDEST);
+        final List<String> result = new ArrayList<String>();
+        manager.addListener(Message.class, new IEventListener<Message>() {
+            public void handleEvent(Message event) {
+                result.add(event.text);
+            }
+        });
+        manager.addListener(String.class, new IEventListener<String>() {
+            public void handleEvent(String event) {
+                manager.fireEvent(new Message("low1", EventPriority.LOW));
+                manager.fireEvent(new Message("high", EventPriority.HIGH));
+                manager.fireEvent(new Message("low2", EventPriority.LOW));
+                manager.fireEvent(new Message("normal1", null));
+                manager.fireEvent(new Message("normal2", null));
+            }
+        });
+        manager.fireEvent("");
+        // Low-priority events are dropped first
+        assertEquals(Arrays.asList("high", "normal1", "normal2"), result);
+        assertEquals(
+            2,
+            manager.getOverflowCount(EventOverflowPolicy.DROP_OLDEST));
+    }
+
+    public void testQueueOverflow() {
+        final EventManager manager = new EventManager();
+        manager.setCapacity(2);
+        final List<Object> result = new ArrayList<Object>();
+        manager.addListener(Integer.class, new IEventListener<Integer>() {
+            public void handleEvent(Integer event) {
+                result.add(event);
+            }
+        });
+        manager.addListener(String.class, new IEventListener<String>() {
+            public void handleEvent(String event) {
+                result.add(event);
+                try {
+                    for (int i = 1; i <= 3; i++) {
+                        manager.fireEvent(i);
+                    }
+                } catch (EventOverflowException e) {
+                    result.add("overflow");
+                }
+            }
+        });
+
+        assertEquals(EventOverflowPolicy.FAIL, manager.getOverflowPolicy());
+        manager.fireEvent("fail");
+        assertEquals(Arrays.<Object> asList("fail", "overflow", 1, 2), result);
+        assertEquals(1, manager.getOverflowCount(EventOverflowPolicy.FAIL));
+
+        result.clear();
+        manager.setOverflowPolicy(EventOverflowPolicy.DROP_NEWEST);
+        manager.fireEvent("drop newest");
+        assertEquals(Arrays.<Object> asList("drop newest", 1, 2), result);
+
+        result.clear();
+        manager.setOverflowPolicy(EventOverflowPolicy.DROP_OLDEST);
+        manager.fireEvent("drop oldest");
+        assertEquals(Arrays.<Object> asList("drop oldest", 2, 3), result);
+
+        result.clear();
+        manager.setOverflowPolicy(EventOverflowPolicy.CALLER_RUNS);
+        manager.fireEvent("caller runs");
+        assertEquals(
+            Arrays.<Object> asList("caller runs", 3, 1, 2),
+            result);
+
+        // This manager can not block the thread
+        try {
+            manager.setOverflowPolicy(EventOverflowPolicy.BLOCK);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        // This manager has no spill queue
+        try {
+            manager.setOverflowPolicy(EventOverflowPolicy.SPILL);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        assertEquals(
+            EventOverflowPolicy.CALLER_RUNS,
+            manager.getOverflowPolicy());
+
+        assertEquals(1, manager.getOverflowCount(EventOverflowPolicy.FAIL));
+        assertEquals(
+            1,
+            manager.getOverflowCount(EventOverflowPolicy.DROP_NEWEST));
+        assertEquals(
+            1,
+            manager.getOverflowCount(EventOverflowPolicy.DROP_OLDEST));
+        assertEquals(
+            1,
+            manager.getOverflowCount(EventOverflowPolicy.CALLER_RUNS));
+        assertEquals(0, manager.getOverflowCount(EventOverflowPolicy.BLOCK));
+
+        // Dropped events are notified about the error
+        final EventWithLifecycle dropped = new EventWithLifecycle();
+        manager.setCapacity(1);
+        manager.setOverflowPolicy(EventOverflowPolicy.DROP_NEWEST);
+        manager.addListener(Boolean.class, new IEventListener<Boolean>() {
+            public void handleEvent(Boolean event) {
+                manager.fireEvent(new EventWithLifecycle());
+                manager.fireEvent(dropped);
+            }
+        });
+        manager.fireEvent(Boolean.TRUE);
+        assertTrue(dropped.hasErrors());
+        Throwable error = dropped.getErrors().iterator().next();
+        assertTrue(error instanceof EventOverflowException);
+        try {
+            dropped.getErrors().clear();
+            fail();
+        } catch (UnsupportedOperationException e) {
+        }
+        assertTrue(dropped.hasErrors());
+
+        // Events rejected by the FAIL policy are notified as well
+        final EventWithLifecycle failed = new EventWithLifecycle();
+        manager.setOverflowPolicy(EventOverflowPolicy.FAIL);
+        manager.addListener(Character.class, new IEventListener<Character>() {
+            public void handleEvent(Character event) {
+                manager.fireEvent(new EventWithLifecycle());
+                try {
+                    manager.fireEvent(failed);
+                    fail();
+                } catch (EventOverflowException e) {
+                }
+            }
+        });
+        manager.fireEvent('x');
+        assertTrue(failed.hasErrors());
+    }
+
+    public void testRegistrySnapshots() {
+        IEventManager manager = newEventManager();
+        RegistrySnapshot snapshot = manager.getSnapshot();
+        assertSame(snapshot, manager.getSnapshot());
+        assertFalse(snapshot.isStale(manager));
+        long epoch = manager.getEpoch();
+        IEventListener<String> listener = new IEventListener<String>() {
+            public void handleEvent(String event) {
+            }
+        };
+        IEventListenerRegistration r = manager.addListener(
+            String.class,
+            listener);
+        manager.addListener(String.class, "key", listener);
+        assertTrue(manager.getEpoch() > epoch);
+        assertTrue(snapshot.isStale(manager));
+        assertNull(snapshot.getListeners(String.class));
+
+        RegistrySnapshot next = manager.getSnapshot();
+        assertNotSame(snapshot, next);
+        assertEquals(manager.getEpoch(), next.getEpoch());
+        assertTrue(next.getEventTypes().contains(String.class));
+        assertEquals(Arrays.asList(listener), next.getListeners(String.class));
+        assertTrue(next.hasKeyedListeners(String.class));
+        assertEquals(Arrays.asList("key"), new ArrayList<Object>(next
+            .getKeys(String.class)));
+        assertEquals(Arrays.asList(listener), next.getListeners(
+            String.class,
+            "key"));
+
+        // Snapshots are not changed by new modifications
+        r.unregister();
+        assertTrue(next.isStale(manager));
+        assertEquals(Arrays.asList(listener), next.getListeners(String.class));
+        assertNull(manager.getSnapshot().getListeners(String.class));
+    }
+
     public void testRecursiveCalls() {
         int max = 100000;
 
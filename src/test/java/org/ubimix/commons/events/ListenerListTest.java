@@ -0,0 +1,125 @@
+/**
+ *
+ */
+package org.ubimix.commons.events;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks compact representations of {@link ListenerList} and prints the heap
+ * used by registered event types.
+ * 
+ * @author kotelnikov
+ */
+public class ListenerListTest extends TestCase {
+
+    private static class Listener implements IEventListener<Object> {
+
+        private final String fName;
+
+        public Listener(String name) {
+            fName = name;
+        }
+
+        public void handleEvent(Object event) {
+        }
+
+        @Override
+        public String toString() {
+            return fName;
+        }
+
+    }
+
+    /**
+     * @param name
+     */
+    public ListenerListTest(String name) {
+        super(name);
+    }
+
+    private long getAllocatedBytes() {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory
+            .getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * This is a benchmark rather than a test: it prints the number of bytes
+     * allocated for each list of listeners and for each key registered in an
+     * {@link EventListenerRegistry} (keyed listeners are indexed in the same
+     * way as event types).
+     */
+    public void benchmarkFootprint() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory
+            .getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)
+            || !((com.sun.management.ThreadMXBean) bean)
+                .isThreadAllocatedMemorySupported()) {
+            return;
+        }
+        ((com.sun.management.ThreadMXBean) bean)
+            .setThreadAllocatedMemoryEnabled(true);
+        int count = 10000;
+        IEventListener<Object> listener = new Listener("a");
+        ListenerList[] lists = new ListenerList[count];
+        long before = getAllocatedBytes();
+        for (int i = 0; i < count; i++) {
+            lists[i] = new ListenerList(listener, 0);
+        }
+        long single = (getAllocatedBytes() - before) / count;
+        before = getAllocatedBytes();
+        for (int i = 0; i < count; i++) {
+            lists[i] = lists[i].add(listener, 0);
+        }
+        long pair = (getAllocatedBytes() - before) / count;
+
+        Object[] keys = new Object[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = new Object();
+        }
+        EventListenerRegistry registry = new EventListenerRegistry();
+        registry.addListener(Object.class, "", listener);
+        before = getAllocatedBytes();
+        for (int i = 0; i < count; i++) {
+            registry.addListener(Object.class, keys[i], listener);
+        }
+        long keyed = (getAllocatedBytes() - before) / count;
+        System.out.println("Bytes per list with one listener: " + single
+            + "; with two listeners: " + pair + "; per registered key: "
+            + keyed);
+        assertTrue(single > 0);
+    }
+
+    public void testLists() {
+        Listener a = new Listener("a");
+        Listener b = new Listener("b");
+        Listener c = new Listener("c");
+        ListenerList list = new ListenerList(a, 1);
+        assertEquals(1, list.size());
+        assertEquals(1, list.getPriority(0));
+        try {
+            list.get(1);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+        }
+        list = list.add(b, 0).add(c, 2);
+        assertEquals(Arrays.asList(c, a, b), list);
+        assertEquals(2, list.getPriority(0));
+        assertEquals(0, list.getPriority(2));
+        list = list.remove(c).remove(a);
+        assertEquals(Arrays.asList(b), list);
+        assertEquals(0, list.getPriority(0));
+        assertSame(list, list.remove(c));
+        assertNull(list.remove(b));
+
+        list = new ListenerList(new IEventListener<?>[] { a, b }, 0);
+        list = list.add(c, -1).removeListeners(Arrays.asList(a, c));
+        assertEquals(Arrays.asList(b), list);
+        assertEquals(0, list.getPriority(0));
+    }
+
+}
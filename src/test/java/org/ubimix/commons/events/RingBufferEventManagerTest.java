@@ -0,0 +1,127 @@
+/**
+ * 
+ */
+package org.ubimix.commons.events;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Runs all {@link EventManagerTest} tests with a
+ * {@link RingBufferEventManager} and checks that firing of events does not
+ * allocate memory.
+ * 
+ * @author kotelnikov
+ */
+public class RingBufferEventManagerTest extends EventManagerTest {
+
+    private static class CounterEvent {
+
+        private int fCounter;
+
+    }
+
+    /**
+     * @param name
+     */
+    public RingBufferEventManagerTest(String name) {
+        super(name);
+    }
+
+    private long fire(IEventManager manager, CounterEvent event, int count) {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory
+            .getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long before = bean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < count; i++) {
+            manager.fireEvent(event);
+        }
+        long after = bean.getThreadAllocatedBytes(threadId);
+        return after - before;
+    }
+
+    @Override
+    protected IEventManager newEventManager() {
+        return new RingBufferEventManager(new EventListenerRegistry(), 4);
+    }
+
+    public void testGrowth() {
+        final RingBufferEventManager manager = new RingBufferEventManager(
+            new EventListenerRegistry(),
+            2);
+        final int[] order = { 0 };
+        final boolean[] ordered = { true };
+        manager.addListener(Integer.class, new IEventListener<Integer>() {
+            public void handleEvent(Integer event) {
+                if (event.intValue() != order[0]) {
+                    ordered[0] = false;
+                }
+                order[0]++;
+                if (event.intValue() == 0) {
+                    // All these events are queued while the first one is
+                    // still dispatched.
+                    for (int i = 1; i < 100; i++) {
+                        manager.fireEvent(i);
+                    }
+                }
+            }
+        });
+        manager.fireEvent(0);
+        assertEquals(100, order[0]);
+        assertTrue(ordered[0]);
+        assertEquals(128, manager.getRingSize());
+    }
+
+    public void testNoAllocations() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory
+            .getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)
+            || !((com.sun.management.ThreadMXBean) bean)
+                .isThreadAllocatedMemorySupported()) {
+            return;
+        }
+        ((com.sun.management.ThreadMXBean) bean)
+            .setThreadAllocatedMemoryEnabled(true);
+        IEventManager manager = newEventManager();
+        manager.addListener(CounterEvent.class, new IEventListener<Object>() {
+            public void handleEvent(Object event) {
+                ((CounterEvent) event).fCounter++;
+            }
+        });
+        CounterEvent event = new CounterEvent();
+        int count = 100000;
+        // Warm up: dispatch plans and JIT
+        fire(manager, event, count);
+        long allocated = fire(manager, event, count);
+        assertEquals(2 * count, event.fCounter);
+        // Only a few objects could be allocated by the JVM itself
+        assertTrue("Allocated: " + allocated, allocated < 1024);
+    }
+
+    public void testUnsupportedSettings() {
+        RingBufferEventManager manager = new RingBufferEventManager(
+            new EventListenerRegistry(),
+            4);
+        manager.setCapacity(0);
+        manager.setConflating(false);
+        manager.setOverflowPolicy(EventOverflowPolicy.FAIL);
+        try {
+            manager.setCapacity(10);
+            fail();
+        } catch (UnsupportedOperationException e) {
+        }
+        try {
+            manager.setConflating(true);
+            fail();
+        } catch (UnsupportedOperationException e) {
+        }
+        try {
+            manager.setOverflowPolicy(EventOverflowPolicy.DROP_OLDEST);
+            fail();
+        } catch (UnsupportedOperationException e) {
+        }
+        assertEquals(0, manager.getCapacity());
+        assertFalse(manager.isConflating());
+        assertEquals(EventOverflowPolicy.FAIL, manager.getOverflowPolicy());
+    }
+
+}
@@ -0,0 +1,167 @@
+/**
+ *
+ */
+package org.ubimix.commons.events;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Runs all {@link EventManagerTest} tests with a
+ * {@link SlottedEventListenerRegistry} and compares the cost of listener churn
+ * in this registry and in the {@link EventListenerRegistry}.
+ * 
+ * @author kotelnikov
+ */
+public class SlottedEventListenerRegistryTest extends EventManagerTest {
+
+    /**
+     * @param name
+     */
+    public SlottedEventListenerRegistryTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Registers the given number of listeners and then replaces randomly
+     * selected listeners by new ones. Returns the time of replacements in
+     * milliseconds.
+     */
+    private long churn(
+        IEventListenerRegistry registry,
+        int size,
+        int count,
+        int dispatchPeriod) {
+        IEventManager manager = new EventManager(registry);
+        final int[] counter = { 0 };
+        IEventListener<String> listener = new IEventListener<String>() {
+            public void handleEvent(String event) {
+                counter[0]++;
+            }
+        };
+        List<IEventListenerRegistration> registrations = new ArrayList<IEventListenerRegistration>();
+        for (int i = 0; i < size; i++) {
+            registrations.add(registry.addListener(String.class, listener));
+        }
+        Random random = new Random(size);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            int pos = random.nextInt(size);
+            assertTrue(registrations.get(pos).unregister());
+            registrations.set(pos, registry.addListener(String.class, listener));
+            if (dispatchPeriod > 0 && i % dispatchPeriod == 0) {
+                manager.fireEvent("");
+            }
+        }
+        long time = System.currentTimeMillis() - start;
+        assertEquals(size, registry.getListeners(String.class).size());
+        counter[0] = 0;
+        manager.fireEvent("");
+        assertEquals(size, counter[0]);
+        return time;
+    }
+
+    /**
+     * Listeners are removed by equality, as in the {@link ListenerList}.
+     */
+    public void testEqualListeners() {
+        class Listener implements IEventListener<String> {
+            private final String fName;
+
+            Listener(String name) {
+                fName = name;
+            }
+
+            @Override
+            public boolean equals(Object obj) {
+                return obj instanceof Listener
+                    && fName.equals(((Listener) obj).fName);
+            }
+
+            public void handleEvent(String event) {
+            }
+
+            @Override
+            public int hashCode() {
+                return fName.hashCode();
+            }
+        }
+        SlottedEventListenerRegistry registry = new SlottedEventListenerRegistry();
+        registry.addListener(String.class, new Listener("a"));
+        registry.addListener(String.class, new Listener("b"));
+        assertTrue(registry.removeListener(String.class, new Listener("a")));
+        assertFalse(registry.removeListener(String.class, new Listener("a")));
+        assertEquals(1, registry.getListeners(String.class).size());
+    }
+
+    @Override
+    protected IEventManager newEventManager() {
+        return new EventManager(new SlottedEventListenerRegistry());
+    }
+
+    /**
+     * This is a benchmark rather than a test: it prints the time required to
+     * replace listeners of a type with 10000 listeners, without dispatching
+     * and with one event dispatched after each 100 replacements.
+     */
+    public void benchmarkChurn() {
+        int size = 10000;
+        int count = 20000;
+        System.out.println("Churn of " + size + " listeners, ms: "
+            + "dispatch period / EventListenerRegistry / "
+            + "SlottedEventListenerRegistry");
+        int[] periods = { 0, 100 };
+        for (int period : periods) {
+            long a = churn(new EventListenerRegistry(), size, count, period);
+            long b = churn(
+                new SlottedEventListenerRegistry(),
+                size,
+                count,
+                period);
+            System.out.println(period + "\t" + a + "\t" + b);
+        }
+    }
+
+    public void testSlots() {
+        SlottedEventListenerRegistry registry = new SlottedEventListenerRegistry();
+        final List<String> result = new ArrayList<String>();
+        class Listener implements IEventListener<String> {
+            private final String fName;
+
+            Listener(String name) {
+                fName = name;
+            }
+
+            public void handleEvent(String event) {
+                result.add(fName);
+            }
+        }
+        IEventListener<String> a = new Listener("a");
+        IEventListener<String> b = new Listener("b");
+        IEventListener<String> c = new Listener("c");
+        IEventListenerRegistration first = registry.addListener(
+            String.class,
+            a);
+        IEventListenerRegistration second = registry.addListener(
+            String.class,
+            a);
+        registry.addListener(String.class, b, -1);
+        registry.addListener(String.class, c, 1);
+        assertEquals(4, registry.getListeners(String.class).size());
+
+        // Each registration clears only its own slot
+        assertTrue(second.unregister());
+        assertFalse(second.unregister());
+        IEventManager manager = new EventManager(registry);
+        manager.fireEvent("");
+        assertEquals("[c, a, b]", result.toString());
+        assertTrue(first.unregister());
+        assertFalse(registry.removeListener(String.class, a));
+        assertTrue(registry.removeListener(String.class, b));
+        assertTrue(registry.removeListener(String.class, c));
+        assertNull(registry.getListeners(String.class));
+        assertFalse(manager.hasListeners(String.class));
+    }
+
+}
@@ -3,21 +3,41 @@
  */
 package org.ubimix.commons.events.server;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.TestCase;
 
+import org.ubimix.commons.events.EventListenerRegistry;
 import org.ubimix.commons.events.EventManager;
+import org.ubimix.commons.events.EventOverflowException;
+import org.ubimix.commons.events.EventOverflowPolicy;
+import org.ubimix.commons.events.EventPriority;
+import org.ubimix.commons.events.EventWithLifecycle;
+import org.ubimix.commons.events.IBatchEventListener;
 import org.ubimix.commons.events.IEventListener;
 import org.ubimix.commons.events.IEventManager;
+import org.ubimix.commons.events.IEventWithKey;
+import org.ubimix.commons.events.IEventWithPriority;
+import org.ubimix.commons.events.PriorityEventQueue;
 import org.ubimix.commons.events.calls.CallEvent;
 import org.ubimix.commons.events.calls.CallListener;
 
@@ -146,6 +166,458 @@ public class AsyncEventManagerTest extends TestCase {
         assertEquals(count, result.intValue());
     }
 
+    /**
+     * This is a benchmark rather than a test: it prints the time required to
+     * start handling of events by listeners which are all blocked at the
+     * same time. 100000 listeners are blocked, so this benchmark is skipped
+     * if virtual threads are not available.
+     */
+    public void benchmarkBlockedListeners() throws Exception {
+        AsyncEventManager manager = new AsyncEventManager(true);
+        assertEquals(VirtualThreads.isSupported(), manager.isVirtual());
+        if (!manager.isVirtual()) {
+            manager.close();
+            return;
+        }
+        int count = 100000;
+        final CountDownLatch blocked = new CountDownLatch(count);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(count);
+        manager.addListener(Integer.class, new IEventListener<Integer>() {
+            public void handleEvent(Integer event) {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                }
+                done.countDown();
+            }
+        });
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            manager.fireEvent(i);
+        }
+        assertTrue(blocked.await(60, TimeUnit.SECONDS));
+        long time = System.currentTimeMillis() - start;
+        release.countDown();
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        System.out.println(count
+            + " blocked listeners (virtual threads): "
+            + time
+            + "ms");
+        manager.close();
+    }
+
+    public void testBatchEvents() throws Exception {
+        AsyncEventManager manager = new AsyncEventManager();
+        final List<Integer> result = Collections
+            .synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch latch = new CountDownLatch(1);
+        manager.addListener(Integer.class, new IBatchEventListener<Integer>() {
+            public void handleEvent(Integer event) {
+                handleEvents(Arrays.asList(event));
+            }
+
+            public void handleEvents(List<Integer> events) {
+                result.addAll(events);
+                latch.countDown();
+            }
+        });
+        manager.fireEvents(new Integer[] { 1, 2, 3 });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(1, 2, 3), result);
+        manager.close();
+    }
+
+    public void testPartitions() throws Exception {
+        class Update implements IEventWithKey {
+            final Integer key;
+
+            final int version;
+
+            Update(Integer key, int version) {
+                this.key = key;
+                this.version = version;
+            }
+
+            public Object getEventKey() {
+                return key;
+            }
+        }
+        final int keys = 16;
+        final int versions = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        AsyncEventManager manager = new AsyncEventManager(
+            executor,
+            new EventListenerRegistry());
+        manager.setPartitionCount(8);
+        assertEquals(8, manager.getPartitionCount());
+        final int[] lastVersions = new int[keys];
+        final AtomicInteger[] active = new AtomicInteger[keys];
+        for (int i = 0; i < keys; i++) {
+            active[i] = new AtomicInteger();
+        }
+        final AtomicInteger errors = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(keys * versions);
+        manager.addListener(Update.class, new IEventListener<Update>() {
+            public void handleEvent(Update event) {
+                int key = event.key;
+                // Events with the same key are never handled concurrently
+                if (active[key].incrementAndGet() != 1) {
+                    errors.incrementAndGet();
+                }
+                if (lastVersions[key] != event.version - 1) {
+                    errors.incrementAndGet();
+                }
+                lastVersions[key] = event.version;
+                active[key].decrementAndGet();
+                done.countDown();
+            }
+        });
+        for (int version = 1; version <= versions; version++) {
+            for (int key = 0; key < keys; key++) {
+                manager.fireEvent(new Update(key, version));
+            }
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(0, errors.get());
+        for (int key = 0; key < keys; key++) {
+            assertEquals(versions, lastVersions[key]);
+        }
+        manager.close();
+    }
+
+    public void testPriorityQueue() throws Exception {
+        class Message implements IEventWithPriority {
+            final EventPriority priority;
+
+            final String text;
+
+            Message(String text, EventPriority priority) {
+                this.text = text;
+                this.priority = priority;
+            }
+
+            public EventPriority getEventPriority() {
+                return priority;
+            }
+        }
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        AsyncEventManager manager = new AsyncEventManager(
+            executor,
+            new EventListenerRegistry());
+        manager.setEventQueue(new PriorityEventQueue());
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(5);
+        final List<String> result = Collections
+            .synchronizedList(new ArrayList<String>());
+        manager.addListener(Message.class, new IEventListener<Message>() {
+            public void handleEvent(Message event) {
+                if ("first".equals(event.text)) {
+                    started.countDown();
+                    try {
+                        blocked.await();
+                    } catch (InterruptedException e) {
+                    }
+                }
+                result.add(event.text);
+                done.countDown();
+            }
+        });
+        // The only working thread is blocked by the first event so all other
+        // events are queued.
+        manager.fireEvent(new Message("first", EventPriority.LOW));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        manager.fireEvent(new Message("low", EventPriority.LOW));
+        manager.fireEvent(new Message("normal", EventPriority.NORMAL));
+        manager.fireEvent(new Message("high", EventPriority.HIGH));
+        manager.fireEvent(new Message("low2", EventPriority.LOW));
+        blocked.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(
+            Arrays.asList("first", "high", "normal", "low", "low2"),
+            result);
+        manager.close();
+    }
+
+    /**
+     * Checks that events fired in the batched mode are handled by a bounded
+     * number of worker tasks. Listeners wait until all events are fired, so
+     * the number of tasks does not depend on the speed of the producer.
+     */
+    public void testWorkers() throws Exception {
+        final int count = 200000;
+        for (int workers = 0; workers <= 4; workers += 4) {
+            final ExecutorService threads = Executors.newFixedThreadPool(4);
+            final AtomicInteger tasks = new AtomicInteger();
+            final Executor executor = new Executor() {
+                public void execute(Runnable command) {
+                    tasks.incrementAndGet();
+                    threads.execute(command);
+                }
+            };
+            AsyncEventManager manager = new AsyncEventManager(
+                executor,
+                new EventListenerRegistry());
+            manager.setWorkerCount(workers);
+            assertEquals(workers, manager.getWorkerCount());
+            final AtomicInteger running = new AtomicInteger();
+            final AtomicInteger errors = new AtomicInteger();
+            final CountDownLatch done = new CountDownLatch(count);
+            final CountDownLatch fired = new CountDownLatch(1);
+            final int limit = workers;
+            manager.addListener(Integer.class, new IEventListener<Integer>() {
+                public void handleEvent(Integer event) {
+                    try {
+                        fired.await();
+                    } catch (InterruptedException e) {
+                    }
+                    if (running.incrementAndGet() > limit && limit > 0) {
+                        errors.incrementAndGet();
+                    }
+                    running.decrementAndGet();
+                    done.countDown();
+                }
+            });
+            for (int i = 0; i < count; i++) {
+                manager.fireEvent(i);
+            }
+            fired.countDown();
+            assertTrue(done.await(30, TimeUnit.SECONDS));
+            assertEquals(0, errors.get());
+            if (workers > 0) {
+                assertTrue("Tasks: " + tasks.get(), tasks.get() < count / 10);
+            } else {
+                assertEquals(count, tasks.get());
+            }
+            manager.close();
+            threads.shutdown();
+        }
+    }
+
+    /**
+     * Checks that the batched mode goes on when the executor rejects new
+     * workers.
+     */
+    public void testRejectedWorkers() throws Exception {
+        final int count = 2000;
+        ThreadPoolExecutor threads = new ThreadPoolExecutor(
+            1,
+            1,
+            0,
+            TimeUnit.MILLISECONDS,
+            new SynchronousQueue<Runnable>());
+        AsyncEventManager manager = new AsyncEventManager(
+            threads,
+            new EventListenerRegistry());
+        manager.setWorkerCount(2);
+        manager.setOverflowPolicy(EventOverflowPolicy.CALLER_RUNS);
+        final CountDownLatch done = new CountDownLatch(count);
+        manager.addListener(Integer.class, new IEventListener<Integer>() {
+            public void handleEvent(Integer event) {
+                done.countDown();
+            }
+        });
+        for (int i = 0; i < count; i++) {
+            manager.fireEvent(i);
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        manager.close();
+        assertTrue(threads.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(0, manager.getBacklogSize());
+    }
+
+    public void testBacklogOverflow() throws Exception {
+        ExecutorService threads = Executors.newFixedThreadPool(1);
+        AsyncEventManager manager = new AsyncEventManager(
+            threads,
+            new EventListenerRegistry());
+        manager.setCapacity(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(4);
+        final List<Object> result = Collections
+            .synchronizedList(new ArrayList<Object>());
+        manager.addListener(Integer.class, new IEventListener<Integer>() {
+            public void handleEvent(Integer event) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                }
+                result.add(event);
+                done.countDown();
+            }
+        });
+        manager.addListener(String.class, new IEventListener<String>() {
+            public void handleEvent(String event) {
+                result.add(event);
+            }
+        });
+        manager.fireEvent(1);
+        manager.fireEvent(2);
+        assertEquals(2, manager.getBacklogSize());
+
+        assertEquals(EventOverflowPolicy.FAIL, manager.getOverflowPolicy());
+        EventWithLifecycle event = new EventWithLifecycle();
+        try {
+            manager.fireEvent(event);
+            fail();
+        } catch (EventOverflowException e) {
+        }
+        assertTrue(event.hasErrors());
+
+        manager.setOverflowPolicy(EventOverflowPolicy.DROP_NEWEST);
+        event = new EventWithLifecycle();
+        manager.fireEvent(event);
+        assertTrue(event.hasErrors());
+
+        manager.setOverflowPolicy(EventOverflowPolicy.CALLER_RUNS);
+        manager.fireEvent("caller runs");
+        assertEquals(Arrays.<Object> asList("caller runs"), result);
+
+        manager.setOverflowPolicy(EventOverflowPolicy.BLOCK);
+        manager.setBlockTimeout(50);
+        try {
+            manager.fireEvent(3);
+            fail();
+        } catch (EventOverflowException e) {
+        }
+
+        manager.setOverflowPolicy(EventOverflowPolicy.SPILL);
+        manager.fireEvent(4);
+        manager.fireEvent(5);
+        assertEquals(2, manager.getSpilledCount());
+        assertEquals(2, manager.getBacklogSize());
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        manager.close();
+        assertTrue(threads.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(
+            Arrays.<Object> asList("caller runs", 1, 2, 4, 5),
+            result);
+        assertEquals(0, manager.getSpilledCount());
+        assertEquals(0, manager.getBacklogSize());
+        assertEquals(0, manager.getRejectedCount());
+        assertEquals(1, manager.getOverflowCount(EventOverflowPolicy.FAIL));
+        assertEquals(
+            1,
+            manager.getOverflowCount(EventOverflowPolicy.DROP_NEWEST));
+        assertEquals(
+            1,
+            manager.getOverflowCount(EventOverflowPolicy.CALLER_RUNS));
+        assertEquals(1, manager.getOverflowCount(EventOverflowPolicy.BLOCK));
+        assertEquals(2, manager.getOverflowCount(EventOverflowPolicy.SPILL));
+    }
+
+    /**
+     * Fires events to a manager using a small thread pool with a bounded
+     * queue which rejects tasks. Rejected events are retried (
+     * {@link EventOverflowPolicy#BLOCK}) or spilled (
+     * {@link EventOverflowPolicy#SPILL}); all events should be handled in
+     * each dispatching mode.
+     */
+    public void testSaturatedExecutor() throws Exception {
+        class Keyed implements IEventWithKey {
+            final Integer key;
+
+            Keyed(Integer key) {
+                this.key = key;
+            }
+
+            public Object getEventKey() {
+                return key;
+            }
+        }
+        final int count = 5000;
+        EventOverflowPolicy[] policies = {
+            EventOverflowPolicy.BLOCK,
+            EventOverflowPolicy.SPILL };
+        for (EventOverflowPolicy policy : policies) {
+            for (int mode = 0; mode < 3; mode++) {
+                ThreadPoolExecutor threads = new ThreadPoolExecutor(
+                    1,
+                    1,
+                    0,
+                    TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(1),
+                    new ThreadPoolExecutor.AbortPolicy());
+                AsyncEventManager manager = new AsyncEventManager(
+                    threads,
+                    new EventListenerRegistry());
+                if (mode == 1) {
+                    manager.setPartitionCount(4);
+                } else if (mode == 2) {
+                    manager.setWorkerCount(2);
+                }
+                manager.setCapacity(100);
+                manager.setOverflowPolicy(policy);
+                manager.setBlockTimeout(10000);
+                final CountDownLatch done = new CountDownLatch(count);
+                IEventListener<Object> listener = new IEventListener<Object>() {
+                    public void handleEvent(Object event) {
+                        done.countDown();
+                    }
+                };
+                manager.addListener(Integer.class, listener);
+                manager.addListener(Keyed.class, listener);
+                for (int i = 0; i < count; i++) {
+                    if (i % 2 == 0) {
+                        manager.fireEvent(new Keyed(i % 8));
+                    } else {
+                        manager.fireEvent(i);
+                    }
+                }
+                String message = policy + ", mode " + mode;
+                assertTrue(message, done.await(10, TimeUnit.SECONDS));
+                manager.close();
+                assertTrue(threads.awaitTermination(5, TimeUnit.SECONDS));
+                assertEquals(message, 0, manager.getBacklogSize());
+                assertEquals(message, 0, manager.getSpilledCount());
+                assertTrue(message, manager.getRejectedCount() > 0);
+            }
+        }
+    }
+
+    public void testRejectedTasks() {
+        final AtomicBoolean reject = new AtomicBoolean(true);
+        AsyncEventManager manager = new AsyncEventManager(new Executor() {
+            public void execute(Runnable command) {
+                if (reject.get()) {
+                    throw new RejectedExecutionException();
+                }
+                command.run();
+            }
+        }, new EventListenerRegistry());
+        final List<Integer> result = new ArrayList<Integer>();
+        manager.addListener(Integer.class, new IEventListener<Integer>() {
+            public void handleEvent(Integer event) {
+                result.add(event);
+            }
+        });
+
+        // The rejected event is dropped and notified about the error
+        EventWithLifecycle event = new EventWithLifecycle();
+        try {
+            manager.fireEvent(event);
+            fail();
+        } catch (EventOverflowException e) {
+        }
+        assertTrue(event.hasErrors());
+        assertEquals(1, manager.getRejectedCount());
+        assertEquals(0, manager.getBacklogSize());
+
+        // Rejected spilled events are handled by the firing thread
+        manager.setOverflowPolicy(EventOverflowPolicy.SPILL);
+        manager.fireEvent(1);
+        assertEquals(Arrays.asList(1), result);
+        reject.set(false);
+        manager.fireEvent(2);
+        assertEquals(Arrays.asList(1, 2), result);
+        assertEquals(0, manager.getSpilledCount());
+        assertEquals(0, manager.getBacklogSize());
+    }
+
     public void testCallBarrier() {
         doTestCallBarrier();
         doTestCallBarrier("John");
@@ -0,0 +1,197 @@
+/**
+ *
+ */
+package org.ubimix.commons.events.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import junit.framework.TestCase;
+
+import org.ubimix.commons.events.EventListenerInterceptor;
+import org.ubimix.commons.events.EventListenerRegistry;
+import org.ubimix.commons.events.IEventListener;
+import org.ubimix.commons.events.IEventListenerRegistration;
+import org.ubimix.commons.events.IEventListenerRegistry;
+
+/**
+ * @author kotelnikov
+ */
+public class AsyncListenerInterceptorTest extends TestCase {
+
+    /**
+     * Records all notifications.
+     */
+    private static class BatchInterceptor
+        implements
+        IEventListenerBatchInterceptor {
+
+        private final List<String> fLog = new ArrayList<String>();
+
+        public void done() {
+            fLog.add("done");
+        }
+
+        public void init(Map<Class<?>, List<IEventListener<?>>> listeners) {
+            List<IEventListener<?>> list = listeners.get(String.class);
+            fLog.add("init:" + (list != null ? list.size() : 0));
+        }
+
+        public void onAddListener(
+            Class<?> eventType,
+            IEventListener<?> listener) {
+            fail();
+        }
+
+        public void onListenerChanges(List<ListenerChange> changes) {
+            fLog.add("" + changes);
+        }
+
+        public void onRemoveListener(
+            Class<?> eventType,
+            IEventListener<?> listener) {
+            fail();
+        }
+
+    }
+
+    private static class TestListener implements IEventListener<String> {
+
+        private final String fName;
+
+        public TestListener(String name) {
+            fName = name;
+        }
+
+        public void handleEvent(String event) {
+        }
+
+        @Override
+        public String toString() {
+            return fName;
+        }
+
+    }
+
+    /**
+     * @param name
+     */
+    public AsyncListenerInterceptorTest(String name) {
+        super(name);
+    }
+
+    public void testDelivery() throws Exception {
+        IEventListenerRegistry registry = new EventListenerRegistry();
+        registry.addListener(String.class, new TestListener("a"));
+        BatchInterceptor interceptor = new BatchInterceptor();
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        AsyncListenerInterceptor async = new AsyncListenerInterceptor(
+            interceptor,
+            new Executor() {
+                public void execute(Runnable command) {
+                    tasks.add(command);
+                }
+            });
+        registry.addListenerInterceptor(async);
+
+        // Notifications are queued and only one delivery task is scheduled
+        IEventListenerRegistration b = registry.addListener(
+            String.class,
+            new TestListener("b"));
+        registry.addListener(String.class, new TestListener("c"));
+        b.unregister();
+        registry.removeListenerInterceptor(async);
+        assertTrue(interceptor.fLog.isEmpty());
+        assertEquals(1, tasks.size());
+
+        // The delivery thread does not hold the registry lock
+        Thread thread = new Thread(tasks.get(0));
+        synchronized (registry) {
+            thread.start();
+            thread.join(5000);
+        }
+        assertEquals(
+            "[init:1, [+java.lang.String:b, +java.lang.String:c, -java.lang.String:b], done]",
+            interceptor.fLog.toString());
+
+        // New notifications schedule a new task
+        async.onAddListener(String.class, new TestListener("d"));
+        assertEquals(2, tasks.size());
+    }
+
+    public void testManualDelivery() {
+        IEventListenerRegistry registry = new EventListenerRegistry();
+        final List<String> log = new ArrayList<String>();
+        AsyncListenerInterceptor async = new AsyncListenerInterceptor(
+            new EventListenerInterceptor() {
+                @Override
+                public void onAddListener(
+                    Class<?> eventType,
+                    IEventListener<?> listener) {
+                    log.add("+" + listener);
+                }
+
+                @Override
+                public void onRemoveListener(
+                    Class<?> eventType,
+                    IEventListener<?> listener) {
+                    log.add("-" + listener);
+                }
+            });
+        registry.addListenerInterceptor(async);
+        TestListener a = new TestListener("a");
+        registry.addListener(String.class, a);
+        registry.removeListener(String.class, a);
+        assertTrue(log.isEmpty());
+        async.deliver();
+        assertEquals("[+a, -a]", log.toString());
+    }
+
+    /**
+     * Checks that a rejected delivery task does not block the delivery of
+     * notifications.
+     */
+    public void testRejectedDelivery() {
+        IEventListenerRegistry registry = new EventListenerRegistry();
+        BatchInterceptor interceptor = new BatchInterceptor();
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        final boolean[] reject = { true };
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        AsyncListenerInterceptor async = new AsyncListenerInterceptor(
+            interceptor,
+            new Executor() {
+                public void execute(Runnable command) {
+                    if (reject[0]) {
+                        throw new RejectedExecutionException();
+                    }
+                    tasks.add(command);
+                }
+            }) {
+            @Override
+            protected void onError(Throwable error) {
+                errors.add(error);
+            }
+        };
+        registry.addListenerInterceptor(async);
+
+        // The rejection does not break the registration of the listener
+        IEventListenerRegistration a = registry.addListener(
+            String.class,
+            new TestListener("a"));
+        assertNotNull(a);
+        assertEquals(2, errors.size());
+        assertTrue(errors.get(0) instanceof RejectedExecutionException);
+
+        reject[0] = false;
+        registry.addListener(String.class, new TestListener("b"));
+        assertEquals(1, tasks.size());
+        tasks.get(0).run();
+        assertEquals(
+            "[init:0, [+java.lang.String:a, +java.lang.String:b]]",
+            interceptor.fLog.toString());
+    }
+
+}
@@ -0,0 +1,179 @@
+/**
+ * 
+ */
+package org.ubimix.commons.events.server;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ubimix.commons.events.EventListenerRegistry;
+import org.ubimix.commons.events.EventManager;
+import org.ubimix.commons.events.EventManagerTest;
+import org.ubimix.commons.events.IEventListener;
+import org.ubimix.commons.events.IEventListenerRegistration;
+import org.ubimix.commons.events.IEventListenerRegistry;
+import org.ubimix.commons.events.IEventManager;
+
+/**
+ * Runs all {@link EventManagerTest} tests with a
+ * {@link ConcurrentEventListenerRegistry} and compares the throughput of
+ * concurrent readers of this registry and of the {@link EventListenerRegistry}.
+ * 
+ * @author kotelnikov
+ */
+public class ConcurrentEventListenerRegistryTest extends EventManagerTest {
+
+    private static class A {
+    }
+
+    private static class B extends A {
+    }
+
+    private static class C extends B {
+    }
+
+    /**
+     * @param name
+     */
+    public ConcurrentEventListenerRegistryTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Reads listeners for all classes of the hierarchy of the {@link C} class
+     * (as it is done when a dispatch plan is built or when keyed listeners are
+     * loaded) in the given number of threads and returns the number of read
+     * operations per millisecond.
+     */
+    private long getReadThroughput(
+        final IEventListenerRegistry registry,
+        int threadCount,
+        long duration) throws InterruptedException {
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicLong counter = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch end = new CountDownLatch(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        long count = 0;
+                        while (!stop.get()) {
+                            for (Class<?> type = C.class; type != null; type = type
+                                .getSuperclass()) {
+                                registry.getListeners(type);
+                                registry.getListeners(type, "key");
+                                count++;
+                            }
+                        }
+                        counter.addAndGet(count);
+                    } catch (InterruptedException e) {
+                    } finally {
+                        end.countDown();
+                    }
+                }
+            }.start();
+        }
+        start.countDown();
+        Thread.sleep(duration);
+        stop.set(true);
+        end.await();
+        return counter.get() / duration;
+    }
+
+    private void initRegistry(IEventListenerRegistry registry) {
+        IEventListener<Object> listener = new IEventListener<Object>() {
+            public void handleEvent(Object event) {
+            }
+        };
+        registry.addListener(A.class, listener);
+        registry.addListener(C.class, listener);
+        registry.addListener(B.class, "key", listener);
+    }
+
+    @Override
+    protected IEventManager newEventManager() {
+        return new SharedEventManager(new ConcurrentEventListenerRegistry());
+    }
+
+    /**
+     * This is a benchmark rather than a test: it prints the number of read
+     * operations per millisecond for 1 to 64 threads reading listeners at the
+     * same time.
+     */
+    public void benchmarkContention() throws Exception {
+        IEventListenerRegistry locking = new EventListenerRegistry();
+        IEventListenerRegistry concurrent = new ConcurrentEventListenerRegistry();
+        initRegistry(locking);
+        initRegistry(concurrent);
+        long duration = 100;
+        System.out.println("Registry reads per ms: threads / "
+            + "EventListenerRegistry / ConcurrentEventListenerRegistry");
+        for (int threads = 1; threads <= 64; threads *= 2) {
+            long a = getReadThroughput(locking, threads, duration);
+            long b = getReadThroughput(concurrent, threads, duration);
+            System.out.println(threads + "\t" + a + "\t" + b);
+            assertTrue(b > 0);
+        }
+    }
+
+    public void testWeakListeners() throws Exception {
+        ConcurrentEventListenerRegistry registry = new ConcurrentEventListenerRegistry();
+        final int[] purged = { 0 };
+        registry.addListenerInterceptor(new IEventListenerPurgeInterceptor() {
+            public void done() {
+            }
+
+            public void init(Map<Class<?>, List<IEventListener<?>>> listeners) {
+            }
+
+            public void onAddListener(
+                Class<?> eventType,
+                IEventListener<?> listener) {
+            }
+
+            public void onPurgeListeners(int count) {
+                purged[0] += count;
+            }
+
+            public void onRemoveListener(
+                Class<?> eventType,
+                IEventListener<?> listener) {
+            }
+        });
+        IEventManager manager = new EventManager(registry);
+        final int[] counter = { 0 };
+        IEventListener<String> listener = new IEventListener<String>() {
+            public void handleEvent(String event) {
+                counter[0]++;
+            }
+        };
+        registry.addWeakListener(String.class, listener);
+        IEventListenerRegistration soft = registry.addSoftListener(
+            String.class,
+            listener);
+        manager.fireEvent("");
+        assertEquals(2, counter[0]);
+        assertTrue(soft.unregister());
+        assertEquals(1, registry.getListeners(String.class).size());
+
+        // The listener is removed when it is reclaimed (the soft registration
+        // also keeps a soft reference to the listener)
+        listener = null;
+        soft = null;
+        for (int i = 0; i < 100 && purged[0] == 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+            manager.fireEvent("");
+        }
+        assertEquals(1, purged[0]);
+        assertNull(registry.getListeners(String.class));
+        assertFalse(manager.hasListeners(String.class));
+    }
+
+}
@@ -0,0 +1,133 @@
+/**
+ * 
+ */
+package org.ubimix.commons.events.server;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ubimix.commons.events.EventManagerTest;
+import org.ubimix.commons.events.IEventListener;
+import org.ubimix.commons.events.IEventManager;
+
+/**
+ * Runs all {@link EventManagerTest} tests with a
+ * {@link ConcurrentEventManager} and checks that threads dispatch their events
+ * in parallel.
+ * 
+ * @author kotelnikov
+ */
+public class ConcurrentEventManagerTest extends EventManagerTest {
+
+    /**
+     * @param name
+     */
+    public ConcurrentEventManagerTest(String name) {
+        super(name);
+    }
+
+    @Override
+    protected IEventManager newEventManager() {
+        return new ConcurrentEventManager();
+    }
+
+    /**
+     * Listeners of this manager are called concurrently so this test uses
+     * thread-safe counters.
+     */
+    @Override
+    public void testAsyncCalls() throws Exception {
+        int count = 30;
+        final IEventManager manager = newEventManager();
+        final AtomicInteger listenerCounter = new AtomicInteger();
+        final AtomicInteger callbackCounter = new AtomicInteger();
+        manager.addListener(String.class, new IEventListener<String>() {
+            public void handleEvent(String event) {
+                listenerCounter.incrementAndGet();
+            }
+        });
+        final CountDownLatch latch = new CountDownLatch(count);
+        for (int i = 0; i < count; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        manager.fireEvent("", new IEventListener<String>() {
+                            public void handleEvent(String event) {
+                                callbackCounter.incrementAndGet();
+                            }
+                        });
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            }.start();
+        }
+        latch.await();
+        assertEquals(count, listenerCounter.get());
+        assertEquals(count, callbackCounter.get());
+    }
+
+    public void testParallelDispatch() throws Exception {
+        final int threadCount = 4;
+        final IEventManager manager = newEventManager();
+        // All threads should be in the listener at the same time.
+        final CyclicBarrier barrier = new CyclicBarrier(threadCount);
+        final AtomicInteger errors = new AtomicInteger();
+        final AtomicInteger counter = new AtomicInteger();
+        class ThreadEvent {
+            final Thread thread = Thread.currentThread();
+
+            final int depth;
+
+            ThreadEvent(int depth) {
+                this.depth = depth;
+            }
+        }
+        manager.addListener(ThreadEvent.class, new IEventListener<ThreadEvent>() {
+            private final ThreadLocal<Integer> fDepth = new ThreadLocal<Integer>();
+
+            public void handleEvent(ThreadEvent event) {
+                if (event.thread != Thread.currentThread()) {
+                    errors.incrementAndGet();
+                }
+                // Re-entrant events should be queued and not dispatched
+                // recursively.
+                if (fDepth.get() != null) {
+                    errors.incrementAndGet();
+                }
+                fDepth.set(event.depth);
+                try {
+                    if (event.depth == 0) {
+                        barrier.await(5, TimeUnit.SECONDS);
+                        manager.fireEvent(new ThreadEvent(1));
+                    }
+                } catch (Exception e) {
+                    errors.incrementAndGet();
+                } finally {
+                    fDepth.remove();
+                }
+                counter.incrementAndGet();
+            }
+        });
+        final CountDownLatch latch = new CountDownLatch(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        manager.fireEvent(new ThreadEvent(0));
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            }.start();
+        }
+        latch.await();
+        assertEquals(0, errors.get());
+        assertEquals(threadCount * 2, counter.get());
+    }
+
+}
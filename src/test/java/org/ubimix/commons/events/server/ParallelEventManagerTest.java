@@ -0,0 +1,187 @@
+/**
+ *
+ */
+package org.ubimix.commons.events.server;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ubimix.commons.events.DispatchPlanCache;
+import org.ubimix.commons.events.EventListenerRegistry;
+import org.ubimix.commons.events.EventManagerTest;
+import org.ubimix.commons.events.EventOverflowException;
+import org.ubimix.commons.events.EventOverflowPolicy;
+import org.ubimix.commons.events.EventWithLifecycle;
+import org.ubimix.commons.events.IEventListener;
+import org.ubimix.commons.events.IEventListenerRegistry;
+import org.ubimix.commons.events.IEventManager;
+
+/**
+ * Runs all {@link EventManagerTest} tests with a {@link ParallelEventManager}
+ * and checks that listeners of one event are called in parallel.
+ * 
+ * @author kotelnikov
+ */
+public class ParallelEventManagerTest extends EventManagerTest {
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(8);
+
+    /**
+     * The chunk size of managers returned by the {@link #newEventManager()}
+     * method.
+     */
+    private int fChunkSize = 4;
+
+    /**
+     * @param name
+     */
+    public ParallelEventManagerTest(String name) {
+        super(name);
+    }
+
+    private ParallelEventManager newParallelEventManager(int chunkSize) {
+        IEventListenerRegistry registry = new EventListenerRegistry();
+        return new ParallelEventManager(
+            registry,
+            new DispatchPlanCache(registry),
+            POOL,
+            chunkSize);
+    }
+
+    @Override
+    protected IEventManager newEventManager() {
+        return newParallelEventManager(fChunkSize);
+    }
+
+    /**
+     * Pool threads calling listeners should not wait for a free place in the
+     * queue: it is freed only when they return.
+     */
+    public void testBlockingOverflow() throws Exception {
+        final ParallelEventManager manager = newParallelEventManager(1);
+        manager.setCapacity(1);
+        manager.setOverflowPolicy(EventOverflowPolicy.BLOCK);
+        final AtomicInteger handled = new AtomicInteger();
+        final AtomicInteger overflows = new AtomicInteger();
+        for (int i = 0; i < 8; i++) {
+            manager.addListener(String.class, new IEventListener<String>() {
+                public void handleEvent(String event) {
+                    try {
+                        manager.fireEvent(1);
+                    } catch (EventOverflowException e) {
+                        overflows.incrementAndGet();
+                    }
+                }
+            });
+        }
+        manager.addListener(Integer.class, new IEventListener<Integer>() {
+            public void handleEvent(Integer event) {
+                handled.incrementAndGet();
+            }
+        });
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                manager.fireEvent("a");
+            }
+        };
+        thread.start();
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+        // One event takes the only place in the queue
+        assertEquals(1, handled.get());
+        assertEquals(7, overflows.get());
+    }
+
+    /**
+     * This test checks the order of listeners. The order is kept only when
+     * listeners are called by one task.
+     * 
+     * @see org.ubimix.commons.events.EventManagerTest#testBulkRegistration()
+     */
+    @Override
+    public void testBulkRegistration() {
+        fChunkSize = Integer.MAX_VALUE;
+        super.testBulkRegistration();
+    }
+
+    /**
+     * Checks that the callback is called when all listeners have finished
+     * and that errors of parallel listeners are all collected.
+     */
+    public void testParallelListeners() throws Exception {
+        class Message extends EventWithLifecycle {
+
+            Set<Throwable> reported;
+
+            @Override
+            protected void reportErrors(Set<Throwable> errors) {
+                reported = new HashSet<Throwable>(errors);
+            }
+
+        }
+        final int count = 32;
+        for (int chunkSize : new int[] { count, 2 }) {
+            ParallelEventManager manager = newParallelEventManager(chunkSize);
+            final AtomicInteger finished = new AtomicInteger();
+            final Set<Thread> threads = Collections
+                .synchronizedSet(new HashSet<Thread>());
+            for (int i = 0; i < count; i++) {
+                final int index = i;
+                manager.addListener(Message.class, new IEventListener<Message>() {
+                    public void handleEvent(Message event) {
+                        threads.add(Thread.currentThread());
+                        try {
+                            Thread.sleep(10);
+                        } catch (InterruptedException e) {
+                        }
+                        finished.incrementAndGet();
+                        if (index % 4 == 0) {
+                            throw new IllegalStateException("Error " + index);
+                        }
+                    }
+                });
+            }
+            final int[] finishedBeforeCallback = { -1 };
+            Message message = new Message();
+            manager.fireEvent(message, new IEventListener<Message>() {
+                public void handleEvent(Message event) {
+                    finishedBeforeCallback[0] = finished.get();
+                }
+            });
+            assertEquals(count, finishedBeforeCallback[0]);
+            assertNotNull(message.reported);
+            assertEquals(count / 4, message.reported.size());
+            if (chunkSize < count) {
+                assertTrue(threads.size() > 1);
+            } else {
+                assertEquals(1, threads.size());
+            }
+        }
+    }
+
+    public void testReentrantEvents() throws Exception {
+        final ParallelEventManager manager = newParallelEventManager(1);
+        final Set<String> result = Collections
+            .synchronizedSet(new HashSet<String>());
+        for (int i = 0; i < 4; i++) {
+            final int index = i;
+            manager.addListener(String.class, new IEventListener<String>() {
+                public void handleEvent(String event) {
+                    result.add(event + index);
+                    if (event.length() < 2) {
+                        // Events fired by parallel listeners are queued
+                        manager.fireEvent(event + index);
+                    }
+                }
+            });
+        }
+        manager.fireEvent("a");
+        // 4 listeners of "a" and 4 listeners for each of 4 fired events
+        assertEquals(4 + 16, result.size());
+    }
+
+}
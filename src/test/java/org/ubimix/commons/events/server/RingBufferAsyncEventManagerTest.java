@@ -0,0 +1,301 @@
+/**
+ *
+ */
+package org.ubimix.commons.events.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.ubimix.commons.events.EventListenerRegistry;
+import org.ubimix.commons.events.EventWithLifecycle;
+import org.ubimix.commons.events.IBatchEventListener;
+import org.ubimix.commons.events.IEventListener;
+
+/**
+ * @author kotelnikov
+ */
+public class RingBufferAsyncEventManagerTest extends TestCase {
+
+    private static class Ping {
+
+        private final long fTime = System.nanoTime();
+
+    }
+
+    /**
+     * @param name
+     */
+    public RingBufferAsyncEventManagerTest(String name) {
+        super(name);
+    }
+
+    public void testBatchEvents() throws Exception {
+        RingBufferAsyncEventManager manager = new RingBufferAsyncEventManager();
+        final List<Integer> result = Collections
+            .synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch latch = new CountDownLatch(1);
+        manager.addListener(Integer.class, new IBatchEventListener<Integer>() {
+            public void handleEvent(Integer event) {
+                handleEvents(Arrays.asList(event));
+            }
+
+            public void handleEvents(List<Integer> events) {
+                result.addAll(events);
+                latch.countDown();
+            }
+        });
+        manager.fireEvents(new Integer[] { 1, 2, 3 });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(1, 2, 3), result);
+        manager.close();
+    }
+
+    public void testClose() throws Exception {
+        RingBufferAsyncEventManager manager = new RingBufferAsyncEventManager();
+        manager.addListener(String.class, new IEventListener<String>() {
+            public void handleEvent(String event) {
+            }
+        });
+        manager.close();
+        try {
+            manager.fireEvent("a");
+            fail();
+        } catch (RejectedExecutionException e) {
+        }
+    }
+
+    /**
+     * All events accepted while the manager is being closed should be
+     * handled.
+     */
+    public void testCloseRace() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            final RingBufferAsyncEventManager manager = new RingBufferAsyncEventManager(
+                new EventListenerRegistry(),
+                4,
+                1,
+                WaitStrategy.BLOCKING);
+            final AtomicInteger handled = new AtomicInteger();
+            manager.addListener(Integer.class, new IEventListener<Integer>() {
+                public void handleEvent(Integer event) {
+                    handled.incrementAndGet();
+                }
+            });
+            final AtomicInteger accepted = new AtomicInteger();
+            Thread[] producers = new Thread[4];
+            for (int i = 0; i < producers.length; i++) {
+                producers[i] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int j = 0; j < 1000; j++) {
+                                manager.fireEvent(j);
+                                accepted.incrementAndGet();
+                            }
+                        } catch (RejectedExecutionException e) {
+                        }
+                    }
+                };
+                producers[i].start();
+            }
+            Thread.sleep(1);
+            manager.close();
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            long deadline = System.currentTimeMillis() + 5000;
+            while (handled.get() < accepted.get()
+                && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(accepted.get(), handled.get());
+        }
+    }
+
+    /**
+     * Consumer threads firing events into a full ring should not wait for
+     * themselves.
+     */
+    public void testConsumerOverflow() throws Exception {
+        final RingBufferAsyncEventManager manager = new RingBufferAsyncEventManager(
+            new EventListenerRegistry(),
+            2,
+            1,
+            WaitStrategy.BLOCKING);
+        final List<Integer> result = Collections
+            .synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch latch = new CountDownLatch(1);
+        manager.addListener(Integer.class, new IEventListener<Integer>() {
+            public void handleEvent(Integer event) {
+                result.add(event);
+                if (event == 0) {
+                    for (int i = 1; i <= 10; i++) {
+                        manager.fireEvent(i);
+                    }
+                } else if (result.size() == 11) {
+                    latch.countDown();
+                }
+            }
+        });
+        manager.fireEvent(0);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(0, (int) result.get(0));
+        assertEquals(11, new HashSet<Integer>(result).size());
+        manager.close();
+    }
+
+    /**
+     * This is a benchmark rather than a test: it prints the latency of the
+     * hand-off of events to an idle consumer for each wait strategy.
+     * Spinning strategies are measured only if there is more than one core.
+     */
+    public void benchmarkLatency() throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int count = 2000;
+        for (WaitStrategy strategy : WaitStrategy.values()) {
+            boolean spinning = strategy == WaitStrategy.BUSY_SPIN
+                || strategy == WaitStrategy.YIELD;
+            if (spinning && cores < 2) {
+                System.out.println(strategy + ": skipped (one core)");
+                continue;
+            }
+            RingBufferAsyncEventManager manager = new RingBufferAsyncEventManager(
+                new EventListenerRegistry(),
+                64,
+                1,
+                strategy);
+            final long[] latencies = new long[count];
+            final AtomicInteger handled = new AtomicInteger();
+            manager.addListener(Ping.class, new IEventListener<Ping>() {
+                public void handleEvent(Ping event) {
+                    latencies[handled.get()] = System.nanoTime() - event.fTime;
+                    handled.incrementAndGet();
+                }
+            });
+            try {
+                for (int i = 0; i < count; i++) {
+                    manager.fireEvent(new Ping());
+                    while (handled.get() <= i) {
+                        Thread.yield();
+                    }
+                }
+            } finally {
+                manager.close();
+            }
+            Arrays.sort(latencies);
+            System.out.println(strategy
+                + ": p50="
+                + latencies[count / 2]
+                + "ns, p99="
+                + latencies[count * 99 / 100]
+                + "ns");
+        }
+    }
+
+    public void testLifecycle() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(2);
+        class Message extends EventWithLifecycle {
+
+            volatile Set<Throwable> reported;
+
+            @Override
+            protected void reportErrors(Set<Throwable> errors) {
+                reported = errors;
+                latch.countDown();
+            }
+
+        }
+        RingBufferAsyncEventManager manager = new RingBufferAsyncEventManager();
+        manager.addListener(Message.class, new IEventListener<Message>() {
+            public void handleEvent(Message event) {
+                throw new IllegalStateException();
+            }
+        });
+        Message message = new Message();
+        manager.fireEvent(message, new IEventListener<Message>() {
+            public void handleEvent(Message event) {
+                latch.countDown();
+            }
+        });
+        // The errors are reported after the call of the callback
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertSame(manager, message.getEventManager());
+        assertNotNull(message.reported);
+        assertEquals(1, message.reported.size());
+        manager.close();
+    }
+
+    public void testOrder() throws Exception {
+        RingBufferAsyncEventManager manager = new RingBufferAsyncEventManager(
+            new EventListenerRegistry(),
+            8,
+            1,
+            WaitStrategy.PARK);
+        assertEquals(8, manager.getRingSize());
+        final int count = 10000;
+        final List<Integer> result = new ArrayList<Integer>();
+        final CountDownLatch done = new CountDownLatch(count);
+        manager.addListener(Integer.class, new IEventListener<Integer>() {
+            public void handleEvent(Integer event) {
+                result.add(event);
+                done.countDown();
+            }
+        });
+        for (int i = 0; i < count; i++) {
+            manager.fireEvent(i);
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, result.get(i).intValue());
+        }
+        manager.close();
+    }
+
+    public void testProducers() throws Exception {
+        for (WaitStrategy strategy : new WaitStrategy[] {
+            WaitStrategy.PARK,
+            WaitStrategy.BLOCKING }) {
+            final RingBufferAsyncEventManager manager = new RingBufferAsyncEventManager(
+                new EventListenerRegistry(),
+                16,
+                3,
+                strategy);
+            final int producers = 4;
+            final int count = 20000;
+            final AtomicInteger sum = new AtomicInteger();
+            final CountDownLatch done = new CountDownLatch(producers * count);
+            manager.addListener(Integer.class, new IEventListener<Integer>() {
+                public void handleEvent(Integer event) {
+                    sum.addAndGet(event);
+                    done.countDown();
+                }
+            });
+            Thread[] threads = new Thread[producers];
+            for (int i = 0; i < producers; i++) {
+                threads[i] = new Thread() {
+                    @Override
+                    public void run() {
+                        for (int j = 0; j < count; j++) {
+                            manager.fireEvent(1);
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+            assertTrue(done.await(30, TimeUnit.SECONDS));
+            assertEquals(producers * count, sum.get());
+            manager.close();
+        }
+    }
+
+}
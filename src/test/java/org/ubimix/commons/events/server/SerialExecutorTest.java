@@ -0,0 +1,158 @@
+package org.ubimix.commons.events.server;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * @author kotelnikov
+ */
+public class SerialExecutorTest extends TestCase {
+
+    /**
+     * @param name
+     */
+    public SerialExecutorTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Checks that queued tasks are executed when the underlying executor
+     * rejects the re-submitted drain task.
+     */
+    public void testRejectedDrain() throws Exception {
+        final int count = SerialExecutor.MAX_BATCH_SIZE * 3;
+        final AtomicInteger submitted = new AtomicInteger();
+        // Only the first task is accepted
+        Executor executor = new Executor() {
+            public void execute(Runnable command) {
+                if (submitted.getAndIncrement() > 0) {
+                    throw new RejectedExecutionException();
+                }
+                new Thread(command).start();
+            }
+        };
+        SerialExecutor serial = new SerialExecutor(executor);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(count);
+        serial.execute(new Runnable() {
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                }
+            }
+        });
+        for (int i = 0; i < count; i++) {
+            serial.execute(new Runnable() {
+                public void run() {
+                    done.countDown();
+                }
+            });
+        }
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(submitted.get() > 1);
+    }
+
+    /**
+     * Checks that the executor is scheduled again after the drain task was
+     * rejected while a failed task was propagating its exception.
+     */
+    public void testRejectedDrainAfterError() throws Exception {
+        final AtomicInteger submitted = new AtomicInteger();
+        // The second task is rejected, the others are executed in place
+        Executor executor = new Executor() {
+            public void execute(Runnable command) {
+                if (submitted.getAndIncrement() == 1) {
+                    throw new RejectedExecutionException();
+                }
+                command.run();
+            }
+        };
+        SerialExecutor serial = new SerialExecutor(executor);
+        try {
+            serial.execute(new Runnable() {
+                public void run() {
+                    throw new IllegalStateException();
+                }
+            });
+            fail();
+        } catch (IllegalStateException e) {
+        }
+        final AtomicInteger executed = new AtomicInteger();
+        serial.execute(new Runnable() {
+            public void run() {
+                executed.incrementAndGet();
+            }
+        });
+        assertEquals(1, executed.get());
+    }
+
+    /**
+     * Checks that tasks added by other threads while the drain task is being
+     * rejected are not left in the queue.
+     */
+    public void testRejectedExecuteRace() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch added = new CountDownLatch(1);
+        final AtomicInteger submitted = new AtomicInteger();
+        // The first submission is rejected after another task was queued
+        Executor executor = new Executor() {
+            public void execute(Runnable command) {
+                if (submitted.getAndIncrement() == 0) {
+                    entered.countDown();
+                    try {
+                        added.await();
+                    } catch (InterruptedException e) {
+                    }
+                    throw new RejectedExecutionException();
+                }
+                command.run();
+            }
+        };
+        final SerialExecutor serial = new SerialExecutor(executor);
+        final AtomicInteger rejected = new AtomicInteger();
+        final AtomicInteger executed = new AtomicInteger();
+        Thread first = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    serial.execute(new Runnable() {
+                        public void run() {
+                            rejected.incrementAndGet();
+                        }
+                    });
+                    fail();
+                } catch (RejectedExecutionException e) {
+                }
+            }
+        };
+        first.start();
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        // The queue is active, so this task does not schedule the drain
+        serial.execute(new Runnable() {
+            public void run() {
+                executed.incrementAndGet();
+            }
+        });
+        added.countDown();
+        first.join(5000);
+        assertEquals(0, rejected.get());
+        assertEquals(1, executed.get());
+        assertEquals(1, submitted.get());
+
+        // The queue is scheduled again by the next task
+        serial.execute(new Runnable() {
+            public void run() {
+                executed.incrementAndGet();
+            }
+        });
+        assertEquals(2, executed.get());
+    }
+
+}
@@ -0,0 +1,201 @@
+/**
+ * 
+ */
+package org.ubimix.commons.events.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ubimix.commons.events.EventManagerTest;
+import org.ubimix.commons.events.EventOverflowPolicy;
+import org.ubimix.commons.events.EventWithLifecycle;
+import org.ubimix.commons.events.IEventListener;
+import org.ubimix.commons.events.IEventManager;
+
+/**
+ * Runs all {@link EventManagerTest} tests with a {@link SharedEventManager}
+ * and checks that events fired concurrently are delivered one by one.
+ * 
+ * @author kotelnikov
+ */
+public class SharedEventManagerTest extends EventManagerTest {
+
+    /**
+     * @param name
+     */
+    public SharedEventManagerTest(String name) {
+        super(name);
+    }
+
+    @Override
+    protected IEventManager newEventManager() {
+        return new SharedEventManager();
+    }
+
+    public void testBlockingOverflow() throws Exception {
+        final SharedEventManager manager = new SharedEventManager();
+        manager.setCapacity(2);
+        try {
+            manager.setOverflowPolicy(EventOverflowPolicy.SPILL);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        manager.setOverflowPolicy(EventOverflowPolicy.BLOCK);
+        final List<Integer> result = new ArrayList<Integer>();
+        final CountDownLatch dispatching = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        manager.addListener(Integer.class, new IEventListener<Integer>() {
+            public void handleEvent(Integer event) {
+                if (event == 0) {
+                    dispatching.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                    }
+                }
+                result.add(event);
+            }
+        });
+        Thread dispatcher = new Thread() {
+            @Override
+            public void run() {
+                manager.fireEvent(0);
+            }
+        };
+        dispatcher.start();
+        dispatching.await();
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 1; i <= 3; i++) {
+                    manager.fireEvent(i);
+                }
+            }
+        };
+        producer.start();
+        // The producer waits until the dispatcher frees the queue
+        while (producer.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, manager.getOverflowCount(EventOverflowPolicy.BLOCK));
+        release.countDown();
+        producer.join();
+        dispatcher.join();
+        assertEquals(Arrays.asList(0, 1, 2, 3), result);
+    }
+
+    /**
+     * Checks that the oldest events are removed from the queue as soon as
+     * new events are fired, so the queue does not grow while the dispatcher
+     * is blocked.
+     */
+    public void testDropOldestOverflow() throws Exception {
+        final SharedEventManager manager = new SharedEventManager();
+        manager.setCapacity(10);
+        manager.setOverflowPolicy(EventOverflowPolicy.DROP_OLDEST);
+        final List<Integer> result = new ArrayList<Integer>();
+        final CountDownLatch dispatching = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger dropped = new AtomicInteger();
+        manager.addListener(Integer.class, new IEventListener<Integer>() {
+            public void handleEvent(Integer event) {
+                if (event == 0) {
+                    dispatching.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                    }
+                }
+                result.add(event);
+            }
+        });
+        Thread dispatcher = new Thread() {
+            @Override
+            public void run() {
+                manager.fireEvent(0);
+            }
+        };
+        dispatcher.start();
+        dispatching.await();
+        for (int i = 1; i <= 1000; i++) {
+            EventWithLifecycle event = new EventWithLifecycle() {
+                @Override
+                public void onHandleError(
+                    IEventListener<?> listener,
+                    Throwable error) {
+                    dropped.incrementAndGet();
+                }
+            };
+            manager.fireEvent(event);
+            manager.fireEvent(i);
+        }
+        // Dropped events are notified when new events are fired
+        assertEquals(995, dropped.get());
+        release.countDown();
+        dispatcher.join();
+        assertEquals(
+            Arrays.asList(0, 996, 997, 998, 999, 1000),
+            result);
+    }
+
+    public void testConcurrentProducers() throws Exception {
+        final int threadCount = 8;
+        final int count = 20000;
+        final IEventManager manager = newEventManager();
+        final int[] last = new int[threadCount];
+        final int[] counter = { 0 };
+        final boolean[] ordered = { true };
+        class ProducerEvent {
+            final int producer;
+
+            final int sequence;
+
+            ProducerEvent(int producer, int sequence) {
+                this.producer = producer;
+                this.sequence = sequence;
+            }
+        }
+        // This listener is not thread-safe on purpose: only one thread at
+        // a time should deliver events.
+        manager.addListener(
+            ProducerEvent.class,
+            new IEventListener<ProducerEvent>() {
+                public void handleEvent(ProducerEvent event) {
+                    if (last[event.producer] != event.sequence - 1) {
+                        ordered[0] = false;
+                    }
+                    last[event.producer] = event.sequence;
+                    counter[0]++;
+                }
+            });
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch end = new CountDownLatch(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            final int producer = i;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 1; j <= count; j++) {
+                            manager.fireEvent(new ProducerEvent(producer, j));
+                        }
+                    } catch (InterruptedException e) {
+                    } finally {
+                        end.countDown();
+                    }
+                }
+            }.start();
+        }
+        start.countDown();
+        // A thread draining the queue returns only when the queue is empty,
+        // so all events are delivered when all producers are finished.
+        end.await();
+        assertTrue(ordered[0]);
+        assertEquals(threadCount * count, counter[0]);
+    }
+
+}
@@ -0,0 +1,129 @@
+/**
+ * 
+ */
+package org.ubimix.commons.events.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.ubimix.commons.events.EventManager;
+import org.ubimix.commons.events.IEventListenerRegistration;
+import org.ubimix.commons.events.IEventManager;
+
+/**
+ * @author kotelnikov
+ */
+public class SubscriberRegistryTest extends TestCase {
+
+    public static class PublicSubscriber {
+
+        private final List<String> fResult;
+
+        public PublicSubscriber(List<String> result) {
+            fResult = result;
+        }
+
+        @Subscribe
+        public void onNumber(Integer event) {
+            fResult.add("number:" + event);
+        }
+
+        @Subscribe(priority = 10)
+        public String onString(String event) {
+            fResult.add("string:" + event);
+            return event;
+        }
+
+    }
+
+    private static class PrivateSubscriber extends PublicSubscriber {
+
+        public PrivateSubscriber(List<String> result) {
+            super(result);
+        }
+
+        @Subscribe
+        void onObject(Object event) {
+            getResult(this).add("object:" + event);
+        }
+
+    }
+
+    private static class WrongSubscriber {
+
+        @Subscribe
+        public void onEvent(int event) {
+        }
+
+    }
+
+    private static List<String> getResult(PublicSubscriber subscriber) {
+        return subscriber.fResult;
+    }
+
+    /**
+     * @param name
+     */
+    public SubscriberRegistryTest(String name) {
+        super(name);
+    }
+
+    public void testInvokers() throws Throwable {
+        SubscriberRegistry subscribers = new SubscriberRegistry(
+            new EventManager());
+        SubscriberRegistry.IHandlerInvoker invoker = subscribers.newInvoker(
+            PublicSubscriber.class.getMethod("onNumber", Integer.class),
+            Integer.class);
+        // Invokers of public methods are generated by the lambda metafactory
+        assertTrue(invoker.getClass().isSynthetic());
+        List<String> result = new ArrayList<String>();
+        invoker.invoke(new PublicSubscriber(result), 1);
+        assertEquals(Arrays.asList("number:1"), result);
+    }
+
+    public void testRegistration() {
+        IEventManager manager = new EventManager();
+        SubscriberRegistry subscribers = new SubscriberRegistry(manager);
+        List<String> result = new ArrayList<String>();
+        IEventListenerRegistration first = subscribers
+            .register(new PublicSubscriber(result));
+        IEventListenerRegistration second = subscribers
+            .register(new PrivateSubscriber(result));
+        manager.fireEvent(1);
+        assertEquals(Arrays.asList("number:1", "number:1", "object:1"), result);
+
+        // Listeners with higher priority are called first
+        result.clear();
+        manager.fireEvent("a");
+        assertEquals(Arrays.asList("string:a", "string:a", "object:a"), result);
+
+        assertTrue(first.unregister());
+        assertFalse(first.unregister());
+        result.clear();
+        manager.fireEvent(2);
+        assertEquals(Arrays.asList("number:2", "object:2"), result);
+
+        assertTrue(second.unregister());
+        assertFalse(manager.hasListeners(Object.class));
+    }
+
+    public void testScanning() {
+        SubscriberRegistry subscribers = new SubscriberRegistry(
+            new EventManager());
+        SubscriberRegistry.SubscriberMethod[] methods = subscribers
+            .getSubscriberMethods(PrivateSubscriber.class);
+        assertEquals(3, methods.length);
+        assertSame(
+            methods,
+            subscribers.getSubscriberMethods(PrivateSubscriber.class));
+        try {
+            subscribers.register(new WrongSubscriber());
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+}